@@ -0,0 +1,89 @@
+package fi.hsl.transitdata.alert;
+
+import com.google.transit.realtime.GtfsRealtime;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Measures latency of alert index lookups by concurrent readers, both with a fixed index and while the index is
+ * rebuilt and replaced like when new snapshots are received.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AlertIndexBenchmark {
+    @Param({ "100", "500" })
+    public int bulletins;
+
+    @Param({ "20", "200" })
+    public int stopsPerBulletin;
+
+    private List<GtfsRealtime.FeedEntity> entities;
+    private List<String> routeIds;
+    private List<String> stopIds;
+
+    private volatile AlertIndex index;
+
+    //Each thread queries routes and stops in its own random order
+    @State(Scope.Thread)
+    public static class Query {
+        private List<String> routeIds;
+        private List<String> stopIds;
+        private int next;
+
+        @Setup
+        public void setUp(final AlertIndexBenchmark benchmark) {
+            final Random random = new Random();
+            routeIds = new ArrayList<>(benchmark.routeIds);
+            stopIds = new ArrayList<>(benchmark.stopIds);
+            Collections.shuffle(routeIds, random);
+            Collections.shuffle(stopIds, random);
+        }
+
+        List<GtfsRealtime.FeedEntity> find(final AlertIndex index) {
+            next++;
+            return index.find(Collections.singletonList(routeIds.get(next % routeIds.size())), Collections.singletonList(stopIds.get(next % stopIds.size())), true);
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        entities = AlertHandler.createFeedEntities(new ServiceAlertGenerator(bulletins, 5, stopsPerBulletin, 3).generate(42).getBulletinsList(), false);
+        index = AlertIndex.build(entities, 0);
+        routeIds = entities.stream().flatMap(entity -> entity.getAlert().getInformedEntityList().stream())
+                .filter(GtfsRealtime.EntitySelector::hasRouteId).map(GtfsRealtime.EntitySelector::getRouteId).distinct().collect(Collectors.toList());
+        stopIds = entities.stream().flatMap(entity -> entity.getAlert().getInformedEntityList().stream())
+                .filter(GtfsRealtime.EntitySelector::hasStopId).map(GtfsRealtime.EntitySelector::getStopId).distinct().collect(Collectors.toList());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public List<GtfsRealtime.FeedEntity> lookup(final Query query) {
+        return query.find(index);
+    }
+
+    @Benchmark
+    @Group("lookupWhileRebuilding")
+    @GroupThreads(3)
+    public List<GtfsRealtime.FeedEntity> reader(final Query query) {
+        return query.find(index);
+    }
+
+    @Benchmark
+    @Group("lookupWhileRebuilding")
+    @GroupThreads(1)
+    public AlertIndex writer() {
+        final AlertIndex rebuilt = AlertIndex.build(entities, 0);
+        index = rebuilt;
+        return rebuilt;
+    }
+}
@@ -0,0 +1,23 @@
+package fi.hsl.transitdata.alert;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with GC profiler enabled, so that allocation rate is reported together with throughput.
+ * Accepts the same command line options as JMH, e.g. a regular expression for selecting the benchmarks to run.
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws Exception {
+        final Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                //Logging of every converted bulletin would dominate the results
+                .jvmArgsAppend("-Dlogback.configurationFile=logback-benchmark.xml")
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,97 @@
+package fi.hsl.transitdata.alert;
+
+import com.google.transit.realtime.GtfsRealtime;
+import fi.hsl.common.gtfsrt.FeedMessageFactory;
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the conversion of service alert snapshots of different sizes to GTFS-RT
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConversionBenchmark {
+    @Param({ "10", "100" })
+    public int bulletins;
+
+    @Param({ "5" })
+    public int routesPerBulletin;
+
+    @Param({ "20", "1000" })
+    public int stopsPerBulletin;
+
+    @Param({ "3" })
+    public int translations;
+
+    private byte[] serializedServiceAlert;
+    private List<InternalMessages.Bulletin> bulletinList;
+    private GtfsRealtime.FeedMessage feedMessage;
+    private StreamingTranscoder transcoder;
+
+    @Setup
+    public void setUp() {
+        final InternalMessages.ServiceAlert serviceAlert = new ServiceAlertGenerator(bulletins, routesPerBulletin, stopsPerBulletin, translations).generate(42);
+        serializedServiceAlert = serviceAlert.toByteArray();
+        bulletinList = serviceAlert.getBulletinsList();
+        feedMessage = FeedMessageFactory.createFullFeedMessage(AlertHandler.createFeedEntities(bulletinList, true), 1_600_000_000L);
+        transcoder = new StreamingTranscoder(true);
+    }
+
+    @Benchmark
+    public InternalMessages.ServiceAlert parseServiceAlert() throws Exception {
+        return InternalMessages.ServiceAlert.parseFrom(serializedServiceAlert);
+    }
+
+    @Benchmark
+    public List<GtfsRealtime.FeedEntity> createFeedEntities() {
+        return AlertHandler.createFeedEntities(bulletinList, true);
+    }
+
+    @Benchmark
+    public void createAlert(final Blackhole blackhole) {
+        for (final InternalMessages.Bulletin bulletin : bulletinList) {
+            blackhole.consume(AlertHandler.createAlert(bulletin, true));
+        }
+    }
+
+    @Benchmark
+    public void entitySelectorsForBulletin(final Blackhole blackhole) {
+        for (final InternalMessages.Bulletin bulletin : bulletinList) {
+            blackhole.consume(AlertHandler.entitySelectorsForBulletin(bulletin));
+        }
+    }
+
+    @Benchmark
+    public void toGtfsTranslatedString(final Blackhole blackhole) {
+        for (final InternalMessages.Bulletin bulletin : bulletinList) {
+            blackhole.consume(AlertHandler.toGtfsTranslatedString(bulletin.getTitlesList()));
+            blackhole.consume(AlertHandler.toGtfsTranslatedString(bulletin.getDescriptionsList()));
+            blackhole.consume(AlertHandler.toGtfsTranslatedString(bulletin.getUrlsList()));
+        }
+    }
+
+    @Benchmark
+    public byte[] serializeFeedMessage() {
+        return feedMessage.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] convertSnapshot() throws Exception {
+        final InternalMessages.ServiceAlert serviceAlert = InternalMessages.ServiceAlert.parseFrom(serializedServiceAlert);
+        final List<GtfsRealtime.FeedEntity> entities = AlertHandler.createFeedEntities(serviceAlert.getBulletinsList(), true);
+        return FeedMessageFactory.createFullFeedMessage(entities, 1_600_000_000L).toByteArray();
+    }
+
+    @Benchmark
+    public byte[] transcodeSnapshot() throws Exception {
+        return transcoder.transcode(serializedServiceAlert, 1_600_000_000L);
+    }
+}
@@ -0,0 +1,69 @@
+package fi.hsl.transitdata.alert;
+
+import com.google.transit.realtime.GtfsRealtime;
+import fi.hsl.common.transitdata.RouteIdUtils;
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares creating entity selectors with the pooled selectors to building new selectors and removing duplicates
+ * with a HashSet, which was done before the pool. Run with GC profiler to see the difference in allocation rate.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EntitySelectorBenchmark {
+    @Param({ "100" })
+    public int bulletins;
+
+    @Param({ "5" })
+    public int routesPerBulletin;
+
+    @Param({ "20", "1000" })
+    public int stopsPerBulletin;
+
+    private List<InternalMessages.Bulletin> bulletinList;
+
+    @Setup
+    public void setUp() {
+        bulletinList = new ServiceAlertGenerator(bulletins, routesPerBulletin, stopsPerBulletin, 3).generate(42).getBulletinsList();
+    }
+
+    @Benchmark
+    public void pooledSelectors(final Blackhole blackhole) {
+        for (final InternalMessages.Bulletin bulletin : bulletinList) {
+            blackhole.consume(AlertHandler.entitySelectorsForBulletin(bulletin));
+        }
+    }
+
+    @Benchmark
+    public void newSelectorsInHashSet(final Blackhole blackhole) {
+        for (final InternalMessages.Bulletin bulletin : bulletinList) {
+            blackhole.consume(entitySelectorsInHashSet(bulletin));
+        }
+    }
+
+    private static Collection<GtfsRealtime.EntitySelector> entitySelectorsInHashSet(final InternalMessages.Bulletin bulletin) {
+        final Set<GtfsRealtime.EntitySelector> selectors = new HashSet<>();
+        if (bulletin.getAffectsAllRoutes() || bulletin.getAffectsAllStops()) {
+            selectors.add(GtfsRealtime.EntitySelector.newBuilder().setAgencyId(AlertHandler.AGENCY_ENTITY_SELECTOR).build());
+        }
+        for (final InternalMessages.Bulletin.AffectedEntity route : bulletin.getAffectedRoutesList()) {
+            selectors.add(GtfsRealtime.EntitySelector.newBuilder().setRouteId(RouteIdUtils.normalizeRouteId(route.getEntityId())).build());
+        }
+        for (final InternalMessages.Bulletin.AffectedEntity stop : bulletin.getAffectedStopsList()) {
+            selectors.add(GtfsRealtime.EntitySelector.newBuilder().setStopId(stop.getEntityId()).build());
+        }
+        return selectors;
+    }
+}
@@ -0,0 +1,64 @@
+package fi.hsl.transitdata.alert;
+
+import com.google.transit.realtime.GtfsRealtime;
+import fi.hsl.common.gtfsrt.FeedMessageFactory;
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares rendering each feed as JSON from scratch with reusing the JSON of unchanged entities, when one alert
+ * changes between consecutive feeds
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonRenderingBenchmark {
+    @Param({ "100", "500" })
+    public int bulletins;
+
+    @Param({ "20" })
+    public int stopsPerBulletin;
+
+    //Consecutive feeds differ by one alert
+    private final List<List<GtfsRealtime.FeedEntity>> feeds = new ArrayList<>();
+    private GtfsRealtime.FeedHeader header;
+    private JsonFeedRenderer renderer;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        final InternalMessages.ServiceAlert serviceAlert = new ServiceAlertGenerator(bulletins, 5, stopsPerBulletin, 3).generate(42);
+        final List<GtfsRealtime.FeedEntity> entities = AlertHandler.createFeedEntities(serviceAlert.getBulletinsList(), true);
+        header = FeedMessageFactory.createFullFeedMessage(entities, 1_600_000_000L).getHeader();
+        for (int i = 0; i < 16; i++) {
+            final List<GtfsRealtime.FeedEntity> feed = new ArrayList<>(entities);
+            final GtfsRealtime.FeedEntity changed = feed.get(i);
+            feed.set(i, changed.toBuilder().setAlert(changed.getAlert().toBuilder().setCause(GtfsRealtime.Alert.Cause.STRIKE)).build());
+            feeds.add(feed);
+        }
+        renderer = new JsonFeedRenderer();
+    }
+
+    private List<GtfsRealtime.FeedEntity> nextFeed() {
+        return feeds.get(next++ & 15);
+    }
+
+    @Benchmark
+    public byte[] printFullFeed() {
+        final GtfsRealtime.FeedMessage feedMessage = GtfsRealtime.FeedMessage.newBuilder().setHeader(header).addAllEntity(nextFeed()).build();
+        return GtfsRtJson.print(feedMessage).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] renderWithCachedEntities() {
+        return renderer.render(header, nextFeed());
+    }
+}
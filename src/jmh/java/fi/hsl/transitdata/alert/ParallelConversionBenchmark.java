@@ -0,0 +1,52 @@
+package fi.hsl.transitdata.alert;
+
+import com.google.transit.realtime.GtfsRealtime;
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares sequential and parallel conversion of snapshots of different sizes to find the snapshot size above which
+ * parallel conversion is faster, i.e. suitable values for <code>parallelConversion.minBulletins</code> and
+ * <code>parallelConversion.minSelectors</code>. Run on a machine with as many cores as the service has.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelConversionBenchmark {
+    @Param({ "10", "50", "100", "500" })
+    public int bulletins;
+
+    @Param({ "5" })
+    public int routesPerBulletin;
+
+    @Param({ "20", "200", "1000" })
+    public int stopsPerBulletin;
+
+    @Param({ "4" })
+    public int parallelism;
+
+    private List<InternalMessages.Bulletin> bulletinList;
+    private ParallelConverter converter;
+
+    @Setup
+    public void setUp() {
+        bulletinList = new ServiceAlertGenerator(bulletins, routesPerBulletin, stopsPerBulletin, 3).generate(42).getBulletinsList();
+        converter = new ParallelConverter(parallelism, 0, 0);
+    }
+
+    @Benchmark
+    public List<GtfsRealtime.FeedEntity> sequential() {
+        return AlertHandler.createFeedEntities(bulletinList, true);
+    }
+
+    @Benchmark
+    public List<GtfsRealtime.FeedEntity> parallel() {
+        return converter.convert(bulletinList, bulletin -> AlertHandler.createFeedEntity(bulletin, true));
+    }
+}
@@ -0,0 +1,142 @@
+package fi.hsl.transitdata.alert;
+
+import com.google.transit.realtime.GtfsRealtime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tells when the latest published feed needs to be republished because an active period of an alert has started or
+ * ended. Service alert messages are received only when bulletins change, so without republishing consumers would not
+ * get a new feed until the next message. Start and end times of the active periods of the latest published snapshot
+ * are kept in a priority queue and {@link #pollDueEntities()} is called periodically to check if the earliest of them
+ * has passed. Optionally alerts whose active periods have all ended are left out of the feed.
+ */
+class ActivePeriodScheduler {
+    private static final Logger log = LoggerFactory.getLogger(ActivePeriodScheduler.class);
+
+    private final Clock clock;
+    private final boolean dropExpiredAlerts;
+
+    private List<GtfsRealtime.FeedEntity> entities = Collections.emptyList();
+    private final PriorityQueue<Long> boundariesMs = new PriorityQueue<>();
+
+    private final LongAdder republishedFeeds = new LongAdder();
+    private final LongAdder droppedAlerts = new LongAdder();
+
+    /**
+     * @param dropExpiredAlerts If true, alerts whose active periods have all ended are removed from the feed
+     */
+    ActivePeriodScheduler(final Clock clock, final boolean dropExpiredAlerts) {
+        this.clock = clock;
+        this.dropExpiredAlerts = dropExpiredAlerts;
+    }
+
+    /**
+     * @return Entities that should be published now, or the same list if no alert is left out
+     */
+    List<GtfsRealtime.FeedEntity> activeEntities(final List<GtfsRealtime.FeedEntity> entities) {
+        return activeEntities(entities, clock.millis());
+    }
+
+    /**
+     * Replaces the snapshot whose alerts are followed. Called when the snapshot has been published, so that a
+     * republished feed never contains an older snapshot than the previously published feed.
+     */
+    synchronized void update(final List<GtfsRealtime.FeedEntity> entities) {
+        final long nowMs = clock.millis();
+        this.entities = entities;
+
+        boundariesMs.clear();
+        boolean hasEndedAlerts = false;
+        for (final GtfsRealtime.FeedEntity entity : entities) {
+            for (final GtfsRealtime.TimeRange activePeriod : entity.getAlert().getActivePeriodList()) {
+                if (activePeriod.hasStart() && activePeriod.getStart() * 1000 > nowMs) {
+                    boundariesMs.add(activePeriod.getStart() * 1000);
+                }
+                if (activePeriod.hasEnd() && activePeriod.getEnd() * 1000 > nowMs) {
+                    boundariesMs.add(activePeriod.getEnd() * 1000);
+                }
+            }
+            hasEndedAlerts |= getEndTimeMs(entity.getAlert()) <= nowMs;
+        }
+        if (dropExpiredAlerts && hasEndedAlerts) {
+            //Published before the alerts ended, e.g. a restored feed, they are dropped on the next check
+            boundariesMs.add(nowMs);
+        }
+    }
+
+    /**
+     * @return Entities of the latest published snapshot, without the alerts that have ended if they are dropped, or
+     * null if no active period has started or ended since the previous call
+     */
+    synchronized List<GtfsRealtime.FeedEntity> pollDueEntities() {
+        final long nowMs = clock.millis();
+        final Long nextBoundaryMs = boundariesMs.peek();
+        if (nextBoundaryMs == null || nextBoundaryMs > nowMs) {
+            return null;
+        }
+        //Boundaries that have passed since the previous check cause only one republish
+        while (!boundariesMs.isEmpty() && boundariesMs.peek() <= nowMs) {
+            boundariesMs.poll();
+        }
+
+        final List<GtfsRealtime.FeedEntity> activeEntities = activeEntities(entities, nowMs);
+        log.info("Republishing GTFS-RT service alert message with {} entities because an active period has started or ended", activeEntities.size());
+        republishedFeeds.increment();
+        return activeEntities;
+    }
+
+    private List<GtfsRealtime.FeedEntity> activeEntities(final List<GtfsRealtime.FeedEntity> entities, final long nowMs) {
+        if (!dropExpiredAlerts) {
+            return entities;
+        }
+
+        final List<GtfsRealtime.FeedEntity> activeEntities = new ArrayList<>(entities.size());
+        for (final GtfsRealtime.FeedEntity entity : entities) {
+            if (getEndTimeMs(entity.getAlert()) <= nowMs) {
+                droppedAlerts.increment();
+                log.debug("Active period of alert {} has ended, not publishing it", entity.getId());
+            } else {
+                activeEntities.add(entity);
+            }
+        }
+        return activeEntities.size() == entities.size() ? entities : activeEntities;
+    }
+
+    /**
+     * @return Time when all active periods of the alert have ended, or {@link Long#MAX_VALUE} if some of them has
+     * no end time
+     */
+    private static long getEndTimeMs(final GtfsRealtime.Alert alert) {
+        if (alert.getActivePeriodCount() == 0) {
+            return Long.MAX_VALUE;
+        }
+        long endTimeMs = 0;
+        for (final GtfsRealtime.TimeRange activePeriod : alert.getActivePeriodList()) {
+            if (!activePeriod.hasEnd()) {
+                return Long.MAX_VALUE;
+            }
+            endTimeMs = Math.max(endTimeMs, activePeriod.getEnd() * 1000);
+        }
+        return endTimeMs;
+    }
+
+    synchronized int getScheduledBoundaryCount() {
+        return boundariesMs.size();
+    }
+
+    long getRepublishedFeedCount() {
+        return republishedFeeds.sum();
+    }
+
+    long getDroppedAlertCount() {
+        return droppedAlerts.sum();
+    }
+}
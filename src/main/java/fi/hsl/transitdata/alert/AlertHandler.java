@@ -1,10 +1,10 @@
 package fi.hsl.transitdata.alert;
 
 import com.google.transit.realtime.GtfsRealtime;
+import com.typesafe.config.Config;
 import fi.hsl.common.gtfsrt.FeedMessageFactory;
 import fi.hsl.common.pulsar.IMessageHandler;
 import fi.hsl.common.pulsar.PulsarApplicationContext;
-import fi.hsl.common.transitdata.RouteIdUtils;
 import fi.hsl.common.transitdata.TransitdataProperties;
 import fi.hsl.common.transitdata.TransitdataSchema;
 import fi.hsl.common.transitdata.proto.InternalMessages;
@@ -12,7 +12,20 @@ import org.apache.pulsar.client.api.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
 import java.util.stream.Collectors;
 
 public class AlertHandler implements IMessageHandler {
@@ -20,70 +33,970 @@ public class AlertHandler implements IMessageHandler {
 
     public static final String AGENCY_ENTITY_SELECTOR = "HSL";
 
+    private static final int SELECTOR_POOL_MAX_SIZE = 100_000;
+    static final EntitySelectorPool selectorPool = new EntitySelectorPool(SELECTOR_POOL_MAX_SIZE);
+
+    private static final int TRANSLATED_STRING_CACHE_MAX_SIZE = 10_000;
+    private static final TranslatedStringCache translatedStringCache = new TranslatedStringCache(TRANSLATED_STRING_CACHE_MAX_SIZE);
+
+    static final LongAdder discardedDisplayOnlyBulletins = new LongAdder();
+    static final LongAdder discardedBulletinsWithoutInformedEntities = new LongAdder();
+    static final LongAdder discardedBulletinsWithException = new LongAdder();
+
     private final Consumer<byte[]> consumer;
     private final Producer<byte[]> producer;
 
-    private final boolean globalNoServiceAlerts;
+    private final AlertMappingLoader mappingLoader;
+    //Null if service alerts are not limited
+    private final SnapshotLimits limits;
+
+    private final ParallelConverter parallelConverter;
+
+    private final FeedEntityCache feedEntityCache;
+
+    private final StreamingTranscoder transcoder;
+
+    private final SelectorCompactor selectorCompactor;
+    private final Metrics.Histogram compactionSavedBytes;
+
+    private final AsyncFeedPublisher asyncPublisher;
+
+    private final SnapshotConflator conflator;
+
+    private final DifferentialFeedPublisher differentialPublisher;
+
+    private final FeedChangeDetector changeDetector;
+
+    private final KeyedEntityPublisher keyedEntityPublisher;
+
+    private final JsonFeedPublisher jsonPublisher;
+
+    private final boolean alertIndexEnabled;
+    private volatile AlertIndex alertIndex = AlertIndex.EMPTY;
+
+    private final ActivePeriodScheduler activePeriodScheduler;
+    private final ScheduledExecutorService activePeriodExecutor;
 
-    public AlertHandler(final PulsarApplicationContext context) {
-        consumer = context.getConsumer();
-        producer = context.getSingleProducer();
+    private final SnapshotStateStore stateStore;
+    private final boolean republishStateOnStartup;
 
-        globalNoServiceAlerts = context.getConfig().getBoolean("application.enableGlobalNoServiceAlerts");
+    private final ProcessingPipeline<ProcessedMessage> pipeline;
+
+    private volatile long firstPublishDelayMs = -1;
+
+    //Null if this is the only instance
+    private final LeaderElection leaderElection;
+    //Role is checked and changed while holding the lock, so that feeds are not published after losing leadership
+    private final Object publishLock = new Object();
+    //Latest feed converted as a standby, published when this instance becomes the leader
+    private ProcessedMessage latestStandbyFeed;
+    private boolean hasBeenStandby;
+    private final LongAdder standbyFeeds = new LongAdder();
+    private final LongAdder takeovers = new LongAdder();
+    private volatile long takeoverLatencyMs = -1;
+    //Service alert of the latest published snapshot, saved again when its feed is republished
+    private byte[] latestPublishedServiceAlert;
+    private long asyncFeedsSent;
+    //Event time of the newest snapshot handed to the producer, older snapshots must not be published after it
+    private volatile long latestSnapshotTimestampMs = Long.MIN_VALUE;
+    private final LongAdder staleSnapshots = new LongAdder();
+    private final AtomicLong asyncFeedsCompleted = new AtomicLong();
+
+    private final Metrics metrics = new Metrics();
+    private final ProcessingMetrics stats = new ProcessingMetrics(metrics);
+
+    public AlertHandler(final PulsarApplicationContext context) throws PulsarClientException {
+        this(context.getConfig(), context.getConsumer(), context.getSingleProducer(), new ProducerFactory() {
+            @Override
+            public Producer<byte[]> createProducer(final String topic) throws PulsarClientException {
+                return context.getClient().newProducer()
+                        .topic(topic)
+                        .enableBatching(false)
+                        .blockIfQueueFull(true)
+                        .create();
+            }
+
+            @Override
+            public Producer<byte[]> createBatchingProducer(final String topic) throws PulsarClientException {
+                return context.getClient().newProducer()
+                        .topic(topic)
+                        .enableBatching(true)
+                        .batchingMaxPublishDelay(10, TimeUnit.MILLISECONDS)
+                        .blockIfQueueFull(true)
+                        .create();
+            }
+
+            @Override
+            public CompletableFuture<Producer<byte[]>> createExclusiveProducerAsync(final String topic) {
+                return context.getClient().newProducer()
+                        .topic(topic)
+                        .accessMode(ProducerAccessMode.WaitForExclusive)
+                        .createAsync();
+            }
+
+            @Override
+            public Set<String> readCompactedKeys(final String topic) throws IOException {
+                final Set<String> keys = new HashSet<>();
+                try (Reader<byte[]> reader = context.getClient().newReader()
+                        .topic(topic)
+                        .startMessageId(MessageId.earliest)
+                        .readCompacted(true)
+                        .create()) {
+                    while (reader.hasMessageAvailable()) {
+                        final Message<byte[]> message = reader.readNext();
+                        if (!message.hasKey()) {
+                            continue;
+                        }
+                        //Empty value is a tombstone
+                        if (message.getData().length == 0) {
+                            keys.remove(message.getKey());
+                        } else {
+                            keys.add(message.getKey());
+                        }
+                    }
+                }
+                return keys;
+            }
+        });
     }
 
-    public void handleMessage(final Message message) {
+    AlertHandler(final Config config, final Consumer<byte[]> consumer, final Producer<byte[]> producer, final ProducerFactory producerFactory) throws PulsarClientException {
+        this.consumer = consumer;
+        this.producer = producer;
+
+        mappingLoader = new AlertMappingLoader(config);
+        mappingLoader.start();
+        if (config.getBoolean("application.limits.enabled")) {
+            limits = new SnapshotLimits(Math.toIntExact(config.getBytes("application.limits.maxMessageSize")),
+                    config.getInt("application.limits.maxBulletins"),
+                    Math.toIntExact(config.getBytes("application.limits.maxBulletinSize")),
+                    config.getInt("application.limits.maxSelectorsPerBulletin"),
+                    config.getInt("application.limits.maxTextLength"));
+            log.info("Limiting service alerts to {} bytes, {} bulletins of {} bytes, {} affected routes and stops per bulletin and {} bytes per text",
+                    limits.maxMessageSize, limits.maxBulletins, limits.maxBulletinSize, limits.maxSelectorsPerBulletin, limits.maxTextLength);
+        } else {
+            limits = null;
+        }
+        if (config.getBoolean("application.parallelConversion.enabled")) {
+            final int parallelism = config.getInt("application.parallelConversion.parallelism");
+            final int minBulletins = config.getInt("application.parallelConversion.minBulletins");
+            final int minSelectors = config.getInt("application.parallelConversion.minSelectors");
+            log.info("Converting snapshots with at least {} bulletins or {} affected routes and stops using {} threads", minBulletins, minSelectors, parallelism);
+            parallelConverter = new ParallelConverter(parallelism, minBulletins, minSelectors);
+        } else {
+            parallelConverter = null;
+        }
+        feedEntityCache = new FeedEntityCache(config.getInt("application.feedEntityCache.maxSize"), parallelConverter);
+
+        if (config.getBoolean("application.selectorCompaction.enabled")) {
+            final boolean dropCoveredByAgency = config.getBoolean("application.selectorCompaction.dropCoveredByAgency");
+            final int maxSelectors = config.getInt("application.selectorCompaction.maxSelectors");
+            log.info("Compacting entity selectors of alerts, drop selectors covered by agency: {}, max selectors: {}", dropCoveredByAgency, maxSelectors);
+            selectorCompactor = new SelectorCompactor(dropCoveredByAgency, maxSelectors);
+            compactionSavedBytes = metrics.histogram("selector_compaction_saved_bytes", "Number of bytes removed from the alerts of each snapshot by compacting entity selectors", Metrics.SIZE_BUCKETS_BYTES);
+        } else {
+            selectorCompactor = null;
+            compactionSavedBytes = null;
+        }
+
+        if (config.getBoolean("application.streamingTranscoder.enabled")) {
+            log.info("Transcoding service alerts to GTFS-RT with streaming transcoder");
+            transcoder = new StreamingTranscoder(mappingLoader::get, selectorCompactor, limits);
+        } else {
+            transcoder = null;
+        }
+
+        if (config.getBoolean("application.publisher.async")) {
+            final int maxPendingMessages = config.getInt("application.publisher.maxPendingMessages");
+            log.info("Publishing messages asynchronously, max {} pending messages", maxPendingMessages);
+            asyncPublisher = new AsyncFeedPublisher(maxPendingMessages);
+        } else {
+            asyncPublisher = null;
+        }
+
+        if (config.getBoolean("application.conflation.enabled")) {
+            conflator = new SnapshotConflator(consumer, config.getInt("application.conflation.maxMessages"));
+        } else {
+            conflator = null;
+        }
+
+        if (config.getBoolean("application.differential.enabled")) {
+            if (transcoder != null) {
+                throw new IllegalArgumentException("Differential feeds cannot be published when streaming transcoder is enabled");
+            }
+            final String topic = config.getString("application.differential.topic");
+            log.info("Publishing differential feeds to topic {}", topic);
+            differentialPublisher = new DifferentialFeedPublisher(producerFactory.createProducer(topic),
+                    config.getDuration("application.differential.fullResyncInterval"), Clock.systemUTC());
+        } else {
+            differentialPublisher = null;
+        }
+
+        if (config.getBoolean("application.keyedEntities.enabled")) {
+            if (transcoder != null) {
+                throw new IllegalArgumentException("Keyed alerts cannot be published when streaming transcoder is enabled");
+            }
+            final String topic = config.getString("application.keyedEntities.topic");
+            log.info("Publishing alerts keyed by bulletin ID to topic {}", topic);
+            keyedEntityPublisher = new KeyedEntityPublisher(producerFactory.createBatchingProducer(topic), () -> producerFactory.readCompactedKeys(topic));
+        } else {
+            keyedEntityPublisher = null;
+        }
+
+        if (config.getBoolean("application.json.enabled")) {
+            if (transcoder != null) {
+                throw new IllegalArgumentException("JSON feeds cannot be published when streaming transcoder is enabled");
+            }
+            final String topic = config.getString("application.json.topic");
+            log.info("Publishing feeds as JSON to topic {}", topic);
+            jsonPublisher = new JsonFeedPublisher(producerFactory.createProducer(topic));
+        } else {
+            jsonPublisher = null;
+        }
+
+        alertIndexEnabled = config.getBoolean("application.alertIndex.enabled");
+        if (alertIndexEnabled && transcoder != null) {
+            throw new IllegalArgumentException("Alert index cannot be used when streaming transcoder is enabled");
+        }
+
+        if (config.getBoolean("application.activePeriodScheduler.enabled")) {
+            if (transcoder != null) {
+                throw new IllegalArgumentException("Active period scheduler cannot be used when streaming transcoder is enabled");
+            }
+            final long checkIntervalMs = config.getDuration("application.activePeriodScheduler.checkInterval", TimeUnit.MILLISECONDS);
+            log.info("Republishing feeds when active periods start or end, checking every {} ms", checkIntervalMs);
+            activePeriodScheduler = new ActivePeriodScheduler(Clock.systemUTC(), config.getBoolean("application.activePeriodScheduler.dropExpiredAlerts"));
+            activePeriodExecutor = startActivePeriodScheduler(checkIntervalMs);
+        } else {
+            activePeriodScheduler = null;
+            activePeriodExecutor = null;
+        }
+
+        if (config.getBoolean("application.suppressUnchangedFeeds.enabled")) {
+            changeDetector = new FeedChangeDetector(config.getDuration("application.suppressUnchangedFeeds.maxInterval"), Clock.systemUTC());
+        } else {
+            changeDetector = null;
+        }
+
+        if (config.getBoolean("application.stateFile.enabled")) {
+            final Path path = Paths.get(config.getString("application.stateFile.path"));
+            log.info("Saving snapshot state to {}", path);
+            stateStore = new SnapshotStateStore(path);
+            republishStateOnStartup = config.getBoolean("application.stateFile.republishOnStartup");
+        } else {
+            stateStore = null;
+            republishStateOnStartup = false;
+        }
+
+        if (config.getBoolean("application.cluster.enabled")) {
+            final long checkIntervalMs = config.getDuration("application.cluster.checkInterval", TimeUnit.MILLISECONDS);
+            final String election = config.getString("application.cluster.election");
+            switch (election) {
+                case "exclusiveProducer":
+                    leaderElection = new ExclusiveProducerLeaderElection(producerFactory, config.getString("application.cluster.leaseTopic"), checkIntervalMs);
+                    break;
+                case "lockFile":
+                    leaderElection = new LockFileLeaderElection(Paths.get(config.getString("application.cluster.lockFile")), checkIntervalMs);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown leader election " + election);
+            }
+            log.info("Running in cluster mode, electing the leader with {}", election);
+            leaderElection.start(new LeaderElection.Listener() {
+                @Override
+                public void onElected(final long previousLeaderSeenMs) {
+                    takeOver(previousLeaderSeenMs);
+                }
+
+                @Override
+                public void onLost() {
+                    log.warn("Lost leadership, not publishing feeds until elected again");
+                }
+            });
+        } else {
+            leaderElection = null;
+        }
+
+        if (config.getBoolean("application.pipeline.enabled")) {
+            final int queueSize = config.getInt("application.pipeline.queueSize");
+            //Conversion and publishing depend on the previous snapshot, so they are done in one thread each
+            pipeline = new ProcessingPipeline<ProcessedMessage>(queueSize, config.getBoolean("application.pipeline.virtualThreads"), this::onProcessingFailed)
+                    .addStage("decode", config.getInt("application.pipeline.decodeThreads"), this::decode)
+                    .addStage("convert", 1, this::convert)
+                    .addStage("encode", config.getInt("application.pipeline.encodeThreads"), this::encode)
+                    .addStage("publish", 1, this::publish);
+            pipeline.start();
+        } else {
+            pipeline = null;
+        }
+
+        registerMetrics();
+    }
+
+    /**
+     * Service alert message and the results of the processing stages
+     */
+    private static class ProcessedMessage {
+        final List<MessageId> received;
+        final long timestampMs;
+        final byte[] data;
+
+        InternalMessages.ServiceAlert alert;
+        //Null when transcoded
+        List<GtfsRealtime.FeedEntity> entities;
+        GtfsRealtime.FeedMessage feedMessage;
+        byte[] payload;
+
+        ProcessedMessage(final List<MessageId> received, final long timestampMs, final byte[] data) {
+            this.received = received;
+            this.timestampMs = timestampMs;
+            this.data = data;
+        }
+    }
+
+    private boolean isLeader() {
+        return leaderElection == null || leaderElection.isLeader();
+    }
+
+    /**
+     * Publishes the latest feed converted as a standby, so that consumers get a feed without waiting for the next
+     * service alert message
+     */
+    private void takeOver(final long previousLeaderSeenMs) {
+        synchronized (publishLock) {
+            final ProcessedMessage latest = latestStandbyFeed;
+            latestStandbyFeed = null;
+            if (latest != null) {
+                try {
+                    if (changeDetector != null) {
+                        changeDetector.shouldPublish(latest.payload);
+                    }
+                    if (sendPulsarMessage(latest.data, latest.payload, latest.timestampMs)) {
+                        onSnapshotPublished(latest.data, latest.entities);
+                    }
+                } catch (final Exception e) {
+                    log.error("Failed to publish the latest feed after becoming the leader", e);
+                }
+            }
+            //Feeds published by the previous leader are not known, so these publish all of their latest state
+            if (differentialPublisher != null) {
+                differentialPublisher.takeOver();
+            }
+            if (keyedEntityPublisher != null) {
+                keyedEntityPublisher.takeOver();
+            }
+            if (jsonPublisher != null) {
+                jsonPublisher.takeOver();
+            }
+
+            if (hasBeenStandby) {
+                takeovers.increment();
+                if (previousLeaderSeenMs > 0) {
+                    takeoverLatencyMs = System.currentTimeMillis() - previousLeaderSeenMs;
+                }
+                log.info("Took over as the leader, previous leader was last seen {} ms ago", previousLeaderSeenMs > 0 ? takeoverLatencyMs : "unknown");
+            }
+        }
+    }
+
+    /**
+     * Releases the leadership and stops processing
+     */
+    void close() {
+        if (leaderElection != null) {
+            leaderElection.close();
+        }
+        mappingLoader.close();
+        if (activePeriodExecutor != null) {
+            activePeriodExecutor.shutdownNow();
+        }
+        if (pipeline != null) {
+            pipeline.close();
+        }
+        if (parallelConverter != null) {
+            parallelConverter.close();
+        }
+    }
+
+    private ScheduledExecutorService startActivePeriodScheduler(final long checkIntervalMs) {
+        final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "active-period-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                if (isLeader()) {
+                    republishActiveEntities();
+                }
+            } catch (final Exception e) {
+                log.error("Failed to republish feed", e);
+            }
+        }, checkIntervalMs, checkIntervalMs, TimeUnit.MILLISECONDS);
+        return executor;
+    }
+
+    private void registerMetrics() {
+        final Map<String, LongSupplier> discardedBulletins = new LinkedHashMap<>();
+        discardedBulletins.put("reason=\"display_only\"", discardedDisplayOnlyBulletins::sum);
+        discardedBulletins.put("reason=\"no_informed_entities\"", discardedBulletinsWithoutInformedEntities::sum);
+        discardedBulletins.put("reason=\"exception\"", discardedBulletinsWithException::sum);
+        if (limits != null) {
+            discardedBulletins.put("reason=\"too_many_bulletins\"", limits.droppedTooManyBulletins::sum);
+            discardedBulletins.put("reason=\"bulletin_too_large\"", limits.droppedTooLargeBulletins::sum);
+        }
+        metrics.counter("discarded_bulletins_total", "Number of bulletins for which no alert was created", discardedBulletins);
+        if (limits != null) {
+            final Map<String, LongSupplier> truncatedBulletins = new LinkedHashMap<>();
+            truncatedBulletins.put("reason=\"too_many_selectors\"", limits.truncatedSelectors::sum);
+            truncatedBulletins.put("reason=\"text_too_long\"", limits.truncatedTexts::sum);
+            metrics.counter("truncated_bulletins_total", "Number of bulletins whose affected routes and stops or texts were truncated to the limits", truncatedBulletins);
+            metrics.counter("rejected_messages_total", "Number of service alert messages rejected because they were larger than the limit", limits.rejectedMessages::sum);
+        }
+
+        metrics.counter("feed_entity_cache_hits_total", "Number of bulletins whose feed entity was found from the cache", feedEntityCache::getHitCount);
+        metrics.counter("feed_entity_cache_misses_total", "Number of bulletins that had to be converted", feedEntityCache::getMissCount);
+        metrics.gauge("feed_entity_cache_size", "Number of feed entities in the cache", feedEntityCache::size);
+        metrics.counter("entity_selector_pool_hits_total", "Number of route and stop IDs whose entity selector was found from the pool", selectorPool::getHitCount);
+        metrics.counter("entity_selector_pool_misses_total", "Number of route and stop IDs whose entity selector had to be built", selectorPool::getMissCount);
+        metrics.gauge("entity_selector_pool_size", "Number of entity selectors in the pool", selectorPool::size);
+        metrics.counter("translated_string_cache_hits_total", "Number of titles, descriptions and URLs found from the cache", translatedStringCache::getHitCount);
+        metrics.counter("translated_string_cache_misses_total", "Number of titles, descriptions and URLs that had to be converted", translatedStringCache::getMissCount);
+        metrics.gauge("translated_string_cache_hit_ratio", "Ratio of cache hits to all lookups of titles, descriptions and URLs", () -> {
+            final long hits = translatedStringCache.getHitCount();
+            final long lookups = hits + translatedStringCache.getMissCount();
+            return lookups == 0 ? 0 : hits / (double) lookups;
+        });
+        metrics.gauge("translated_string_cache_size", "Number of translated strings in the cache", translatedStringCache::size);
+        metrics.gauge("translated_string_cache_retained_bytes", "Estimated memory used by the translated strings in the cache", translatedStringCache::getRetainedBytes);
+        metrics.gauge("first_publish_delay_seconds", "Time from the start of the JVM until the first feed was published", () -> firstPublishDelayMs < 0 ? Double.NaN : firstPublishDelayMs / 1000.0);
+        if (parallelConverter != null) {
+            metrics.counter("parallel_conversions_total", "Number of snapshots converted in parallel", parallelConverter::getParallelConversionCount);
+        }
+        if (asyncPublisher != null) {
+            metrics.gauge("pending_messages", "Number of asynchronously published messages that have not been persisted yet", asyncPublisher::getPendingMessageCount);
+        }
+        if (conflator != null) {
+            metrics.counter("conflated_snapshots_total", "Number of service alert messages skipped because a newer one was available", conflator::getConflatedSnapshotCount);
+        }
+        if (alertIndexEnabled) {
+            metrics.gauge("alert_index_alerts", "Number of alerts in the alert index", () -> alertIndex.size());
+            metrics.gauge("alert_index_routes", "Number of routes in the alert index", () -> alertIndex.getRouteCount());
+            metrics.gauge("alert_index_stops", "Number of stops in the alert index", () -> alertIndex.getStopCount());
+        }
+        if (keyedEntityPublisher != null) {
+            final Map<String, LongSupplier> keyedMessages = new LinkedHashMap<>();
+            keyedMessages.put("type=\"alert\"", keyedEntityPublisher::getPublishedEntityCount);
+            keyedMessages.put("type=\"tombstone\"", keyedEntityPublisher::getPublishedTombstoneCount);
+            metrics.counter("keyed_messages_total", "Number of alerts and tombstones persisted to the keyed topic", keyedMessages);
+            metrics.counter("keyed_messages_failed_total", "Number of messages that could not be published to the keyed topic", keyedEntityPublisher::getFailedMessageCount);
+        }
+        if (jsonPublisher != null) {
+            metrics.counter("json_feeds_total", "Number of JSON feeds persisted to the JSON topic", jsonPublisher::getPublishedFeedCount);
+            metrics.counter("json_feeds_failed_total", "Number of JSON feeds that could not be published", jsonPublisher::getFailedFeedCount);
+            metrics.counter("json_fragment_cache_hits_total", "Number of feed entities whose JSON was found from the cache", jsonPublisher.getRenderer()::getHitCount);
+            metrics.counter("json_fragment_cache_misses_total", "Number of feed entities that had to be rendered as JSON", jsonPublisher.getRenderer()::getMissCount);
+        }
+        if (activePeriodScheduler != null) {
+            metrics.counter("scheduled_republishes_total", "Number of feeds republished because an active period started or ended", activePeriodScheduler::getRepublishedFeedCount);
+            metrics.counter("expired_alerts_dropped_total", "Number of times an alert was left out of a feed because its active period had ended", activePeriodScheduler::getDroppedAlertCount);
+        }
+        if (pipeline != null) {
+            final Map<String, DoubleSupplier> queueDepths = new LinkedHashMap<>();
+            for (final String stage : pipeline.getStageNames()) {
+                queueDepths.put("stage=\"" + stage + "\"", () -> pipeline.getQueueDepth(stage));
+            }
+            metrics.gauge("pipeline_queue_depth", "Number of messages queued in each stage of the processing pipeline", queueDepths);
+        }
+        metrics.counter("stale_snapshots_total", "Number of snapshots not published or redelivered because a newer snapshot had already been published", staleSnapshots::sum);
+        metrics.counter("mapping_reloads_total", "Number of times the alert mapping file was reloaded", mappingLoader::getReloadCount);
+        metrics.counter("mapping_reloads_failed_total", "Number of times the changed alert mapping file could not be loaded", mappingLoader::getFailedReloadCount);
+        if (selectorCompactor != null) {
+            metrics.counter("compacted_bulletins_total", "Number of times the entity selectors of a bulletin were compacted", selectorCompactor::getCompactedBulletinCount);
+        }
+        if (leaderElection != null) {
+            metrics.gauge("leader", "1 if this instance is the leader publishing feeds, 0 if it is a standby", () -> leaderElection.isLeader() ? 1 : 0);
+            metrics.counter("standby_feeds_total", "Number of feeds converted but not published because this instance was a standby", standbyFeeds::sum);
+            metrics.counter("leader_takeovers_total", "Number of times this instance became the leader after being a standby", takeovers::sum);
+            metrics.gauge("leader_takeover_latency_seconds", "Time from the previous leader was last seen alive until this instance took over", () -> takeoverLatencyMs < 0 ? Double.NaN : takeoverLatencyMs / 1000.0);
+        }
+        if (changeDetector != null) {
+            metrics.counter("suppressed_feeds_total", "Number of GTFS-RT feeds not published because they had not changed", changeDetector::getSuppressedCount);
+        }
+    }
+
+    Metrics getMetrics() {
+        return metrics;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void handleMessage(Message message) {
+        final long receivedMs = System.currentTimeMillis();
+        stats.receivedMessages.increment();
+
+        List<MessageId> received = Collections.singletonList(message.getMessageId());
         try {
-            if (!TransitdataSchema.hasProtobufSchema(message, TransitdataProperties.ProtobufSchema.TransitdataServiceAlert)) {
-                throw new Exception("Invalid protobuf schema");
+            if (conflator != null) {
+                final SnapshotConflator.ConflatedSnapshot snapshot = conflator.conflate(message);
+                message = snapshot.latest;
+                received = snapshot.messageIds;
             }
-            InternalMessages.ServiceAlert alert = InternalMessages.ServiceAlert.parseFrom(message.getData());
 
             final long timestampMs = message.getEventTime();
-            final long timestampSecs = timestampMs / 1000;
+            stats.receiveLag.observeMillis(receivedMs - timestampMs);
+
+            checkProtobufSchema(message);
+            final ProcessedMessage processed = new ProcessedMessage(received, timestampMs, message.getData());
+            if (pipeline != null) {
+                pipeline.submit(processed);
+            } else {
+                decode(processed);
+                convert(processed);
+                encode(processed);
+                publish(processed);
+            }
+        } catch (final InterruptedException e) {
+            log.warn("Interrupted while waiting for the processing pipeline", e);
+            nack(received);
+            Thread.currentThread().interrupt();
+        } catch (final Exception e) {
+            onProcessingFailed(received, e);
+        }
+    }
+
+    private void onProcessingFailed(final ProcessedMessage processed, final Exception e) {
+        onProcessingFailed(processed.received, e);
+    }
+
+    private void onProcessingFailed(final List<MessageId> received, final Exception e) {
+        log.error("Exception while handling message", e);
+        stats.failedMessages.increment();
+        ack(received);
+    }
+
+    private void decode(final ProcessedMessage processed) throws Exception {
+        if (transcoder != null) {
+            //Transcoder parses the message while converting it
+            return;
+        }
+        final long startNs = System.nanoTime();
+        processed.alert = parseServiceAlert(processed.data);
+        stats.parseDuration.observeNanos(System.nanoTime() - startNs);
+        stats.bulletinsPerSnapshot.observe(processed.alert.getBulletinsCount());
+    }
+
+    private InternalMessages.ServiceAlert parseServiceAlert(final byte[] data) throws IOException {
+        return limits != null ? limits.parse(data) : InternalMessages.ServiceAlert.parseFrom(data);
+    }
+
+    private void convert(final ProcessedMessage processed) throws Exception {
+        if (transcoder != null) {
+            processed.payload = transcodeServiceAlert(processed.data, processed.timestampMs);
+            return;
+        }
+        final long startNs = System.nanoTime();
+        List<GtfsRealtime.FeedEntity> entities = compactSelectors(feedEntityCache.createFeedEntities(processed.alert.getBulletinsList(), mappingLoader.get()));
+        if (activePeriodScheduler != null) {
+            entities = activePeriodScheduler.activeEntities(entities);
+        }
+        updateAlertIndex(entities, processed.timestampMs);
+        processed.entities = entities;
+        processed.feedMessage = FeedMessageFactory.createFullFeedMessage(entities, processed.timestampMs / 1000);
+        stats.convertDuration.observeNanos(System.nanoTime() - startNs);
+    }
+
+    /**
+     * Publishes the differential, keyed and JSON feeds of the snapshot. A standby only updates their state, so that
+     * they are up to date when it takes over.
+     */
+    private void publishSecondaryFeeds(final ProcessedMessage processed, final boolean leader) {
+        if (processed.entities == null) {
+            return;
+        }
+        if (differentialPublisher != null) {
+            if (leader) {
+                differentialPublisher.publish(processed.entities, processed.timestampMs);
+            } else {
+                differentialPublisher.update(processed.entities, processed.timestampMs);
+            }
+        }
+        if (keyedEntityPublisher != null) {
+            if (leader) {
+                keyedEntityPublisher.publish(processed.entities, processed.timestampMs);
+            } else {
+                keyedEntityPublisher.update(processed.entities, processed.timestampMs);
+            }
+        }
+        if (jsonPublisher != null) {
+            if (leader) {
+                jsonPublisher.publish(processed.feedMessage.getHeader(), processed.entities, processed.timestampMs);
+            } else {
+                jsonPublisher.update(processed.feedMessage.getHeader(), processed.entities, processed.timestampMs);
+            }
+        }
+    }
 
-            List<GtfsRealtime.FeedEntity> entities = createFeedEntities(alert.getBulletinsList(), globalNoServiceAlerts);
-            GtfsRealtime.FeedMessage feedMessage = FeedMessageFactory.createFullFeedMessage(entities, timestampSecs);
+    private void encode(final ProcessedMessage processed) {
+        if (processed.payload == null) {
+            final long startNs = System.nanoTime();
+            processed.payload = processed.feedMessage.toByteArray();
+            stats.serializeDuration.observeNanos(System.nanoTime() - startNs);
+        }
+        stats.feedSize.observe(processed.payload.length);
+    }
+
+    /**
+     * Publishes the feed unless it has not changed. The received messages are acknowledged when the feed has been
+     * published, or now if it is not published. If sending the feed fails, they are negatively acknowledged.
+     */
+    private void publish(final ProcessedMessage processed) throws Exception {
+        synchronized (publishLock) {
+            final boolean leader = isLeader();
+            publishSecondaryFeeds(processed, leader);
+            if (!leader) {
+                //Only the payload and the entities are needed for taking over
+                processed.alert = null;
+                processed.feedMessage = null;
+                latestStandbyFeed = processed;
+                hasBeenStandby = true;
+                standbyFeeds.increment();
+                ack(processed.received);
+                return;
+            }
 
-            sendPulsarMessage(feedMessage, timestampMs);
+            if (!processed.received.isEmpty() && processed.timestampMs < latestSnapshotTimestampMs) {
+                //E.g. redelivered after publishing it failed, it would replace the newer feed
+                log.warn("Skipping snapshot with timestamp {}, snapshot with timestamp {} has already been published", processed.timestampMs, latestSnapshotTimestampMs);
+                staleSnapshots.increment();
+                ack(processed.received);
+                return;
+            }
+
+            if (changeDetector != null && !changeDetector.shouldPublish(processed.payload)) {
+                ack(processed.received);
+                return;
+            }
+
+            if (asyncPublisher != null) {
+                if (publishAsync(processed.data, processed.payload, processed.timestampMs, processed.received, processed.entities)) {
+                    onSnapshotSent(processed);
+                }
+                return;
+            }
+            try {
+                if (sendPulsarMessage(processed.data, processed.payload, processed.timestampMs)) {
+                    onSnapshotSent(processed);
+                    onSnapshotPublished(processed.data, processed.entities);
+                }
+            } catch (final PulsarClientException e) {
+                //Redelivered and published again like in the asynchronous mode, otherwise the snapshot would be lost
+                stats.failedMessages.increment();
+                nack(processed.received);
+                return;
+            }
+            ack(processed.received);
+        }
+    }
+
+    private void onSnapshotSent(final ProcessedMessage processed) {
+        //Republished feeds are timestamped when they are republished
+        if (!processed.received.isEmpty()) {
+            latestSnapshotTimestampMs = Math.max(latestSnapshotTimestampMs, processed.timestampMs);
+        }
+    }
+
+    /**
+     * Follows the active periods of the published snapshot, so that it can be republished when active periods start or end
+     *
+     * @param entities Published entities, null if transcoded
+     */
+    private void onSnapshotPublished(final byte[] data, final List<GtfsRealtime.FeedEntity> entities) {
+        if (activePeriodScheduler != null && entities != null) {
+            latestPublishedServiceAlert = data;
+            activePeriodScheduler.update(entities);
+        }
+    }
+
+    /**
+     * Republishes the latest published snapshot when an active period has started or ended, without the alerts that
+     * have ended if they are dropped. The feed is published like any other feed, so it is kept in order with them and
+     * the change detector and the state file see it.
+     */
+    private void republishActiveEntities() throws Exception {
+        synchronized (publishLock) {
+            if (asyncFeedsCompleted.get() != asyncFeedsSent) {
+                //Feeds being sent are newer than the followed snapshot, checked again after they have been persisted
+                return;
+            }
+            final List<GtfsRealtime.FeedEntity> entities = activePeriodScheduler.pollDueEntities();
+            if (entities == null) {
+                return;
+            }
+            final long nowMs = System.currentTimeMillis();
+            updateAlertIndex(entities, nowMs);
+            final ProcessedMessage processed = new ProcessedMessage(Collections.emptyList(), nowMs, latestPublishedServiceAlert);
+            processed.entities = entities;
+            processed.feedMessage = FeedMessageFactory.createFullFeedMessage(entities, nowMs / 1000);
+            encode(processed);
+            publish(processed);
+        }
+    }
+
+    /**
+     * Parsing, conversion and serialization are done in one pass, so their time is recorded as conversion time
+     */
+    private byte[] transcodeServiceAlert(final byte[] data, final long timestampMs) throws Exception {
+        final long startNs = System.nanoTime();
+        final byte[] payload = transcoder.transcode(data, timestampMs / 1000);
+        stats.convertDuration.observeNanos(System.nanoTime() - startNs);
+        if (selectorCompactor != null) {
+            compactionSavedBytes.observe(selectorCompactor.finishSnapshot());
+        }
+        stats.bulletinsPerSnapshot.observe(transcoder.getBulletinCount());
+        return payload;
+    }
+
+    private List<GtfsRealtime.FeedEntity> compactSelectors(final List<GtfsRealtime.FeedEntity> entities) {
+        if (selectorCompactor == null) {
+            return entities;
+        }
+        final List<GtfsRealtime.FeedEntity> compacted = selectorCompactor.compactEntities(entities);
+        compactionSavedBytes.observe(selectorCompactor.finishSnapshot());
+        return compacted;
+    }
+
+    private void updateAlertIndex(final List<GtfsRealtime.FeedEntity> entities, final long timestampMs) {
+        if (alertIndexEnabled) {
+            alertIndex = AlertIndex.build(entities, timestampMs / 1000);
+        }
+    }
+
+    /**
+     * @return Index of the alerts in the latest snapshot, empty if the index is not enabled
+     */
+    AlertIndex getAlertIndex() {
+        return alertIndex;
+    }
+
+    private static void checkProtobufSchema(final Message message) throws Exception {
+        if (!TransitdataSchema.hasProtobufSchema(message, TransitdataProperties.ProtobufSchema.TransitdataServiceAlert)) {
+            throw new Exception("Invalid protobuf schema");
+        }
+    }
+
+    /**
+     * Publishes the feed asynchronously and acknowledges the received message only after the feed has been persisted.
+     * If publishing fails, the received message is negatively acknowledged so that it will be redelivered, unless a
+     * newer snapshot has been handed to the producer after it.
+     *
+     * @return True if the feed was handed to the producer
+     */
+    private boolean publishAsync(final byte[] data, final byte[] payload, final long timestampMs, final List<MessageId> received, final List<GtfsRealtime.FeedEntity> entities) {
+        final long sendStartNs = System.nanoTime();
+        try {
+            final CompletableFuture<MessageId> future = asyncPublisher.publish(createPulsarMessage(payload, timestampMs));
+            asyncFeedsSent++;
+            future.whenComplete((messageId, throwable) -> {
+                        if (throwable != null) {
+                            log.error("Failed to send message to Pulsar", throwable);
+                            onPublishFailed();
+                            if (timestampMs < latestSnapshotTimestampMs) {
+                                //Redelivered message would be skipped anyway
+                                staleSnapshots.increment();
+                                ack(received);
+                            } else {
+                                nack(received);
+                            }
+                        } else {
+                            log.info("Produced a new GTFS-RT service alert message with timestamp {}", timestampMs);
+                            onPublished(sendStartNs, timestampMs);
+                            saveState(data, payload, timestampMs, messageId);
+                            onSnapshotPublished(data, entities);
+                            ack(received);
+                        }
+                        asyncFeedsCompleted.incrementAndGet();
+                    });
+            return true;
+        } catch (final InterruptedException e) {
+            log.warn("Interrupted while waiting for pending messages to be persisted", e);
+            onPublishFailed();
+            nack(received);
+            Thread.currentThread().interrupt();
         } catch (final Exception e) {
-            log.error("Exception while handling message", e);
-        } finally {
-            ack(message.getMessageId());
+            log.error("Failed to send message to Pulsar", e);
+            onPublishFailed();
+            nack(received);
+        }
+        return false;
+    }
+
+    private void onPublished(final long sendStartNs, final long timestampMs) {
+        stats.sendDuration.observeNanos(System.nanoTime() - sendStartNs);
+        stats.endToEndLag.observeMillis(System.currentTimeMillis() - timestampMs);
+        stats.publishedFeeds.increment();
+
+        if (firstPublishDelayMs < 0) {
+            firstPublishDelayMs = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+            log.info("Published the first feed {} ms after startup", firstPublishDelayMs);
+        }
+    }
+
+    private void saveState(final byte[] data, final byte[] payload, final long timestampMs, final MessageId messageId) {
+        if (stateStore != null) {
+            stateStore.saveAsync(new SnapshotStateStore.SnapshotState(timestampMs, String.valueOf(messageId), data, payload));
+        }
+    }
+
+    /**
+     * Restores the state saved before the previous shutdown. Caches are warmed up by converting the saved snapshot
+     * and the saved feed is published again if configured.
+     */
+    void restoreState() {
+        if (stateStore == null) {
+            return;
+        }
+
+        final long startMs = System.currentTimeMillis();
+        try {
+            final Optional<SnapshotStateStore.SnapshotState> maybeState = stateStore.load();
+            if (maybeState.isEmpty()) {
+                return;
+            }
+            final SnapshotStateStore.SnapshotState state = maybeState.get();
+            log.info("Restoring snapshot with timestamp {}, published as message {}", state.timestampMs, state.messageId);
+
+            List<GtfsRealtime.FeedEntity> restoredEntities = null;
+            if (transcoder != null) {
+                transcoder.transcode(state.serviceAlert, state.timestampMs / 1000);
+                if (selectorCompactor != null) {
+                    compactionSavedBytes.observe(selectorCompactor.finishSnapshot());
+                }
+            } else {
+                List<GtfsRealtime.FeedEntity> entities = compactSelectors(feedEntityCache.createFeedEntities(parseServiceAlert(state.serviceAlert).getBulletinsList(), mappingLoader.get()));
+                restoredEntities = entities;
+                if (activePeriodScheduler != null) {
+                    //Restored feed has been published, alerts that have ended since then are dropped when it is
+                    //republished
+                    latestPublishedServiceAlert = state.serviceAlert;
+                    activePeriodScheduler.update(entities);
+                    entities = activePeriodScheduler.activeEntities(entities);
+                }
+                updateAlertIndex(entities, state.timestampMs);
+            }
+            if (changeDetector != null) {
+                changeDetector.shouldPublish(state.feedMessage);
+            }
+
+            if (!isLeader()) {
+                synchronized (publishLock) {
+                    latestStandbyFeed = new ProcessedMessage(Collections.emptyList(), state.timestampMs, state.serviceAlert);
+                    latestStandbyFeed.entities = restoredEntities;
+                    latestStandbyFeed.payload = state.feedMessage;
+                }
+            } else if (republishStateOnStartup) {
+                final long sendStartNs = System.nanoTime();
+                createPulsarMessage(state.feedMessage, state.timestampMs).send();
+                onPublished(sendStartNs, state.timestampMs);
+                log.info("Republished the restored feed with timestamp {}", state.timestampMs);
+            }
+            log.info("Restored snapshot state in {} ms", System.currentTimeMillis() - startMs);
+        } catch (final Exception e) {
+            log.error("Failed to restore snapshot state", e);
+        }
+    }
+
+    private void onPublishFailed() {
+        stats.failedPublishes.increment();
+        if (changeDetector != null) {
+            //Make sure that the feed is published again even if it does not change
+            changeDetector.reset();
+        }
+    }
+
+    /**
+     * Waits until all asynchronously published messages have been either persisted or failed
+     */
+    void awaitPendingMessages() throws InterruptedException {
+        if (pipeline != null) {
+            pipeline.awaitIdle();
+        }
+        if (asyncPublisher != null) {
+            asyncPublisher.awaitPendingMessages();
+        }
+        if (stateStore != null) {
+            stateStore.awaitSaved();
         }
     }
 
-    private void ack(MessageId received) {
-        consumer.acknowledgeAsync(received)
-                .exceptionally(throwable -> {
+    private void ack(List<MessageId> received) {
+        if (received.isEmpty()) {
+            return;
+        }
+        final CompletableFuture<Void> future = received.size() == 1 ? consumer.acknowledgeAsync(received.get(0)) : consumer.acknowledgeAsync(received);
+        future.exceptionally(throwable -> {
                     log.error("Failed to ack Pulsar message", throwable);
                     return null;
                 })
                 .thenRun(() -> {});
     }
 
+    private void nack(List<MessageId> received) {
+        received.forEach(consumer::negativeAcknowledge);
+    }
+
+    long getConflatedSnapshotCount() {
+        return conflator != null ? conflator.getConflatedSnapshotCount() : 0;
+    }
+
     static List<GtfsRealtime.FeedEntity> createFeedEntities(final List<InternalMessages.Bulletin> bulletins, final boolean globalNoServiceAlerts) {
-        return bulletins.stream().map(bulletin -> {
-            final Optional<GtfsRealtime.Alert> maybeAlert = createAlert(bulletin, globalNoServiceAlerts);
-            return maybeAlert.map(alert -> {
-                GtfsRealtime.FeedEntity.Builder builder = GtfsRealtime.FeedEntity.newBuilder();
-                builder.setId(bulletin.getBulletinId());
-                builder.setAlert(alert);
-                return builder.build();
-            });
-        }).filter(Optional::isPresent)
+        return createFeedEntities(bulletins, AlertMapping.defaults(globalNoServiceAlerts));
+    }
+
+    static List<GtfsRealtime.FeedEntity> createFeedEntities(final List<InternalMessages.Bulletin> bulletins, final AlertMapping mapping) {
+        return bulletins.stream().map(bulletin -> createFeedEntity(bulletin, mapping))
+                .filter(Optional::isPresent)
                 .map(Optional::get)
                 .collect(Collectors.toList());
     }
 
+    static Optional<GtfsRealtime.FeedEntity> createFeedEntity(final InternalMessages.Bulletin bulletin, final boolean globalNoServiceAlerts) {
+        return createFeedEntity(bulletin, AlertMapping.defaults(globalNoServiceAlerts));
+    }
+
+    static Optional<GtfsRealtime.FeedEntity> createFeedEntity(final InternalMessages.Bulletin bulletin, final AlertMapping mapping) {
+        return createFeedEntity(bulletin, mapping, LongAdder::increment);
+    }
+
+    /**
+     * @param onDiscarded Called with the counter of the reason if the bulletin is discarded, must increment it
+     */
+    static Optional<GtfsRealtime.FeedEntity> createFeedEntity(final InternalMessages.Bulletin bulletin, final AlertMapping mapping, final java.util.function.Consumer<LongAdder> onDiscarded) {
+        final Optional<GtfsRealtime.Alert> maybeAlert = createAlert(bulletin, mapping, onDiscarded);
+        return maybeAlert.map(alert -> {
+            GtfsRealtime.FeedEntity.Builder builder = GtfsRealtime.FeedEntity.newBuilder();
+            builder.setId(bulletin.getBulletinId());
+            builder.setAlert(alert);
+            return builder.build();
+        });
+    }
+
     private static boolean bulletinAffectsAll(InternalMessages.Bulletin bulletin) {
         return bulletin.getAffectsAllRoutes() || bulletin.getAffectsAllStops();
     }
 
     static Optional<GtfsRealtime.Alert> createAlert(final InternalMessages.Bulletin bulletin, final boolean globalNoServiceAlerts) {
+        return createAlert(bulletin, AlertMapping.defaults(globalNoServiceAlerts));
+    }
+
+    static Optional<GtfsRealtime.Alert> createAlert(final InternalMessages.Bulletin bulletin, final AlertMapping mapping) {
+        return createAlert(bulletin, mapping, LongAdder::increment);
+    }
+
+    private static Optional<GtfsRealtime.Alert> createAlert(final InternalMessages.Bulletin bulletin, final AlertMapping mapping, final java.util.function.Consumer<LongAdder> onDiscarded) {
         Optional<GtfsRealtime.Alert> maybeAlert;
         try {
             if (bulletin.hasDisplayOnly() && bulletin.getDisplayOnly()) {
+                onDiscarded.accept(discardedDisplayOnlyBulletins);
                 log.debug("No alert created for bulletin {} that is meant to be published only on vehicle displays", bulletin.getBulletinId());
                 return Optional.empty();
             }
@@ -97,8 +1010,8 @@ public class AlertHandler implements IMessageHandler {
 
             final GtfsRealtime.Alert.Builder builder = GtfsRealtime.Alert.newBuilder();
             builder.addActivePeriod(timeRange);
-            builder.setCause(toGtfsCause(bulletin.getCategory()));
-            builder.setEffect(getGtfsEffect(bulletin, globalNoServiceAlerts));
+            builder.setCause(mapping.getCause(bulletin.getCategory()));
+            builder.setEffect(mapping.getEffect(bulletin.getImpact(), bulletin.getAffectsAllRoutes(), bulletin.getAffectsAllStops()));
             if (bulletin.getTitlesCount() > 0) {
                 builder.setHeaderText(toGtfsTranslatedString(bulletin.getTitlesList()));
             }
@@ -108,11 +1021,14 @@ public class AlertHandler implements IMessageHandler {
             if (bulletin.getUrlsCount() > 0) {
                 builder.setUrl(toGtfsTranslatedString(bulletin.getUrlsList()));
             }
-            final Optional<GtfsRealtime.Alert.SeverityLevel> maybeSeverityLevel = toGtfsSeverityLevel(bulletin.getPriority());
-            maybeSeverityLevel.ifPresent(builder::setSeverityLevel);
+            final GtfsRealtime.Alert.SeverityLevel severityLevel = mapping.getSeverityLevel(bulletin.getPriority());
+            if (severityLevel != null) {
+                builder.setSeverityLevel(severityLevel);
+            }
 
             Collection<GtfsRealtime.EntitySelector> entitySelectors = entitySelectorsForBulletin(bulletin);
             if (entitySelectors.isEmpty()) {
+                onDiscarded.accept(discardedBulletinsWithoutInformedEntities);
                 log.error("Failed to find any Informed Entities for bulletin Id {}. Discarding alert.", bulletin.getBulletinId());
                 maybeAlert = Optional.empty();
             }
@@ -121,6 +1037,7 @@ public class AlertHandler implements IMessageHandler {
                 maybeAlert = Optional.of(builder.build());
             }
         } catch (Exception e) {
+            onDiscarded.accept(discardedBulletinsWithException);
             log.error("Exception while creating an alert for bulletin {}!", bulletin.getBulletinId(), e);
             maybeAlert = Optional.empty();
         }
@@ -134,48 +1051,62 @@ public class AlertHandler implements IMessageHandler {
     }
 
     static Collection<GtfsRealtime.EntitySelector> entitySelectorsForBulletin(final InternalMessages.Bulletin bulletin) {
-        Set<GtfsRealtime.EntitySelector> selectors = new HashSet<>();
+        final List<GtfsRealtime.EntitySelector> selectors = new ArrayList<>(1 + bulletin.getAffectedRoutesCount() + bulletin.getAffectedStopsCount());
         if (bulletinAffectsAll(bulletin)) {
             log.debug("Bulletin {} affects all routes or stops", bulletin.getBulletinId());
 
-            GtfsRealtime.EntitySelector agency = GtfsRealtime.EntitySelector.newBuilder()
-                    .setAgencyId(AGENCY_ENTITY_SELECTOR)
-                    .build();
-            selectors.add(agency);
+            selectors.add(EntitySelectorPool.AGENCY_SELECTOR);
         }
+        //Duplicates are detected by ID instead of comparing the entity selectors
         if (bulletin.getAffectedRoutesCount() > 0) {
+            final Set<String> routeIds = new HashSet<>(bulletin.getAffectedRoutesCount() * 2);
             for (final InternalMessages.Bulletin.AffectedEntity route : bulletin.getAffectedRoutesList()) {
-                GtfsRealtime.EntitySelector entity = GtfsRealtime.EntitySelector.newBuilder()
-                        .setRouteId(RouteIdUtils.normalizeRouteId(route.getEntityId())) //Normalize route ID to avoid publishing IDs that are not present in the static feed
-                        .build();
-                selectors.add(entity);
+                final GtfsRealtime.EntitySelector entity = selectorPool.routeSelector(route.getEntityId());
+                if (routeIds.add(entity.getRouteId())) {
+                    selectors.add(entity);
+                }
             }
         }
         if (bulletin.getAffectedStopsCount() > 0) {
+            final Set<String> stopIds = new HashSet<>(bulletin.getAffectedStopsCount() * 2);
             for (final InternalMessages.Bulletin.AffectedEntity stop : bulletin.getAffectedStopsList()) {
-                GtfsRealtime.EntitySelector entity = GtfsRealtime.EntitySelector.newBuilder()
-                        .setStopId(stop.getEntityId()).build();
-                selectors.add(entity);
+                final GtfsRealtime.EntitySelector entity = selectorPool.stopSelector(stop.getEntityId());
+                if (stopIds.add(entity.getStopId())) {
+                    selectors.add(entity);
+                }
             }
         }
 
         return selectors;
     }
 
-    private void sendPulsarMessage(final GtfsRealtime.FeedMessage feedMessage, long timestampMs) throws PulsarClientException {
+    private TypedMessageBuilder<byte[]> createPulsarMessage(final byte[] payload, long timestampMs) {
+        return producer.newMessage().value(payload)
+                .eventTime(timestampMs)
+                .property(TransitdataProperties.KEY_PROTOBUF_SCHEMA, TransitdataProperties.ProtobufSchema.GTFS_ServiceAlert.toString());
+    }
+
+    /**
+     * @return True if the message was sent
+     */
+    private boolean sendPulsarMessage(final byte[] data, final byte[] payload, long timestampMs) throws PulsarClientException {
         try {
-            producer.newMessage().value(feedMessage.toByteArray())
-                    .eventTime(timestampMs)
-                    .property(TransitdataProperties.KEY_PROTOBUF_SCHEMA, TransitdataProperties.ProtobufSchema.GTFS_ServiceAlert.toString())
-                    .send();
+            final long sendStartNs = System.nanoTime();
+            final MessageId messageId = createPulsarMessage(payload, timestampMs).send();
+            onPublished(sendStartNs, timestampMs);
+            saveState(data, payload, timestampMs, messageId);
             log.info("Produced a new GTFS-RT service alert message with timestamp {}", timestampMs);
+            return true;
         }
         catch (PulsarClientException e) {
             log.error("Failed to send message to Pulsar", e);
+            onPublishFailed();
             throw e;
         }
         catch (Exception e) {
             log.error("Failed to handle alert message", e);
+            onPublishFailed();
+            return false;
         }
     }
 
@@ -228,9 +1159,10 @@ public class AlertHandler implements IMessageHandler {
     }
 
     public static GtfsRealtime.Alert.Effect getGtfsEffect(final InternalMessages.Bulletin bulletin, final boolean globalNoServiceAlerts) {
-        final boolean affectsAll = bulletinAffectsAll(bulletin);
-        final InternalMessages.Bulletin.Impact impact = bulletin.getImpact();
+        return getGtfsEffect(bulletin.getImpact(), bulletinAffectsAll(bulletin), globalNoServiceAlerts);
+    }
 
+    static GtfsRealtime.Alert.Effect getGtfsEffect(final InternalMessages.Bulletin.Impact impact, final boolean affectsAll, final boolean globalNoServiceAlerts) {
         final GtfsRealtime.Alert.Effect effect = toGtfsEffect(impact);
         if (effect == GtfsRealtime.Alert.Effect.NO_SERVICE && affectsAll && !globalNoServiceAlerts) {
             //If the bulletin affects all traffic (i.e. entity selector list contains agency), we don't want to use NO_SERVICE effect, because otherwise Google and others will display all traffic as cancelled
@@ -276,14 +1208,6 @@ public class AlertHandler implements IMessageHandler {
     }
 
     public static GtfsRealtime.TranslatedString toGtfsTranslatedString(final List<InternalMessages.Bulletin.Translation> translations) {
-        GtfsRealtime.TranslatedString.Builder builder = GtfsRealtime.TranslatedString.newBuilder();
-        for (final InternalMessages.Bulletin.Translation translation: translations) {
-            GtfsRealtime.TranslatedString.Translation gtfsTranslation = GtfsRealtime.TranslatedString.Translation.newBuilder()
-                    .setText(translation.getText())
-                    .setLanguage(translation.getLanguage())
-                    .build();
-            builder.addTranslation(gtfsTranslation);
-        }
-        return builder.build();
+        return translatedStringCache.get(translations);
     }
 }
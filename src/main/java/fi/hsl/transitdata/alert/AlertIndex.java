@@ -0,0 +1,121 @@
+package fi.hsl.transitdata.alert;
+
+import com.google.transit.realtime.GtfsRealtime;
+import fi.hsl.common.transitdata.RouteIdUtils;
+
+import java.util.*;
+
+/**
+ * Immutable index of the alerts of a snapshot by the routes and stops they affect. A new index is built for each
+ * snapshot and replaces the previous one, so lookups never need locking.
+ */
+class AlertIndex {
+    static final AlertIndex EMPTY = build(Collections.emptyList(), 0);
+
+    private static final int[] NONE = new int[0];
+
+    private final List<GtfsRealtime.FeedEntity> entities;
+    private final long timestampSecs;
+
+    //Positions of the entities in the feed by normalized route ID and stop ID
+    private final Map<String, int[]> routes;
+    private final Map<String, int[]> stops;
+    private final int[] agencyWide;
+
+    private AlertIndex(final List<GtfsRealtime.FeedEntity> entities, final long timestampSecs,
+                       final Map<String, int[]> routes, final Map<String, int[]> stops, final int[] agencyWide) {
+        this.entities = entities;
+        this.timestampSecs = timestampSecs;
+        this.routes = routes;
+        this.stops = stops;
+        this.agencyWide = agencyWide;
+    }
+
+    /**
+     * @param entities Feed entities of the snapshot, informed entities of the alerts are created by
+     *                 {@link AlertHandler#entitySelectorsForBulletin}
+     */
+    static AlertIndex build(final List<GtfsRealtime.FeedEntity> entities, final long timestampSecs) {
+        final Map<String, List<Integer>> routes = new HashMap<>();
+        final Map<String, List<Integer>> stops = new HashMap<>();
+        final List<Integer> agencyWide = new ArrayList<>();
+
+        for (int i = 0; i < entities.size(); i++) {
+            final Integer position = i;
+            boolean affectsAgency = false;
+            for (final GtfsRealtime.EntitySelector selector : entities.get(i).getAlert().getInformedEntityList()) {
+                if (selector.hasAgencyId()) {
+                    affectsAgency = true;
+                }
+                if (selector.hasRouteId()) {
+                    routes.computeIfAbsent(selector.getRouteId(), id -> new ArrayList<>(1)).add(position);
+                }
+                if (selector.hasStopId()) {
+                    stops.computeIfAbsent(selector.getStopId(), id -> new ArrayList<>(1)).add(position);
+                }
+            }
+            if (affectsAgency) {
+                agencyWide.add(position);
+            }
+        }
+
+        return new AlertIndex(Collections.unmodifiableList(new ArrayList<>(entities)), timestampSecs, toArrays(routes), toArrays(stops), toArray(agencyWide));
+    }
+
+    private static Map<String, int[]> toArrays(final Map<String, List<Integer>> positions) {
+        final Map<String, int[]> arrays = new HashMap<>(positions.size() * 2);
+        positions.forEach((id, list) -> arrays.put(id, toArray(list)));
+        return arrays;
+    }
+
+    private static int[] toArray(final List<Integer> list) {
+        return list.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * @param routeIds Route IDs, which are normalized like in the feed
+     * @param stopIds Stop IDs
+     * @param includeAgencyWide Whether to include the alerts that affect all routes and stops
+     * @return Alerts affecting any of the routes or stops, in the same order as in the feed
+     */
+    List<GtfsRealtime.FeedEntity> find(final Collection<String> routeIds, final Collection<String> stopIds, final boolean includeAgencyWide) {
+        final BitSet found = new BitSet(entities.size());
+        for (final String routeId : routeIds) {
+            add(found, routes.getOrDefault(RouteIdUtils.normalizeRouteId(routeId), NONE));
+        }
+        for (final String stopId : stopIds) {
+            add(found, stops.getOrDefault(stopId, NONE));
+        }
+        if (includeAgencyWide) {
+            add(found, agencyWide);
+        }
+
+        final List<GtfsRealtime.FeedEntity> result = new ArrayList<>(found.cardinality());
+        for (int i = found.nextSetBit(0); i >= 0; i = found.nextSetBit(i + 1)) {
+            result.add(entities.get(i));
+        }
+        return result;
+    }
+
+    private static void add(final BitSet found, final int[] positions) {
+        for (final int position : positions) {
+            found.set(position);
+        }
+    }
+
+    long getTimestampSecs() {
+        return timestampSecs;
+    }
+
+    int size() {
+        return entities.size();
+    }
+
+    int getRouteCount() {
+        return routes.size();
+    }
+
+    int getStopCount() {
+        return stops.size();
+    }
+}
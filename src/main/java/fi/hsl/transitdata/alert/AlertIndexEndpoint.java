@@ -0,0 +1,98 @@
+package fi.hsl.transitdata.alert;
+
+import com.google.transit.realtime.GtfsRealtime;
+import com.sun.net.httpserver.HttpExchange;
+import fi.hsl.common.gtfsrt.FeedMessageFactory;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Finds the alerts affecting routes or stops, e.g. <code>/alerts?route=2550&amp;stop=1020453</code>. Alerts that
+ * affect all routes and stops are included unless <code>agency=false</code> is given. Responds with a GTFS-RT
+ * feed containing the alerts, or with their IDs as JSON if <code>format=json</code> is given.
+ */
+class AlertIndexEndpoint implements HttpEndpointServer.Handler {
+    static final String PROTOBUF_CONTENT_TYPE = "application/x-protobuf";
+    static final String JSON_CONTENT_TYPE = "application/json";
+
+    private final Supplier<AlertIndex> index;
+
+    AlertIndexEndpoint(final Supplier<AlertIndex> index) {
+        this.index = index;
+    }
+
+    @Override
+    public HttpEndpointServer.Response handle(final HttpExchange exchange) {
+        final List<String> routeIds = new ArrayList<>();
+        final List<String> stopIds = new ArrayList<>();
+        boolean includeAgencyWide = true;
+        boolean json = false;
+
+        final String query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+            for (final String parameter : query.split("&")) {
+                final int separator = parameter.indexOf('=');
+                if (separator < 0) {
+                    continue;
+                }
+                final String name = parameter.substring(0, separator);
+                final String value = URLDecoder.decode(parameter.substring(separator + 1), StandardCharsets.UTF_8);
+                switch (name) {
+                    case "route":
+                        routeIds.add(value);
+                        break;
+                    case "stop":
+                        stopIds.add(value);
+                        break;
+                    case "agency":
+                        includeAgencyWide = Boolean.parseBoolean(value);
+                        break;
+                    case "format":
+                        json = "json".equals(value);
+                        break;
+                    default:
+                        return HttpEndpointServer.Response.text("text/plain", 400, "Unknown parameter " + name);
+                }
+            }
+        }
+
+        final AlertIndex alertIndex = index.get();
+        final List<GtfsRealtime.FeedEntity> alerts = alertIndex.find(routeIds, stopIds, includeAgencyWide);
+        if (json) {
+            return HttpEndpointServer.Response.text(JSON_CONTENT_TYPE, toJson(alerts, alertIndex.getTimestampSecs()));
+        }
+        return new HttpEndpointServer.Response(200, PROTOBUF_CONTENT_TYPE,
+                FeedMessageFactory.createFullFeedMessage(alerts, alertIndex.getTimestampSecs()).toByteArray());
+    }
+
+    private static String toJson(final List<GtfsRealtime.FeedEntity> alerts, final long timestampSecs) {
+        final StringBuilder json = new StringBuilder(64 + alerts.size() * 16);
+        json.append("{\"timestamp\":").append(timestampSecs).append(",\"alerts\":[");
+        for (int i = 0; i < alerts.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            appendString(json, alerts.get(i).getId());
+        }
+        return json.append("]}").toString();
+    }
+
+    private static void appendString(final StringBuilder json, final String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+}
@@ -0,0 +1,194 @@
+package fi.hsl.transitdata.alert;
+
+import com.google.transit.realtime.GtfsRealtime;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigException;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigOrigin;
+import fi.hsl.common.transitdata.proto.InternalMessages;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Mapping of bulletin categories, impacts and priorities to GTFS-RT causes, effects and severity levels. Overrides
+ * from the configuration are compiled into arrays indexed by enum ordinals, so that looking up the values for a
+ * bulletin is a single array access. Without overrides, the mapping is the same as
+ * {@link AlertHandler#toGtfsCause}, {@link AlertHandler#getGtfsEffect} and {@link AlertHandler#toGtfsSeverityLevel}.
+ */
+final class AlertMapping {
+    //Effects are indexed by impact ordinal and whether the bulletin affects all routes and all stops
+    private static final int EFFECTS_PER_IMPACT = 4;
+
+    private static final AlertMapping DEFAULT = compile(ConfigFactory.empty(), true);
+    private static final AlertMapping DEFAULT_WITHOUT_GLOBAL_NO_SERVICE = compile(ConfigFactory.empty(), false);
+
+    private static class EffectRule {
+        //Null conditions match any value
+        final InternalMessages.Bulletin.Impact impact;
+        final GtfsRealtime.Alert.Effect effect;
+        final Boolean affectsAllRoutes;
+        final Boolean affectsAllStops;
+        final GtfsRealtime.Alert.Effect result;
+
+        EffectRule(final InternalMessages.Bulletin.Impact impact, final GtfsRealtime.Alert.Effect effect,
+                   final Boolean affectsAllRoutes, final Boolean affectsAllStops, final GtfsRealtime.Alert.Effect result) {
+            this.impact = impact;
+            this.effect = effect;
+            this.affectsAllRoutes = affectsAllRoutes;
+            this.affectsAllStops = affectsAllStops;
+            this.result = result;
+        }
+
+        boolean matches(final InternalMessages.Bulletin.Impact impact, final GtfsRealtime.Alert.Effect effect,
+                        final boolean affectsAllRoutes, final boolean affectsAllStops) {
+            return (this.impact == null || this.impact == impact)
+                    && (this.effect == null || this.effect == effect)
+                    && (this.affectsAllRoutes == null || this.affectsAllRoutes == affectsAllRoutes)
+                    && (this.affectsAllStops == null || this.affectsAllStops == affectsAllStops);
+        }
+    }
+
+    private final GtfsRealtime.Alert.Cause[] causes;
+    private final GtfsRealtime.Alert.Effect[] effects;
+    //Null if the alert has no severity level
+    private final GtfsRealtime.Alert.SeverityLevel[] severityLevels;
+
+    private AlertMapping(final GtfsRealtime.Alert.Cause[] causes, final GtfsRealtime.Alert.Effect[] effects, final GtfsRealtime.Alert.SeverityLevel[] severityLevels) {
+        this.causes = causes;
+        this.effects = effects;
+        this.severityLevels = severityLevels;
+    }
+
+    /**
+     * @return Mapping without overrides
+     */
+    static AlertMapping defaults(final boolean globalNoServiceAlerts) {
+        return globalNoServiceAlerts ? DEFAULT : DEFAULT_WITHOUT_GLOBAL_NO_SERVICE;
+    }
+
+    /**
+     * @param overrides Overrides for the default mapping, see <code>application.mapping</code> in environment.conf
+     * @param globalNoServiceAlerts If false, NO_SERVICE is replaced with REDUCED_SERVICE for bulletins that affect
+     *                              all routes or stops, unless an effect rule of the overrides matches first
+     * @throws ConfigException If the overrides are not valid
+     */
+    static AlertMapping compile(final Config overrides, final boolean globalNoServiceAlerts) {
+        final GtfsRealtime.Alert.Cause[] causes = new GtfsRealtime.Alert.Cause[InternalMessages.Category.values().length];
+        for (final InternalMessages.Category category : InternalMessages.Category.values()) {
+            causes[category.ordinal()] = AlertHandler.toGtfsCause(category);
+        }
+        readOverrides(overrides, "causes", InternalMessages.Category.class, GtfsRealtime.Alert.Cause.class)
+                .forEach((category, cause) -> causes[category.ordinal()] = cause);
+
+        final GtfsRealtime.Alert.Effect[] baseEffects = new GtfsRealtime.Alert.Effect[InternalMessages.Bulletin.Impact.values().length];
+        for (final InternalMessages.Bulletin.Impact impact : InternalMessages.Bulletin.Impact.values()) {
+            baseEffects[impact.ordinal()] = AlertHandler.toGtfsEffect(impact);
+        }
+        readOverrides(overrides, "effects", InternalMessages.Bulletin.Impact.class, GtfsRealtime.Alert.Effect.class)
+                .forEach((impact, effect) -> baseEffects[impact.ordinal()] = effect);
+
+        final List<EffectRule> rules = readEffectRules(overrides);
+        if (!globalNoServiceAlerts) {
+            //If the bulletin affects all traffic (i.e. entity selector list contains agency), we don't want to use NO_SERVICE effect, because otherwise Google and others will display all traffic as cancelled
+            rules.add(new EffectRule(null, GtfsRealtime.Alert.Effect.NO_SERVICE, true, null, GtfsRealtime.Alert.Effect.REDUCED_SERVICE));
+            rules.add(new EffectRule(null, GtfsRealtime.Alert.Effect.NO_SERVICE, null, true, GtfsRealtime.Alert.Effect.REDUCED_SERVICE));
+        }
+
+        final GtfsRealtime.Alert.Effect[] effects = new GtfsRealtime.Alert.Effect[baseEffects.length * EFFECTS_PER_IMPACT];
+        for (final InternalMessages.Bulletin.Impact impact : InternalMessages.Bulletin.Impact.values()) {
+            for (int flags = 0; flags < EFFECTS_PER_IMPACT; flags++) {
+                final boolean affectsAllRoutes = (flags & 2) != 0;
+                final boolean affectsAllStops = (flags & 1) != 0;
+                final GtfsRealtime.Alert.Effect baseEffect = baseEffects[impact.ordinal()];
+                effects[effectIndex(impact, affectsAllRoutes, affectsAllStops)] = rules.stream()
+                        .filter(rule -> rule.matches(impact, baseEffect, affectsAllRoutes, affectsAllStops))
+                        .findFirst()
+                        .map(rule -> rule.result)
+                        .orElse(baseEffect);
+            }
+        }
+
+        final GtfsRealtime.Alert.SeverityLevel[] severityLevels = new GtfsRealtime.Alert.SeverityLevel[InternalMessages.Bulletin.Priority.values().length];
+        for (final InternalMessages.Bulletin.Priority priority : InternalMessages.Bulletin.Priority.values()) {
+            severityLevels[priority.ordinal()] = AlertHandler.toGtfsSeverityLevel(priority).orElse(null);
+        }
+        readOverrides(overrides, "severityLevels", InternalMessages.Bulletin.Priority.class, GtfsRealtime.Alert.SeverityLevel.class)
+                .forEach((priority, severityLevel) -> severityLevels[priority.ordinal()] = severityLevel);
+
+        return new AlertMapping(causes, effects, severityLevels);
+    }
+
+    private static <K extends Enum<K>, V extends Enum<V>> Map<K, V> readOverrides(final Config overrides, final String path, final Class<K> keyType, final Class<V> valueType) {
+        final Map<K, V> values = new EnumMap<>(keyType);
+        if (overrides.hasPath(path)) {
+            final Config config = overrides.getConfig(path);
+            for (final String key : config.root().keySet()) {
+                values.put(parseEnum(keyType, key, config.origin()), config.getEnum(valueType, key));
+            }
+        }
+        return values;
+    }
+
+    private static List<EffectRule> readEffectRules(final Config overrides) {
+        final List<EffectRule> rules = new ArrayList<>();
+        if (overrides.hasPath("effectRules")) {
+            for (final Config rule : overrides.getConfigList("effectRules")) {
+                rules.add(new EffectRule(
+                        rule.hasPath("impact") ? rule.getEnum(InternalMessages.Bulletin.Impact.class, "impact") : null,
+                        rule.hasPath("effect") ? rule.getEnum(GtfsRealtime.Alert.Effect.class, "effect") : null,
+                        rule.hasPath("affectsAllRoutes") ? rule.getBoolean("affectsAllRoutes") : null,
+                        rule.hasPath("affectsAllStops") ? rule.getBoolean("affectsAllStops") : null,
+                        rule.getEnum(GtfsRealtime.Alert.Effect.class, "result")));
+            }
+        }
+        return rules;
+    }
+
+    private static <E extends Enum<E>> E parseEnum(final Class<E> type, final String name, final ConfigOrigin origin) {
+        try {
+            return Enum.valueOf(type, name);
+        } catch (final IllegalArgumentException e) {
+            throw new ConfigException.BadValue(origin, name, "Unknown " + type.getSimpleName() + " " + name);
+        }
+    }
+
+    private static int effectIndex(final InternalMessages.Bulletin.Impact impact, final boolean affectsAllRoutes, final boolean affectsAllStops) {
+        return impact.ordinal() * EFFECTS_PER_IMPACT + (affectsAllRoutes ? 2 : 0) + (affectsAllStops ? 1 : 0);
+    }
+
+    GtfsRealtime.Alert.Cause getCause(final InternalMessages.Category category) {
+        return causes[category.ordinal()];
+    }
+
+    GtfsRealtime.Alert.Effect getEffect(final InternalMessages.Bulletin.Impact impact, final boolean affectsAllRoutes, final boolean affectsAllStops) {
+        return effects[effectIndex(impact, affectsAllRoutes, affectsAllStops)];
+    }
+
+    /**
+     * @return Severity level or null if the alert should not have one
+     */
+    GtfsRealtime.Alert.SeverityLevel getSeverityLevel(final InternalMessages.Bulletin.Priority priority) {
+        return severityLevels[priority.ordinal()];
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof AlertMapping)) {
+            return false;
+        }
+        final AlertMapping mapping = (AlertMapping) other;
+        return Arrays.equals(causes, mapping.causes) && Arrays.equals(effects, mapping.effects) && Arrays.equals(severityLevels, mapping.severityLevels);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * Arrays.hashCode(causes) + Arrays.hashCode(effects)) + Arrays.hashCode(severityLevels);
+    }
+}
@@ -0,0 +1,141 @@
+package fi.hsl.transitdata.alert;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigParseOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Loads {@link AlertMapping} from <code>application.mapping</code> and optionally from a mapping file, which
+ * overrides the values of the application config. The file is checked periodically and the mapping is replaced when
+ * the file changes. Readers get the current mapping without locking. If the changed file is not valid, the previous
+ * mapping is kept.
+ */
+class AlertMappingLoader {
+    private static final Logger log = LoggerFactory.getLogger(AlertMappingLoader.class);
+
+    private final Config overrides;
+    private final boolean globalNoServiceAlerts;
+    private final Path file;
+
+    private volatile AlertMapping mapping;
+    private FileTime fileModified;
+    private long fileSize;
+    //Null if the file is not checked for changes
+    private ScheduledExecutorService executor;
+
+    private final LongAdder reloads = new LongAdder();
+    private final LongAdder failedReloads = new LongAdder();
+
+    /**
+     * @throws com.typesafe.config.ConfigException If the mapping is not valid
+     * @throws UncheckedIOException If the mapping file cannot be read
+     */
+    AlertMappingLoader(final Config config) {
+        overrides = config.getConfig("application.mapping");
+        globalNoServiceAlerts = config.getBoolean("application.enableGlobalNoServiceAlerts");
+        final String path = overrides.getString("file");
+        file = path.isEmpty() ? null : Paths.get(path);
+
+        if (file != null) {
+            try {
+                fileModified = Files.getLastModifiedTime(file);
+                fileSize = Files.size(file);
+            } catch (final IOException e) {
+                throw new UncheckedIOException("Failed to read alert mapping file " + file, e);
+            }
+            log.info("Reading alert mapping from {}", file);
+        }
+        mapping = load();
+    }
+
+    private AlertMapping load() {
+        final Config fileOverrides = file != null
+                ? ConfigFactory.parseFile(file.toFile(), ConfigParseOptions.defaults().setAllowMissing(false)).resolve()
+                : ConfigFactory.empty();
+        return AlertMapping.compile(fileOverrides.withFallback(overrides), globalNoServiceAlerts);
+    }
+
+    AlertMapping get() {
+        return mapping;
+    }
+
+    /**
+     * Reloads the mapping if the mapping file has been modified since it was loaded
+     *
+     * @return True if the mapping was reloaded
+     */
+    synchronized boolean reloadIfChanged() {
+        if (file == null) {
+            return false;
+        }
+
+        try {
+            final FileTime modified = Files.getLastModifiedTime(file);
+            final long size = Files.size(file);
+            if (modified.equals(fileModified) && size == fileSize) {
+                return false;
+            }
+            fileModified = modified;
+            fileSize = size;
+
+            final AlertMapping reloaded = load();
+            if (!reloaded.equals(mapping)) {
+                mapping = reloaded;
+                log.info("Reloaded alert mapping from {}", file);
+            }
+            reloads.increment();
+            return true;
+        } catch (final Exception e) {
+            failedReloads.increment();
+            log.error("Failed to reload alert mapping from {}, using the previous mapping", file, e);
+            return false;
+        }
+    }
+
+    /**
+     * Starts checking the mapping file for changes in a background thread
+     */
+    void start() {
+        if (file == null) {
+            return;
+        }
+        final long intervalMs = overrides.getDuration("reloadInterval", TimeUnit.MILLISECONDS);
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "alert-mapping-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::reloadIfChanged, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        log.info("Checking {} for changes every {} ms", file, intervalMs);
+    }
+
+    /**
+     * Stops checking the mapping file for changes
+     */
+    void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    long getReloadCount() {
+        return reloads.sum();
+    }
+
+    long getFailedReloadCount() {
+        return failedReloads.sum();
+    }
+}
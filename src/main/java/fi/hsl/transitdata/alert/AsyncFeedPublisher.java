@@ -0,0 +1,57 @@
+package fi.hsl.transitdata.alert;
+
+import org.apache.pulsar.client.api.MessageId;
+import org.apache.pulsar.client.api.TypedMessageBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Publishes messages asynchronously while limiting the number of messages that have been sent but not yet
+ * acknowledged by the broker. When the limit is reached, publishing blocks the calling thread, which stops
+ * the consumer from receiving more messages. Messages are sent with a single producer, so Pulsar keeps them in order.
+ */
+class AsyncFeedPublisher {
+    private static final Logger log = LoggerFactory.getLogger(AsyncFeedPublisher.class);
+
+    private final int maxPendingMessages;
+    private final Semaphore pendingMessages;
+
+    AsyncFeedPublisher(final int maxPendingMessages) {
+        this.maxPendingMessages = maxPendingMessages;
+        this.pendingMessages = new Semaphore(maxPendingMessages);
+    }
+
+    /**
+     * @return Future that is completed when the broker has persisted the message
+     */
+    CompletableFuture<MessageId> publish(final TypedMessageBuilder<byte[]> message) throws InterruptedException {
+        if (!pendingMessages.tryAcquire()) {
+            log.debug("{} messages are waiting to be persisted, waiting before sending more", maxPendingMessages);
+            pendingMessages.acquire();
+        }
+
+        final CompletableFuture<MessageId> future;
+        try {
+            future = message.sendAsync();
+        } catch (final RuntimeException e) {
+            pendingMessages.release();
+            throw e;
+        }
+        return future.whenComplete((messageId, throwable) -> pendingMessages.release());
+    }
+
+    int getPendingMessageCount() {
+        return maxPendingMessages - pendingMessages.availablePermits();
+    }
+
+    /**
+     * Waits until all pending messages have been either persisted or failed
+     */
+    void awaitPendingMessages() throws InterruptedException {
+        pendingMessages.acquire(maxPendingMessages);
+        pendingMessages.release(maxPendingMessages);
+    }
+}
@@ -0,0 +1,73 @@
+package fi.hsl.transitdata.alert;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Thread-safe cache with a maximum size. When the cache is full, all entries are removed, which is cheaper than
+ * tracking usage of the entries and good enough for values that keep recurring.
+ */
+class BoundedCache<K, V> {
+    private final int maxSize;
+    private final Map<K, V> cache;
+
+    private final ToLongFunction<V> weigher;
+    private final LongAdder weight = new LongAdder();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    BoundedCache(final int maxSize) {
+        this(maxSize, value -> 0);
+    }
+
+    /**
+     * @param weigher Function for estimating the size of a value in bytes, see {@link #getWeight()}
+     */
+    BoundedCache(final int maxSize, final ToLongFunction<V> weigher) {
+        this.maxSize = maxSize;
+        this.cache = new ConcurrentHashMap<>(Math.min(maxSize, 1024));
+        this.weigher = weigher;
+    }
+
+    V get(final K key, final Function<K, V> valueFunction) {
+        final V cached = cache.get(key);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+
+        misses.increment();
+        if (cache.size() >= maxSize) {
+            cache.clear();
+            weight.reset();
+        }
+        return cache.computeIfAbsent(key, k -> {
+            final V value = valueFunction.apply(k);
+            weight.add(weigher.applyAsLong(value));
+            return value;
+        });
+    }
+
+    int size() {
+        return cache.size();
+    }
+
+    /**
+     * @return Estimated size of the cached values in bytes. Not exact if values are added while the cache is cleared.
+     */
+    long getWeight() {
+        return weight.sum();
+    }
+
+    long getHitCount() {
+        return hits.sum();
+    }
+
+    long getMissCount() {
+        return misses.sum();
+    }
+}
@@ -0,0 +1,100 @@
+package fi.hsl.transitdata.alert;
+
+import com.google.transit.realtime.GtfsRealtime;
+import fi.hsl.common.gtfsrt.FeedMessageFactory;
+import fi.hsl.common.transitdata.TransitdataProperties;
+import org.apache.pulsar.client.api.Producer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Publishes GTFS-RT feeds with DIFFERENTIAL incrementality, i.e. only the entities that have changed since the
+ * previous feed. Full dataset is published periodically and whenever publishing a differential feed has failed,
+ * so that consumers can recover from missed messages.
+ */
+class DifferentialFeedPublisher {
+    private static final Logger log = LoggerFactory.getLogger(DifferentialFeedPublisher.class);
+
+    private final Producer<byte[]> producer;
+    private final long fullResyncIntervalMs;
+    private final Clock clock;
+
+    private final FeedEntityDiff diff = new FeedEntityDiff();
+
+    private long lastFullDatasetMs;
+    private volatile boolean fullDatasetRequired = true;
+
+    //Latest snapshot received as a standby, published when taking over
+    private List<GtfsRealtime.FeedEntity> standbyEntities;
+    private long standbyTimestampMs;
+
+    DifferentialFeedPublisher(final Producer<byte[]> producer, final Duration fullResyncInterval, final Clock clock) {
+        this.producer = producer;
+        this.fullResyncIntervalMs = fullResyncInterval.toMillis();
+        this.clock = clock;
+    }
+
+    /**
+     * Updates the previous snapshot without publishing, used when this instance is a standby. The feeds published by
+     * the leader are not known, so full dataset is published when taking over.
+     */
+    void update(final List<GtfsRealtime.FeedEntity> entities, final long timestampMs) {
+        diff.update(entities);
+        fullDatasetRequired = true;
+        standbyEntities = entities;
+        standbyTimestampMs = timestampMs;
+    }
+
+    /**
+     * Publishes the latest snapshot received as a standby as full dataset
+     */
+    void takeOver() {
+        if (standbyEntities != null) {
+            publish(standbyEntities, standbyTimestampMs);
+        }
+    }
+
+    void publish(final List<GtfsRealtime.FeedEntity> entities, final long timestampMs) {
+        standbyEntities = null;
+        final List<GtfsRealtime.FeedEntity> changes = diff.update(entities);
+        final long nowMs = clock.millis();
+
+        final GtfsRealtime.FeedMessage feedMessage;
+        if (fullDatasetRequired || nowMs - lastFullDatasetMs >= fullResyncIntervalMs) {
+            fullDatasetRequired = false;
+            lastFullDatasetMs = nowMs;
+            feedMessage = FeedMessageFactory.createFullFeedMessage(entities, timestampMs / 1000);
+        } else if (changes.isEmpty()) {
+            log.debug("No changes since the previous differential feed, not publishing");
+            return;
+        } else {
+            feedMessage = createDifferentialFeedMessage(changes, timestampMs / 1000);
+        }
+
+        producer.newMessage().value(feedMessage.toByteArray())
+                .eventTime(timestampMs)
+                .property(TransitdataProperties.KEY_PROTOBUF_SCHEMA, TransitdataProperties.ProtobufSchema.GTFS_ServiceAlert.toString())
+                .sendAsync()
+                .whenComplete((messageId, throwable) -> {
+                    if (throwable != null) {
+                        log.error("Failed to send differential feed to Pulsar, full dataset will be published next", throwable);
+                        fullDatasetRequired = true;
+                    } else {
+                        log.info("Produced a new GTFS-RT service alert message with {} incrementality and {} entities", feedMessage.getHeader().getIncrementality(), feedMessage.getEntityCount());
+                    }
+                });
+    }
+
+    static GtfsRealtime.FeedMessage createDifferentialFeedMessage(final List<GtfsRealtime.FeedEntity> entities, final long timestampSecs) {
+        final GtfsRealtime.FeedMessage emptyFeed = FeedMessageFactory.createFullFeedMessage(Collections.emptyList(), timestampSecs);
+        return emptyFeed.toBuilder()
+                .setHeader(emptyFeed.getHeader().toBuilder().setIncrementality(GtfsRealtime.FeedHeader.Incrementality.DIFFERENTIAL))
+                .addAllEntity(entities)
+                .build();
+    }
+}
@@ -0,0 +1,53 @@
+package fi.hsl.transitdata.alert;
+
+import com.google.transit.realtime.GtfsRealtime;
+import fi.hsl.common.transitdata.RouteIdUtils;
+
+/**
+ * Interns GTFS-RT entity selectors for route and stop IDs. The same IDs are referenced by bulletins again and again,
+ * so the selectors are built only once and shared between all alerts. Entity selectors are immutable.
+ */
+class EntitySelectorPool {
+    static final GtfsRealtime.EntitySelector AGENCY_SELECTOR = GtfsRealtime.EntitySelector.newBuilder()
+            .setAgencyId(AlertHandler.AGENCY_ENTITY_SELECTOR)
+            .build();
+
+    //Route IDs are cached both as received and as normalized, so that route variants share the same selector
+    private final BoundedCache<String, GtfsRealtime.EntitySelector> routeSelectors;
+    private final BoundedCache<String, GtfsRealtime.EntitySelector> normalizedRouteSelectors;
+    private final BoundedCache<String, GtfsRealtime.EntitySelector> stopSelectors;
+
+    EntitySelectorPool(final int maxSize) {
+        routeSelectors = new BoundedCache<>(maxSize);
+        normalizedRouteSelectors = new BoundedCache<>(maxSize);
+        stopSelectors = new BoundedCache<>(maxSize);
+    }
+
+    /**
+     * @param routeId Route ID, which is normalized to avoid publishing IDs that are not present in the static feed
+     */
+    GtfsRealtime.EntitySelector routeSelector(final String routeId) {
+        return routeSelectors.get(routeId, id -> normalizedRouteSelectors.get(RouteIdUtils.normalizeRouteId(id), normalizedRouteId ->
+                GtfsRealtime.EntitySelector.newBuilder()
+                        .setRouteId(normalizedRouteId)
+                        .build()));
+    }
+
+    GtfsRealtime.EntitySelector stopSelector(final String stopId) {
+        return stopSelectors.get(stopId, id -> GtfsRealtime.EntitySelector.newBuilder()
+                .setStopId(id)
+                .build());
+    }
+
+    int size() {
+        return routeSelectors.size() + stopSelectors.size();
+    }
+
+    long getHitCount() {
+        return routeSelectors.getHitCount() + stopSelectors.getHitCount();
+    }
+
+    long getMissCount() {
+        return routeSelectors.getMissCount() + stopSelectors.getMissCount();
+    }
+}
@@ -0,0 +1,112 @@
+package fi.hsl.transitdata.alert;
+
+import org.apache.pulsar.client.api.Producer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Elects the leader with a Pulsar producer in WaitForExclusive access mode. The broker lets only one producer of
+ * the lease topic be connected at a time, so the instance whose producer gets created is the leader. When the
+ * leader dies, the broker hands the access to a waiting producer. A leader stops publishing as soon as its producer
+ * is disconnected, because the broker may give the access to another instance right away, and tries to get the
+ * access again.
+ */
+class ExclusiveProducerLeaderElection implements LeaderElection {
+    private static final Logger log = LoggerFactory.getLogger(ExclusiveProducerLeaderElection.class);
+
+    private final ProducerFactory producerFactory;
+    private final String topic;
+    private final long checkIntervalMs;
+
+    private ScheduledExecutorService executor;
+    private Listener listener;
+
+    private CompletableFuture<Producer<byte[]>> pendingProducer;
+    private volatile Producer<byte[]> producer;
+    private volatile boolean leader;
+
+    ExclusiveProducerLeaderElection(final ProducerFactory producerFactory, final String topic, final long checkIntervalMs) {
+        this.producerFactory = producerFactory;
+        this.topic = topic;
+        this.checkIntervalMs = checkIntervalMs;
+    }
+
+    @Override
+    public synchronized void start(final Listener listener) {
+        this.listener = listener;
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "leader-election");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::check, 0, checkIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void check() {
+        if (producer != null) {
+            if (leader && producer.isConnected()) {
+                return;
+            }
+            //Reconnected producer cannot be trusted, the access may have been given to another instance meanwhile
+            log.warn("Exclusive producer of {} has been disconnected, this instance is no longer the leader", topic);
+            leader = false;
+            producer.closeAsync();
+            producer = null;
+            listener.onLost();
+        }
+
+        if (pendingProducer == null) {
+            log.info("Waiting for exclusive access to {}", topic);
+            pendingProducer = producerFactory.createExclusiveProducerAsync(topic);
+        }
+        if (pendingProducer.isDone()) {
+            final CompletableFuture<Producer<byte[]>> done = pendingProducer;
+            pendingProducer = null;
+            try {
+                producer = done.join();
+                leader = true;
+                log.info("Got exclusive access to {}, this instance is now the leader", topic);
+                listener.onElected(-1);
+            } catch (final Exception e) {
+                log.error("Failed to create exclusive producer for {}, retrying", topic, e);
+            }
+        }
+    }
+
+    /**
+     * Checks the connection of the producer every time, so that no feed is published after the connection is lost.
+     * Does not lock, because it is called while publishing.
+     */
+    @Override
+    public boolean isLeader() {
+        final Producer<byte[]> current = producer;
+        if (!leader || current == null) {
+            return false;
+        }
+        if (!current.isConnected()) {
+            //Steps down on the next check
+            leader = false;
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        leader = false;
+        if (pendingProducer != null) {
+            pendingProducer.thenAccept(Producer::closeAsync);
+        }
+        if (producer != null) {
+            producer.closeAsync();
+        }
+    }
+}
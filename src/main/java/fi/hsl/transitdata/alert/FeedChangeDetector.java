@@ -0,0 +1,97 @@
+package fi.hsl.transitdata.alert;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.WireFormat;
+import com.google.transit.realtime.GtfsRealtime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Detects whether a serialized GTFS-RT feed contains the same entities as the previously published feed. Only the
+ * entities are compared, because the header timestamp changes on every message. Unchanged feeds are still published
+ * at the given interval so that consumers can see that the feed is alive.
+ */
+class FeedChangeDetector {
+    private static final Logger log = LoggerFactory.getLogger(FeedChangeDetector.class);
+
+    private static final int HEADER_TAG = GtfsRealtime.FeedMessage.HEADER_FIELD_NUMBER << 3 | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+
+    private final long maxIntervalMs;
+    private final Clock clock;
+
+    private byte[] previousPayload;
+    private int previousEntitiesOffset;
+    private long previousPublishedMs;
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder suppressed = new LongAdder();
+
+    FeedChangeDetector(final Duration maxInterval, final Clock clock) {
+        this.maxIntervalMs = maxInterval.toMillis();
+        this.clock = clock;
+    }
+
+    /**
+     * @param payload Serialized GTFS-RT feed message
+     * @return true if the feed should be published, false if it can be skipped
+     */
+    synchronized boolean shouldPublish(final byte[] payload) {
+        final int entitiesOffset = findEntitiesOffset(payload);
+        final long nowMs = clock.millis();
+
+        if (previousPayload != null
+                && nowMs - previousPublishedMs < maxIntervalMs
+                && Arrays.equals(previousPayload, previousEntitiesOffset, previousPayload.length, payload, entitiesOffset, payload.length)) {
+            suppressed.increment();
+            log.info("Feed has not changed since {} ms ago, not publishing it", nowMs - previousPublishedMs);
+            return false;
+        }
+
+        previousPayload = payload;
+        previousEntitiesOffset = entitiesOffset;
+        previousPublishedMs = nowMs;
+        published.increment();
+        return true;
+    }
+
+    /**
+     * Forgets the previous feed, so that the next feed will be published even if it has not changed
+     */
+    synchronized void reset() {
+        previousPayload = null;
+    }
+
+    long getPublishedCount() {
+        return published.sum();
+    }
+
+    long getSuppressedCount() {
+        return suppressed.sum();
+    }
+
+    /**
+     * Protobuf serializes fields in the order of their field numbers, so the feed header comes before the entities.
+     *
+     * @return Offset of the first entity in the serialized feed message
+     */
+    static int findEntitiesOffset(final byte[] payload) {
+        try {
+            final CodedInputStream input = CodedInputStream.newInstance(payload);
+            final int tag = input.readTag();
+            if (tag != HEADER_TAG) {
+                return 0;
+            }
+            input.skipField(tag);
+            return input.getTotalBytesRead();
+        } catch (final IOException e) {
+            //Compare the whole payload if it cannot be parsed
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package fi.hsl.transitdata.alert;
+
+import com.google.protobuf.ByteString;
+import com.google.transit.realtime.GtfsRealtime;
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the GTFS-RT feed entities created from the bulletins of the previous snapshots, so that bulletins
+ * which have not changed don't need to be converted again. Entries are keyed by bulletin ID and are
+ * only reused when the serialized content of the bulletin and the mapping are the same.
+ */
+class FeedEntityCache {
+    private static final Logger log = LoggerFactory.getLogger(FeedEntityCache.class);
+
+    private final int maxSize;
+    private final Map<String, CachedEntity> cache = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private final ParallelConverter parallelConverter;
+
+    FeedEntityCache(final int maxSize) {
+        this(maxSize, null);
+    }
+
+    /**
+     * @param parallelConverter Converter for large snapshots, or null to always convert in the calling thread
+     */
+    FeedEntityCache(final int maxSize, final ParallelConverter parallelConverter) {
+        this.maxSize = maxSize;
+        this.parallelConverter = parallelConverter;
+    }
+
+    List<GtfsRealtime.FeedEntity> createFeedEntities(final List<InternalMessages.Bulletin> bulletins, final boolean globalNoServiceAlerts) {
+        return createFeedEntities(bulletins, AlertMapping.defaults(globalNoServiceAlerts));
+    }
+
+    List<GtfsRealtime.FeedEntity> createFeedEntities(final List<InternalMessages.Bulletin> bulletins, final AlertMapping mapping) {
+        final long hitsBefore = hits.sum();
+
+        final List<GtfsRealtime.FeedEntity> entities;
+        if (parallelConverter != null && parallelConverter.isParallelizable(bulletins)) {
+            entities = parallelConverter.convert(bulletins, bulletin -> getOrCreateFeedEntity(bulletin, mapping));
+        } else {
+            entities = new ArrayList<>(bulletins.size());
+            for (final InternalMessages.Bulletin bulletin : bulletins) {
+                getOrCreateFeedEntity(bulletin, mapping).ifPresent(entities::add);
+            }
+        }
+        retainOnly(bulletins);
+
+        log.info("Created feed entities for {} bulletins, {} of them were unchanged (cache size {})", bulletins.size(), hits.sum() - hitsBefore, cache.size());
+        return entities;
+    }
+
+    Optional<GtfsRealtime.FeedEntity> getOrCreateFeedEntity(final InternalMessages.Bulletin bulletin, final boolean globalNoServiceAlerts) {
+        return getOrCreateFeedEntity(bulletin, AlertMapping.defaults(globalNoServiceAlerts));
+    }
+
+    Optional<GtfsRealtime.FeedEntity> getOrCreateFeedEntity(final InternalMessages.Bulletin bulletin, final AlertMapping mapping) {
+        final String bulletinId = bulletin.getBulletinId();
+        final ByteString content = bulletin.toByteString();
+
+        final CachedEntity cached = cache.get(bulletinId);
+        if (cached != null && cached.matches(content, mapping)) {
+            hits.increment();
+            if (cached.discardCounter != null) {
+                //Discarded bulletins are counted in every snapshot, like when they are converted
+                cached.discardCounter.increment();
+            }
+            return cached.entity;
+        }
+
+        misses.increment();
+        final LongAdder[] discardCounter = new LongAdder[1];
+        final Optional<GtfsRealtime.FeedEntity> entity = AlertHandler.createFeedEntity(bulletin, mapping, counter -> {
+            counter.increment();
+            discardCounter[0] = counter;
+        });
+        if (cached != null || cache.size() < maxSize) {
+            cache.put(bulletinId, new CachedEntity(content, mapping, entity, discardCounter[0]));
+        }
+        return entity;
+    }
+
+    /**
+     * Evicts the bulletins that are not present in the latest snapshot
+     */
+    void retainOnly(final List<InternalMessages.Bulletin> bulletins) {
+        final Set<String> bulletinIds = new HashSet<>(bulletins.size() * 2);
+        for (final InternalMessages.Bulletin bulletin : bulletins) {
+            bulletinIds.add(bulletin.getBulletinId());
+        }
+        cache.keySet().retainAll(bulletinIds);
+    }
+
+    int size() {
+        return cache.size();
+    }
+
+    long getHitCount() {
+        return hits.sum();
+    }
+
+    long getMissCount() {
+        return misses.sum();
+    }
+
+    private static class CachedEntity {
+        final ByteString content;
+        final AlertMapping mapping;
+        final Optional<GtfsRealtime.FeedEntity> entity;
+        //Counter of the reason why the bulletin was discarded, null if it was not
+        final LongAdder discardCounter;
+
+        CachedEntity(final ByteString content, final AlertMapping mapping, final Optional<GtfsRealtime.FeedEntity> entity, final LongAdder discardCounter) {
+            this.content = content;
+            this.mapping = mapping;
+            this.entity = entity;
+            this.discardCounter = discardCounter;
+        }
+
+        boolean matches(final ByteString otherContent, final AlertMapping otherMapping) {
+            //The mapping is usually the same instance, it is compared by value only after a reload
+            return (mapping == otherMapping || mapping.equals(otherMapping)) && content.equals(otherContent);
+        }
+    }
+}
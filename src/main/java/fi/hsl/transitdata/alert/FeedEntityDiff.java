@@ -0,0 +1,58 @@
+package fi.hsl.transitdata.alert;
+
+import com.google.transit.realtime.GtfsRealtime;
+
+import java.util.*;
+
+/**
+ * Keeps the feed entities of the previous snapshot in memory and computes which entities have changed since it
+ */
+class FeedEntityDiff {
+    private Map<String, GtfsRealtime.FeedEntity> previous = Collections.emptyMap();
+
+    /**
+     * Replaces the previous snapshot with the given entities
+     *
+     * @return Entities that were added or changed since the previous snapshot and deleted entities for the ones that were removed from it
+     */
+    List<GtfsRealtime.FeedEntity> update(final List<GtfsRealtime.FeedEntity> entities) {
+        final Map<String, GtfsRealtime.FeedEntity> current = new LinkedHashMap<>(entities.size() * 2);
+        final List<GtfsRealtime.FeedEntity> changes = new ArrayList<>();
+
+        for (final GtfsRealtime.FeedEntity entity : entities) {
+            current.put(entity.getId(), entity);
+
+            final GtfsRealtime.FeedEntity previousEntity = previous.get(entity.getId());
+            //Unchanged entities are usually the same instance because of FeedEntityCache
+            if (previousEntity != entity && !entity.equals(previousEntity)) {
+                changes.add(entity);
+            }
+        }
+        for (final String id : previous.keySet()) {
+            if (!current.containsKey(id)) {
+                changes.add(createDeletedEntity(id));
+            }
+        }
+
+        previous = current;
+        return changes;
+    }
+
+    Set<String> getEntityIds() {
+        return previous.keySet();
+    }
+
+    /**
+     * @return Entity with the ID in the previous snapshot, or empty if it was not included
+     */
+    Optional<GtfsRealtime.FeedEntity> getEntity(final String id) {
+        return Optional.ofNullable(previous.get(id));
+    }
+
+    static GtfsRealtime.FeedEntity createDeletedEntity(final String id) {
+        return GtfsRealtime.FeedEntity.newBuilder()
+                .setId(id)
+                .setIsDeleted(true)
+                .build();
+    }
+}
@@ -0,0 +1,166 @@
+package fi.hsl.transitdata.alert;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.MessageOrBuilder;
+
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Prints protobuf messages as compact JSON without whitespace. Only fields that are set are included, in declaration
+ * order and with lowerCamelCase names, e.g. <code>{"header":{"gtfsRealtimeVersion":"2.0","timestamp":"1600000000"}}</code>.
+ * 64-bit integers are printed as strings, enums by name and extensions as <code>"[full.name]"</code>. Only the
+ * features used by GTFS-RT messages are supported: no maps, Any or other well-known types.
+ */
+final class GtfsRtJson {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private GtfsRtJson() {}
+
+    static String print(final MessageOrBuilder message) {
+        final StringBuilder json = new StringBuilder(256);
+        print(message, json);
+        return json.toString();
+    }
+
+    static void print(final MessageOrBuilder message, final StringBuilder json) {
+        json.append('{');
+        boolean first = true;
+        //Fields are printed in declaration order, only fields that are set are included
+        for (final Map.Entry<Descriptors.FieldDescriptor, Object> field : message.getAllFields().entrySet()) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            printField(field.getKey(), field.getValue(), json);
+        }
+        json.append('}');
+    }
+
+    private static void printField(final Descriptors.FieldDescriptor field, final Object value, final StringBuilder json) {
+        json.append('"');
+        if (field.isExtension()) {
+            json.append('[').append(field.getFullName()).append(']');
+        } else {
+            json.append(field.getJsonName());
+        }
+        json.append("\":");
+
+        if (field.isRepeated()) {
+            final List<?> values = (List<?>) value;
+            json.append('[');
+            for (int i = 0; i < values.size(); i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                printValue(field, values.get(i), json);
+            }
+            json.append(']');
+        } else {
+            printValue(field, value, json);
+        }
+    }
+
+    private static void printValue(final Descriptors.FieldDescriptor field, final Object value, final StringBuilder json) {
+        switch (field.getType()) {
+            case INT32:
+            case SINT32:
+            case SFIXED32:
+                json.append((int) (Integer) value);
+                break;
+            case UINT32:
+            case FIXED32:
+                json.append(Integer.toUnsignedString((Integer) value));
+                break;
+            //64-bit integers are quoted, because JavaScript numbers cannot represent all of them
+            case INT64:
+            case SINT64:
+            case SFIXED64:
+                json.append('"').append((long) (Long) value).append('"');
+                break;
+            case UINT64:
+            case FIXED64:
+                json.append('"').append(Long.toUnsignedString((Long) value)).append('"');
+                break;
+            case FLOAT:
+                printFloatingPoint((Float) value, value.toString(), json);
+                break;
+            case DOUBLE:
+                printFloatingPoint((Double) value, value.toString(), json);
+                break;
+            case BOOL:
+                json.append((boolean) (Boolean) value);
+                break;
+            case STRING:
+                appendString((String) value, json);
+                break;
+            case BYTES:
+                json.append('"').append(Base64.getEncoder().encodeToString(((ByteString) value).toByteArray())).append('"');
+                break;
+            case ENUM:
+                final Descriptors.EnumValueDescriptor enumValue = (Descriptors.EnumValueDescriptor) value;
+                if (enumValue.getIndex() == -1) {
+                    //Unknown value
+                    json.append(enumValue.getNumber());
+                } else {
+                    json.append('"').append(enumValue.getName()).append('"');
+                }
+                break;
+            case MESSAGE:
+            case GROUP:
+                print((MessageOrBuilder) value, json);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported field type " + field.getType());
+        }
+    }
+
+    private static void printFloatingPoint(final double value, final String text, final StringBuilder json) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            json.append('"').append(text).append('"');
+        } else {
+            json.append(text);
+        }
+    }
+
+    /**
+     * Escapes the string for JSON. HTML-sensitive characters are also escaped, so that the JSON can be embedded in HTML
+     */
+    static void appendString(final String value, final StringBuilder json) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"': json.append("\\\""); break;
+                case '\\': json.append("\\\\"); break;
+                case '\t': json.append("\\t"); break;
+                case '\b': json.append("\\b"); break;
+                case '\n': json.append("\\n"); break;
+                case '\r': json.append("\\r"); break;
+                case '\f': json.append("\\f"); break;
+                case '<':
+                case '>':
+                case '&':
+                case '=':
+                case '\'':
+                case '\u2028':
+                case '\u2029':
+                    appendUnicodeEscape(c, json);
+                    break;
+                default:
+                    if (c < 0x20) {
+                        appendUnicodeEscape(c, json);
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+
+    private static void appendUnicodeEscape(final char c, final StringBuilder json) {
+        json.append("\\u").append(HEX[c >> 12 & 0xF]).append(HEX[c >> 8 & 0xF]).append(HEX[c >> 4 & 0xF]).append(HEX[c & 0xF]);
+    }
+}
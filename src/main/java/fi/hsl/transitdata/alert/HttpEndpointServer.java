@@ -0,0 +1,100 @@
+package fi.hsl.transitdata.alert;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Embedded HTTP server for local endpoints, e.g. metrics. Requests are handled in a separate thread pool, so they
+ * never block message handling.
+ */
+class HttpEndpointServer implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(HttpEndpointServer.class);
+
+    /**
+     * Handles a request to an endpoint
+     */
+    @FunctionalInterface
+    interface Handler {
+        Response handle(HttpExchange exchange) throws Exception;
+    }
+
+    static class Response {
+        final int status;
+        final String contentType;
+        final byte[] body;
+
+        Response(final int status, final String contentType, final byte[] body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        static Response text(final String contentType, final String body) {
+            return text(contentType, 200, body);
+        }
+
+        static Response text(final String contentType, final int status, final String body) {
+            return new Response(status, contentType, body.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    HttpEndpointServer(final int port, final int threads) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        executor = Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, "http-endpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+    }
+
+    void addEndpoint(final String path, final Handler handler) {
+        server.createContext(path, exchange -> {
+            try {
+                final Response response = handler.handle(exchange);
+                exchange.getResponseHeaders().set("Content-Type", response.contentType);
+                exchange.sendResponseHeaders(response.status, response.body.length == 0 ? -1 : response.body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(response.body);
+                }
+            } catch (final Exception e) {
+                log.error("Failed to handle HTTP request to {}", path, e);
+                exchange.sendResponseHeaders(500, -1);
+            } finally {
+                exchange.close();
+            }
+        });
+    }
+
+    void addTextEndpoint(final String path, final String contentType, final Supplier<String> body) {
+        addEndpoint(path, exchange -> Response.text(contentType, body.get()));
+    }
+
+    void start() {
+        server.start();
+        log.info("HTTP server listening on port {}", getPort());
+    }
+
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
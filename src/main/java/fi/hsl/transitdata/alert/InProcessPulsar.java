@@ -0,0 +1,229 @@
+package fi.hsl.transitdata.alert;
+
+import fi.hsl.common.transitdata.TransitdataProperties;
+import org.apache.pulsar.client.api.*;
+
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+
+/**
+ * In-process stand-in for the Pulsar consumer and producers, so that {@link AlertHandler} can be run without a Pulsar
+ * cluster. Received messages are queued until the handler takes them and sent messages are persisted immediately
+ * and discarded. Only the methods used by the handler are supported.
+ */
+class InProcessPulsar implements ProducerFactory {
+    /**
+     * Message ID that remembers when the message was received, so that the time until it was acknowledged can be
+     * measured
+     */
+    static class InProcessMessageId implements MessageId {
+        final long sequence;
+        final long receivedNs;
+
+        InProcessMessageId(final long sequence, final long receivedNs) {
+            this.sequence = sequence;
+            this.receivedNs = receivedNs;
+        }
+
+        @Override
+        public byte[] toByteArray() {
+            return ByteBuffer.allocate(Long.BYTES).putLong(sequence).array();
+        }
+
+        @Override
+        public int compareTo(final MessageId other) {
+            return Long.compare(sequence, ((InProcessMessageId) other).sequence);
+        }
+
+        @Override
+        public String toString() {
+            return "in-process:" + sequence;
+        }
+    }
+
+    private final Queue<Message<byte[]>> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final LongConsumer ackListener;
+
+    private final Consumer<byte[]> consumer;
+
+    private final LongAdder sentMessages = new LongAdder();
+    private final LongAdder sentBytes = new LongAdder();
+    private final LongAdder nackedMessages = new LongAdder();
+
+    /**
+     * @param ackListener Called with the receive time in nanoseconds of each acknowledged message
+     */
+    InProcessPulsar(final LongConsumer ackListener) {
+        this.ackListener = ackListener;
+        this.consumer = createConsumer();
+    }
+
+    Consumer<byte[]> getConsumer() {
+        return consumer;
+    }
+
+    /**
+     * Adds a service alert message to the queue of the consumer
+     */
+    void receive(final byte[] data, final long eventTimeMs) {
+        queue.add(createMessage(data, eventTimeMs, new InProcessMessageId(sequence.getAndIncrement(), System.nanoTime())));
+    }
+
+    /**
+     * @return The oldest queued message or null if there is none
+     */
+    Message<byte[]> poll() {
+        return queue.poll();
+    }
+
+    boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    @Override
+    public Producer<byte[]> createProducer(final String topic) {
+        return proxy(Producer.class, (self, method, args) -> {
+            switch (method) {
+                case "newMessage":
+                    return createMessageBuilder();
+                case "getTopic":
+                    return topic;
+                case "isConnected":
+                    return true;
+                case "flush":
+                case "close":
+                    return null;
+                case "flushAsync":
+                case "closeAsync":
+                    return CompletableFuture.completedFuture(null);
+                default:
+                    throw new UnsupportedOperationException(method);
+            }
+        });
+    }
+
+    /**
+     * There are no other instances in the process, so the access is granted right away
+     */
+    @Override
+    public CompletableFuture<Producer<byte[]>> createExclusiveProducerAsync(final String topic) {
+        return CompletableFuture.completedFuture(createProducer(topic));
+    }
+
+    long getSentMessageCount() {
+        return sentMessages.sum();
+    }
+
+    long getSentBytes() {
+        return sentBytes.sum();
+    }
+
+    long getNackedMessageCount() {
+        return nackedMessages.sum();
+    }
+
+    private TypedMessageBuilder<byte[]> createMessageBuilder() {
+        return proxy(TypedMessageBuilder.class, (builder, method, args) -> {
+            switch (method) {
+                case "value":
+                    sentBytes.add(((byte[]) args[0]).length);
+                    return builder;
+                case "key":
+                case "eventTime":
+                case "property":
+                    return builder;
+                case "send":
+                    sentMessages.increment();
+                    return new InProcessMessageId(-1, System.nanoTime());
+                case "sendAsync":
+                    sentMessages.increment();
+                    return CompletableFuture.completedFuture(new InProcessMessageId(-1, System.nanoTime()));
+                default:
+                    throw new UnsupportedOperationException(method);
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private Consumer<byte[]> createConsumer() {
+        return proxy(Consumer.class, (self, method, args) -> {
+            switch (method) {
+                case "receive":
+                    return queue.poll();
+                case "acknowledgeAsync":
+                    if (args[0] instanceof List) {
+                        ((List<MessageId>) args[0]).forEach(this::acknowledged);
+                    } else {
+                        acknowledged((MessageId) args[0]);
+                    }
+                    return CompletableFuture.completedFuture(null);
+                case "negativeAcknowledge":
+                    nackedMessages.increment();
+                    return null;
+                case "getTopic":
+                    return "in-process";
+                default:
+                    throw new UnsupportedOperationException(method);
+            }
+        });
+    }
+
+    private void acknowledged(final MessageId messageId) {
+        ackListener.accept(((InProcessMessageId) messageId).receivedNs);
+    }
+
+    private static Message<byte[]> createMessage(final byte[] data, final long eventTimeMs, final MessageId messageId) {
+        final Map<String, String> properties = Collections.singletonMap(TransitdataProperties.KEY_PROTOBUF_SCHEMA,
+                TransitdataProperties.ProtobufSchema.TransitdataServiceAlert.toString());
+        return proxy(Message.class, (self, method, args) -> {
+            switch (method) {
+                case "getData":
+                case "getValue":
+                    return data;
+                case "getEventTime":
+                    return eventTimeMs;
+                case "getMessageId":
+                    return messageId;
+                case "hasProperty":
+                    return properties.containsKey(args[0]);
+                case "getProperty":
+                    return properties.get(args[0]);
+                case "getProperties":
+                    return properties;
+                default:
+                    throw new UnsupportedOperationException(method);
+            }
+        });
+    }
+
+    @FunctionalInterface
+    private interface MethodHandler {
+        Object handle(Object proxy, String method, Object[] args);
+    }
+
+    /**
+     * Creates an implementation of the interface that delegates calls by method name. Object methods use identity.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(final Class<?> type, final MethodHandler handler) {
+        return (T) Proxy.newProxyInstance(InProcessPulsar.class.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "in-process " + type.getSimpleName();
+                default:
+                    return handler.handle(proxy, method.getName(), args);
+            }
+        });
+    }
+}
@@ -0,0 +1,83 @@
+package fi.hsl.transitdata.alert;
+
+import com.google.transit.realtime.GtfsRealtime;
+import org.apache.pulsar.client.api.Producer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Publishes GTFS-RT feeds as JSON for consumers that cannot parse protobuf
+ */
+class JsonFeedPublisher {
+    private static final Logger log = LoggerFactory.getLogger(JsonFeedPublisher.class);
+
+    private final Producer<byte[]> producer;
+    private final JsonFeedRenderer renderer = new JsonFeedRenderer();
+
+    private final LongAdder publishedFeeds = new LongAdder();
+    private final LongAdder failedFeeds = new LongAdder();
+
+    //Latest feed rendered as a standby, published when taking over
+    private byte[] standbyJson;
+    private int standbyEntityCount;
+    private long standbyTimestampMs;
+
+    JsonFeedPublisher(final Producer<byte[]> producer) {
+        this.producer = producer;
+    }
+
+    /**
+     * Renders the feed without publishing it, used when this instance is a standby so that the cached JSON is up to
+     * date when taking over
+     */
+    void update(final GtfsRealtime.FeedHeader header, final List<GtfsRealtime.FeedEntity> entities, final long timestampMs) {
+        standbyJson = renderer.render(header, entities);
+        standbyEntityCount = entities.size();
+        standbyTimestampMs = timestampMs;
+    }
+
+    /**
+     * Publishes the latest feed rendered as a standby
+     */
+    void takeOver() {
+        if (standbyJson != null) {
+            send(standbyJson, standbyEntityCount, standbyTimestampMs);
+            standbyJson = null;
+        }
+    }
+
+    void publish(final GtfsRealtime.FeedHeader header, final List<GtfsRealtime.FeedEntity> entities, final long timestampMs) {
+        standbyJson = null;
+        send(renderer.render(header, entities), entities.size(), timestampMs);
+    }
+
+    private void send(final byte[] json, final int entityCount, final long timestampMs) {
+        producer.newMessage().value(json)
+                .eventTime(timestampMs)
+                .sendAsync()
+                .whenComplete((messageId, throwable) -> {
+                    if (throwable != null) {
+                        log.error("Failed to send JSON feed to Pulsar", throwable);
+                        failedFeeds.increment();
+                    } else {
+                        log.debug("Produced a JSON feed with {} entities ({} bytes)", entityCount, json.length);
+                        publishedFeeds.increment();
+                    }
+                });
+    }
+
+    JsonFeedRenderer getRenderer() {
+        return renderer;
+    }
+
+    long getPublishedFeedCount() {
+        return publishedFeeds.sum();
+    }
+
+    long getFailedFeedCount() {
+        return failedFeeds.sum();
+    }
+}
@@ -0,0 +1,99 @@
+package fi.hsl.transitdata.alert;
+
+import com.google.protobuf.MessageOrBuilder;
+import com.google.transit.realtime.GtfsRealtime;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Renders GTFS-RT feeds as JSON. The JSON of each feed entity is kept until the entity changes, so rendering a feed
+ * where only one alert has changed costs one entity and the concatenation of the cached fragments. The output is
+ * the same as printing the whole feed with {@link GtfsRtJson}.
+ *
+ * <p>Not thread-safe, feeds must be rendered in one thread.</p>
+ */
+class JsonFeedRenderer {
+    private static final byte[] HEADER_PREFIX = "{\"header\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ENTITIES_PREFIX = ",\"entity\":[".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ENTITIES_SUFFIX = "]}".getBytes(StandardCharsets.UTF_8);
+
+    private static class Fragment {
+        final GtfsRealtime.FeedEntity entity;
+        final byte[] json;
+
+        Fragment(final GtfsRealtime.FeedEntity entity, final byte[] json) {
+            this.entity = entity;
+            this.json = json;
+        }
+    }
+
+    //Fragments of the entities of the previous feed by entity ID
+    private Map<String, Fragment> fragments = new HashMap<>();
+
+    private final StringBuilder json = new StringBuilder(4096);
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream(64 * 1024);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @return Feed as UTF-8 encoded JSON
+     */
+    byte[] render(final GtfsRealtime.FeedHeader header, final List<GtfsRealtime.FeedEntity> entities) {
+        final Map<String, Fragment> previous = fragments;
+        fragments = new HashMap<>(entities.size() * 2);
+
+        output.reset();
+        output.writeBytes(HEADER_PREFIX);
+        output.writeBytes(toJson(header));
+        if (!entities.isEmpty()) {
+            output.writeBytes(ENTITIES_PREFIX);
+            for (int i = 0; i < entities.size(); i++) {
+                if (i > 0) {
+                    output.write(',');
+                }
+                final Fragment fragment = getOrRender(previous, entities.get(i));
+                fragments.put(fragment.entity.getId(), fragment);
+                output.writeBytes(fragment.json);
+            }
+            output.writeBytes(ENTITIES_SUFFIX);
+        } else {
+            output.write('}');
+        }
+        return output.toByteArray();
+    }
+
+    private Fragment getOrRender(final Map<String, Fragment> previous, final GtfsRealtime.FeedEntity entity) {
+        final Fragment fragment = previous.get(entity.getId());
+        //Unchanged entities are usually the same instance thanks to the feed entity cache
+        if (fragment != null && (fragment.entity == entity || fragment.entity.equals(entity))) {
+            hits.increment();
+            return fragment;
+        }
+        misses.increment();
+        return new Fragment(entity, toJson(entity));
+    }
+
+    private byte[] toJson(final MessageOrBuilder message) {
+        json.setLength(0);
+        GtfsRtJson.print(message, json);
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    int size() {
+        return fragments.size();
+    }
+
+    long getHitCount() {
+        return hits.sum();
+    }
+
+    long getMissCount() {
+        return misses.sum();
+    }
+}
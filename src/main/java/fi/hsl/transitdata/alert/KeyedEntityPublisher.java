@@ -0,0 +1,172 @@
+package fi.hsl.transitdata.alert;
+
+import com.google.transit.realtime.GtfsRealtime;
+import fi.hsl.common.transitdata.TransitdataProperties;
+import org.apache.pulsar.client.api.Producer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Publishes each alert as its own message keyed by bulletin ID, so that the topic can be compacted and consumers
+ * can read the current alerts without processing whole feeds. Only alerts that have changed since the previous
+ * snapshot are published. When a bulletin is removed, a message with an empty payload is published, which removes
+ * the key from the compacted topic.
+ *
+ * <p>On startup and after being a standby, the topic may contain alerts that were removed while no instance was
+ * publishing. Then all alerts are published and tombstones are published for the other keys in the topic.</p>
+ */
+class KeyedEntityPublisher {
+    private static final Logger log = LoggerFactory.getLogger(KeyedEntityPublisher.class);
+
+    private static final byte[] TOMBSTONE = new byte[0];
+
+    private final Producer<byte[]> producer;
+    private final Callable<Set<String>> topicKeyReader;
+
+    private final FeedEntityDiff diff = new FeedEntityDiff();
+    //IDs whose latest message could not be sent, they are sent again with the next snapshot
+    private final Set<String> failedIds = ConcurrentHashMap.newKeySet();
+
+    private boolean reconcileRequired = true;
+    //IDs removed while standby, they may still be in the topic if the leader did not publish their tombstones
+    private final Set<String> standbyRemovedIds = new HashSet<>();
+    //Latest snapshot received as a standby, published when taking over
+    private List<GtfsRealtime.FeedEntity> standbyEntities;
+    private long standbyTimestampMs;
+
+    private final LongAdder publishedEntities = new LongAdder();
+    private final LongAdder publishedTombstones = new LongAdder();
+    private final LongAdder failedMessages = new LongAdder();
+
+    KeyedEntityPublisher(final Producer<byte[]> producer) {
+        this(producer, Collections::emptySet);
+    }
+
+    /**
+     * @param topicKeyReader Reads the keys that have a value in the topic, used for finding alerts that need a tombstone
+     */
+    KeyedEntityPublisher(final Producer<byte[]> producer, final Callable<Set<String>> topicKeyReader) {
+        this.producer = producer;
+        this.topicKeyReader = topicKeyReader;
+    }
+
+    /**
+     * Updates the previous snapshot without publishing, used when this instance is a standby
+     */
+    void update(final List<GtfsRealtime.FeedEntity> entities, final long timestampMs) {
+        for (final GtfsRealtime.FeedEntity entity : diff.update(entities)) {
+            if (entity.getIsDeleted()) {
+                standbyRemovedIds.add(entity.getId());
+            } else {
+                standbyRemovedIds.remove(entity.getId());
+            }
+        }
+        reconcileRequired = true;
+        standbyEntities = entities;
+        standbyTimestampMs = timestampMs;
+    }
+
+    /**
+     * Publishes the latest snapshot received as a standby and tombstones for the alerts that are no longer in it
+     */
+    void takeOver() {
+        if (standbyEntities != null) {
+            publish(standbyEntities, standbyTimestampMs);
+        }
+    }
+
+    void publish(final List<GtfsRealtime.FeedEntity> entities, final long timestampMs) {
+        standbyEntities = null;
+        if (reconcileRequired) {
+            reconcile(entities, timestampMs);
+            return;
+        }
+
+        final List<GtfsRealtime.FeedEntity> changes = new ArrayList<>(diff.update(entities));
+        for (final String id : new ArrayList<>(failedIds)) {
+            failedIds.remove(id);
+            if (changes.stream().noneMatch(entity -> entity.getId().equals(id))) {
+                final Optional<GtfsRealtime.FeedEntity> entity = diff.getEntity(id);
+                changes.add(entity.orElseGet(() -> FeedEntityDiff.createDeletedEntity(id)));
+            }
+        }
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        for (final GtfsRealtime.FeedEntity entity : changes) {
+            send(entity, timestampMs);
+        }
+        //Messages are sent in batches, flush so that the last batch does not wait for the batching delay
+        producer.flushAsync();
+        log.info("Published {} changed alerts with keys", changes.size());
+    }
+
+    private void reconcile(final List<GtfsRealtime.FeedEntity> entities, final long timestampMs) {
+        final Set<String> staleIds = new HashSet<>(diff.getEntityIds());
+        staleIds.addAll(standbyRemovedIds);
+        try {
+            staleIds.addAll(topicKeyReader.call());
+        } catch (final Exception e) {
+            log.warn("Failed to read the keys of the topic, publishing tombstones only for the alerts known to be removed", e);
+        }
+        diff.update(entities);
+        failedIds.clear();
+
+        for (final GtfsRealtime.FeedEntity entity : entities) {
+            staleIds.remove(entity.getId());
+            send(entity, timestampMs);
+        }
+        for (final String id : staleIds) {
+            send(FeedEntityDiff.createDeletedEntity(id), timestampMs);
+        }
+        producer.flushAsync();
+        standbyRemovedIds.clear();
+        reconcileRequired = false;
+        log.info("Published all {} alerts with keys and {} tombstones for removed alerts", entities.size(), staleIds.size());
+    }
+
+    private void send(final GtfsRealtime.FeedEntity entity, final long timestampMs) {
+        final String id = entity.getId();
+        final byte[] payload = entity.getIsDeleted() ? TOMBSTONE :
+                DifferentialFeedPublisher.createDifferentialFeedMessage(Collections.singletonList(entity), timestampMs / 1000).toByteArray();
+
+        producer.newMessage().key(id).value(payload)
+                .eventTime(timestampMs)
+                .property(TransitdataProperties.KEY_PROTOBUF_SCHEMA, TransitdataProperties.ProtobufSchema.GTFS_ServiceAlert.toString())
+                .sendAsync()
+                .whenComplete((messageId, throwable) -> {
+                    if (throwable != null) {
+                        log.error("Failed to send alert {} to Pulsar, it will be sent again with the next snapshot", id, throwable);
+                        failedMessages.increment();
+                        failedIds.add(id);
+                    } else if (payload == TOMBSTONE) {
+                        publishedTombstones.increment();
+                    } else {
+                        publishedEntities.increment();
+                    }
+                });
+    }
+
+    long getPublishedEntityCount() {
+        return publishedEntities.sum();
+    }
+
+    long getPublishedTombstoneCount() {
+        return publishedTombstones.sum();
+    }
+
+    long getFailedMessageCount() {
+        return failedMessages.sum();
+    }
+}
@@ -0,0 +1,29 @@
+package fi.hsl.transitdata.alert;
+
+/**
+ * Elects one of the running instances as the leader, which is the only one publishing feeds. Other instances are
+ * standbys that keep processing messages and become the leader when the previous leader stops.
+ */
+interface LeaderElection extends AutoCloseable {
+    interface Listener {
+        /**
+         * @param previousLeaderSeenMs Time when the previous leader was last known to be alive, or -1 if unknown
+         */
+        void onElected(long previousLeaderSeenMs);
+
+        void onLost();
+    }
+
+    /**
+     * Tries to become the leader and keeps checking the leadership periodically until closed
+     */
+    void start(Listener listener);
+
+    boolean isLeader();
+
+    /**
+     * Gives up the leadership
+     */
+    @Override
+    void close();
+}
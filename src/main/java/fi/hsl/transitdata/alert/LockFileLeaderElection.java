@@ -0,0 +1,144 @@
+package fi.hsl.transitdata.alert;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Elects the leader by locking a file, for instances that share a file system. The operating system releases the
+ * lock when the leader process dies. The leader writes the current time to the file on every check, so that the new
+ * leader knows when the previous one was last alive.
+ */
+class LockFileLeaderElection implements LeaderElection {
+    private static final Logger log = LoggerFactory.getLogger(LockFileLeaderElection.class);
+
+    private final Path path;
+    private final long checkIntervalMs;
+
+    private ScheduledExecutorService executor;
+    private Listener listener;
+
+    private FileChannel channel;
+    private FileLock lock;
+    private volatile boolean leader;
+
+    LockFileLeaderElection(final Path path, final long checkIntervalMs) {
+        this.path = path;
+        this.checkIntervalMs = checkIntervalMs;
+    }
+
+    @Override
+    public synchronized void start(final Listener listener) {
+        this.listener = listener;
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "leader-election");
+            thread.setDaemon(true);
+            return thread;
+        });
+        check();
+        executor.scheduleWithFixedDelay(this::check, checkIntervalMs, checkIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void check() {
+        try {
+            if (leader) {
+                writeHeartbeat();
+            } else {
+                tryLock();
+            }
+        } catch (final IOException e) {
+            log.error("Failed to check leadership using lock file {}", path, e);
+            if (leader) {
+                release();
+                listener.onLost();
+            }
+        }
+    }
+
+    private void tryLock() throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            lock = channel.tryLock();
+        } catch (final OverlappingFileLockException e) {
+            //Locked by another instance in the same JVM
+            lock = null;
+        }
+        if (lock == null) {
+            channel.close();
+            channel = null;
+            return;
+        }
+
+        final long previousLeaderSeenMs = readHeartbeat();
+        leader = true;
+        writeHeartbeat();
+        log.info("Acquired lock {}, this instance is now the leader", path);
+        listener.onElected(previousLeaderSeenMs);
+    }
+
+    private long readHeartbeat() throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) {
+                return -1;
+            }
+        }
+        buffer.flip();
+        return buffer.getLong();
+    }
+
+    private void writeHeartbeat() throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+        buffer.putLong(System.currentTimeMillis());
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, buffer.position());
+        }
+    }
+
+    private void release() {
+        leader = false;
+        try {
+            if (lock != null) {
+                lock.release();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (final IOException e) {
+            log.warn("Failed to release lock file {}", path, e);
+        }
+        lock = null;
+        channel = null;
+    }
+
+    @Override
+    public boolean isLeader() {
+        return leader;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        if (leader) {
+            log.info("Releasing lock {}", path);
+        }
+        release();
+    }
+}
@@ -13,16 +13,36 @@ public class Main {
     public static void main(String[] args) {
         log.info("Starting transitdata-alert-processor");
         Config config = ConfigParser.createConfig();
+        HttpEndpointServer httpServer = null;
         try (PulsarApplication app = PulsarApplication.newInstance(config)) {
 
             PulsarApplicationContext context = app.getContext();
 
             final AlertHandler handler = new AlertHandler(context);
 
+            final boolean metricsEnabled = config.getBoolean("application.metrics.enabled");
+            final boolean alertIndexEnabled = config.getBoolean("application.alertIndex.enabled");
+            if (metricsEnabled || alertIndexEnabled) {
+                httpServer = new HttpEndpointServer(config.getInt("application.metrics.port"), 2);
+                if (metricsEnabled) {
+                    httpServer.addTextEndpoint("/metrics", "text/plain; version=0.0.4; charset=utf-8", handler.getMetrics()::scrape);
+                }
+                if (alertIndexEnabled) {
+                    httpServer.addEndpoint("/alerts", new AlertIndexEndpoint(handler::getAlertIndex));
+                }
+                httpServer.start();
+            }
+
+            handler.restoreState();
+
             log.info("Start handling the messages");
             app.launchWithHandler(handler);
         } catch (Exception e) {
             log.error("Exception at main", e);
+        } finally {
+            if (httpServer != null) {
+                httpServer.close();
+            }
         }
     }
 }
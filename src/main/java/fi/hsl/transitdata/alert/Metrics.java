@@ -0,0 +1,176 @@
+package fi.hsl.transitdata.alert;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Minimal registry of counters, gauges and histograms that can be written in Prometheus text format. Recording
+ * values does not allocate memory, so metrics can be recorded for every message without affecting GC.
+ */
+class Metrics {
+    static final double[] LATENCY_BUCKETS_SECONDS = { 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10 };
+    static final double[] LAG_BUCKETS_SECONDS = { 0.01, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 300, 900, 3600 };
+    static final double[] SIZE_BUCKETS_BYTES = { 1_000, 10_000, 50_000, 100_000, 250_000, 500_000, 1_000_000, 2_500_000, 5_000_000, 10_000_000 };
+    static final double[] COUNT_BUCKETS = { 1, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000 };
+
+    private static final String PREFIX = "transitdata_alert_processor_";
+
+    private final List<Metric> metrics = new CopyOnWriteArrayList<>();
+
+    Counter counter(final String name, final String help) {
+        final Counter counter = new Counter();
+        register(name, help, "counter", Collections.singletonMap("", counter::get));
+        return counter;
+    }
+
+    void counter(final String name, final String help, final LongSupplier value) {
+        register(name, help, "counter", Collections.singletonMap("", () -> value.getAsLong()));
+    }
+
+    /**
+     * @param values Values by label, e.g. <code>reason="display_only"</code>
+     */
+    void counter(final String name, final String help, final Map<String, LongSupplier> values) {
+        final Map<String, DoubleSupplier> doubleValues = new LinkedHashMap<>();
+        values.forEach((labels, value) -> doubleValues.put(labels, () -> value.getAsLong()));
+        register(name, help, "counter", doubleValues);
+    }
+
+    void gauge(final String name, final String help, final DoubleSupplier value) {
+        register(name, help, "gauge", Collections.singletonMap("", value));
+    }
+
+    /**
+     * @param values Values by label, e.g. <code>stage="convert"</code>
+     */
+    void gauge(final String name, final String help, final Map<String, DoubleSupplier> values) {
+        register(name, help, "gauge", new LinkedHashMap<>(values));
+    }
+
+    Histogram histogram(final String name, final String help, final double... buckets) {
+        final Histogram histogram = new Histogram(buckets);
+        metrics.add(new Metric(PREFIX + name, help, "histogram", Collections.emptyMap(), histogram));
+        return histogram;
+    }
+
+    private void register(final String name, final String help, final String type, final Map<String, DoubleSupplier> values) {
+        metrics.add(new Metric(PREFIX + name, help, type, values, null));
+    }
+
+    /**
+     * @return All metrics in Prometheus text exposition format
+     */
+    String scrape() {
+        final StringBuilder out = new StringBuilder(4096);
+        for (final Metric metric : metrics) {
+            metric.writeTo(out);
+        }
+        return out.toString();
+    }
+
+    static class Counter {
+        private final LongAdder value = new LongAdder();
+
+        void increment() {
+            value.increment();
+        }
+
+        void add(final long amount) {
+            value.add(amount);
+        }
+
+        long get() {
+            return value.sum();
+        }
+    }
+
+    static class Histogram {
+        private final double[] upperBounds;
+        private final AtomicLongArray bucketCounts;
+        private final DoubleAdder sum = new DoubleAdder();
+        private final LongAdder count = new LongAdder();
+
+        private Histogram(final double[] upperBounds) {
+            this.upperBounds = upperBounds.clone();
+            Arrays.sort(this.upperBounds);
+            //Last bucket is for values larger than all upper bounds
+            this.bucketCounts = new AtomicLongArray(upperBounds.length + 1);
+        }
+
+        void observe(final double value) {
+            int bucket = Arrays.binarySearch(upperBounds, value);
+            if (bucket < 0) {
+                bucket = -bucket - 1;
+            }
+            bucketCounts.incrementAndGet(bucket);
+            sum.add(value);
+            count.increment();
+        }
+
+        void observeNanos(final long nanos) {
+            observe(nanos / (double) TimeUnit.SECONDS.toNanos(1));
+        }
+
+        void observeMillis(final long millis) {
+            observe(millis / (double) TimeUnit.SECONDS.toMillis(1));
+        }
+
+        long getCount() {
+            return count.sum();
+        }
+
+        double getSum() {
+            return sum.sum();
+        }
+
+        private void writeTo(final StringBuilder out, final String name) {
+            long cumulativeCount = 0;
+            for (int i = 0; i < upperBounds.length; i++) {
+                cumulativeCount += bucketCounts.get(i);
+                out.append(name).append("_bucket{le=\"").append(upperBounds[i]).append("\"} ").append(cumulativeCount).append('\n');
+            }
+            cumulativeCount += bucketCounts.get(upperBounds.length);
+            out.append(name).append("_bucket{le=\"+Inf\"} ").append(cumulativeCount).append('\n');
+            out.append(name).append("_sum ").append(sum.sum()).append('\n');
+            out.append(name).append("_count ").append(cumulativeCount).append('\n');
+        }
+    }
+
+    private static class Metric {
+        final String name;
+        final String help;
+        final String type;
+        final Map<String, DoubleSupplier> values;
+        final Histogram histogram;
+
+        Metric(final String name, final String help, final String type, final Map<String, DoubleSupplier> values, final Histogram histogram) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.values = values;
+            this.histogram = histogram;
+        }
+
+        void writeTo(final StringBuilder out) {
+            out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+            if (histogram != null) {
+                histogram.writeTo(out, name);
+                return;
+            }
+            values.forEach((labels, value) -> {
+                out.append(name);
+                if (!labels.isEmpty()) {
+                    out.append('{').append(labels).append('}');
+                }
+                out.append(' ').append(value.getAsDouble()).append('\n');
+            });
+        }
+    }
+}
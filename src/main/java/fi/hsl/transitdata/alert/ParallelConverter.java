@@ -0,0 +1,120 @@
+package fi.hsl.transitdata.alert;
+
+import fi.hsl.common.transitdata.proto.InternalMessages;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Converts the bulletins of large snapshots in a dedicated thread pool. Small snapshots are converted faster
+ * in the calling thread, so conversion is parallelized only when the snapshot exceeds one of the thresholds.
+ * The results are always in the same order as the bulletins.
+ */
+class ParallelConverter {
+    private final ForkJoinPool pool;
+    private final int minBulletins;
+    private final int minSelectors;
+
+    private final LongAdder parallelConversions = new LongAdder();
+
+    /**
+     * @param parallelism  Number of threads used for conversion
+     * @param minBulletins Minimum number of bulletins in a snapshot for parallel conversion
+     * @param minSelectors Minimum number of affected routes and stops in a snapshot for parallel conversion
+     */
+    ParallelConverter(final int parallelism, final int minBulletins, final int minSelectors) {
+        this.pool = new ForkJoinPool(parallelism, pool -> {
+            final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("feed-entity-converter-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+        this.minBulletins = minBulletins;
+        this.minSelectors = minSelectors;
+    }
+
+    boolean isParallelizable(final List<InternalMessages.Bulletin> bulletins) {
+        if (bulletins.size() < 2) {
+            return false;
+        }
+        if (bulletins.size() >= minBulletins) {
+            return true;
+        }
+        long selectorCount = 0;
+        for (final InternalMessages.Bulletin bulletin : bulletins) {
+            selectorCount += bulletin.getAffectedRoutesCount() + bulletin.getAffectedStopsCount();
+        }
+        return selectorCount >= minSelectors;
+    }
+
+    /**
+     * Converts the bulletins in parallel
+     *
+     * @param converter Function for converting a bulletin, must be thread-safe
+     * @return Converted values that were present, in the same order as the bulletins
+     */
+    <T> List<T> convert(final List<InternalMessages.Bulletin> bulletins, final Function<InternalMessages.Bulletin, Optional<T>> converter) {
+        parallelConversions.increment();
+
+        @SuppressWarnings("unchecked")
+        final Optional<T>[] results = new Optional[bulletins.size()];
+        //Bulletins differ a lot in size, so split into more tasks than there are threads to balance the work
+        final int chunkSize = Math.max(1, bulletins.size() / (pool.getParallelism() * 4));
+        pool.invoke(new ConvertAction<>(bulletins, converter, results, 0, bulletins.size(), chunkSize));
+
+        final List<T> converted = new ArrayList<>(results.length);
+        for (final Optional<T> result : results) {
+            result.ifPresent(converted::add);
+        }
+        return converted;
+    }
+
+    /**
+     * Stops the conversion threads after the conversions in progress have finished
+     */
+    void close() {
+        pool.shutdown();
+    }
+
+    long getParallelConversionCount() {
+        return parallelConversions.sum();
+    }
+
+    private static class ConvertAction<T> extends RecursiveAction {
+        private final List<InternalMessages.Bulletin> bulletins;
+        private final Function<InternalMessages.Bulletin, Optional<T>> converter;
+        private final Optional<T>[] results;
+        private final int from;
+        private final int to;
+        private final int chunkSize;
+
+        ConvertAction(final List<InternalMessages.Bulletin> bulletins, final Function<InternalMessages.Bulletin, Optional<T>> converter,
+                      final Optional<T>[] results, final int from, final int to, final int chunkSize) {
+            this.bulletins = bulletins;
+            this.converter = converter;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunkSize) {
+                for (int i = from; i < to; i++) {
+                    results[i] = converter.apply(bulletins.get(i));
+                }
+            } else {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new ConvertAction<>(bulletins, converter, results, from, middle, chunkSize),
+                        new ConvertAction<>(bulletins, converter, results, middle, to, chunkSize));
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package fi.hsl.transitdata.alert;
+
+/**
+ * Metrics recorded for each handled service alert message
+ */
+class ProcessingMetrics {
+    final Metrics.Histogram receiveLag;
+    final Metrics.Histogram parseDuration;
+    final Metrics.Histogram convertDuration;
+    final Metrics.Histogram serializeDuration;
+    final Metrics.Histogram sendDuration;
+    final Metrics.Histogram endToEndLag;
+    final Metrics.Histogram bulletinsPerSnapshot;
+    final Metrics.Histogram feedSize;
+
+    final Metrics.Counter receivedMessages;
+    final Metrics.Counter failedMessages;
+    final Metrics.Counter publishedFeeds;
+    final Metrics.Counter failedPublishes;
+
+    ProcessingMetrics(final Metrics metrics) {
+        receiveLag = metrics.histogram("receive_lag_seconds", "Time from the event time of the message until it was received", Metrics.LAG_BUCKETS_SECONDS);
+        parseDuration = metrics.histogram("parse_duration_seconds", "Time spent parsing service alert messages", Metrics.LATENCY_BUCKETS_SECONDS);
+        convertDuration = metrics.histogram("convert_duration_seconds", "Time spent converting bulletins to GTFS-RT", Metrics.LATENCY_BUCKETS_SECONDS);
+        serializeDuration = metrics.histogram("serialize_duration_seconds", "Time spent serializing GTFS-RT feeds", Metrics.LATENCY_BUCKETS_SECONDS);
+        sendDuration = metrics.histogram("send_duration_seconds", "Time from sending a GTFS-RT feed until it was persisted", Metrics.LATENCY_BUCKETS_SECONDS);
+        endToEndLag = metrics.histogram("end_to_end_lag_seconds", "Time from the event time of the message until the GTFS-RT feed was persisted", Metrics.LAG_BUCKETS_SECONDS);
+        bulletinsPerSnapshot = metrics.histogram("bulletins_per_snapshot", "Number of bulletins in service alert messages", Metrics.COUNT_BUCKETS);
+        feedSize = metrics.histogram("feed_size_bytes", "Size of the serialized GTFS-RT feeds", Metrics.SIZE_BUCKETS_BYTES);
+
+        receivedMessages = metrics.counter("received_messages_total", "Number of received service alert messages");
+        failedMessages = metrics.counter("failed_messages_total", "Number of service alert messages that could not be handled");
+        publishedFeeds = metrics.counter("published_feeds_total", "Number of GTFS-RT feeds persisted to the output topic");
+        failedPublishes = metrics.counter("failed_publishes_total", "Number of GTFS-RT feeds that could not be published");
+    }
+}
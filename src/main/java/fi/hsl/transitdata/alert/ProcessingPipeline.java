@@ -0,0 +1,226 @@
+package fi.hsl.transitdata.alert;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Processes items in stages that run in their own threads and are connected by bounded queues. Items leave each
+ * stage in the order they were submitted, even if the stage processes several items in parallel. When the queue
+ * of a stage is full, the previous stage waits, and when the queue of the first stage is full,
+ * {@link #submit(Object)} blocks, which stops the consumer from receiving more messages.
+ */
+class ProcessingPipeline<T> {
+    private static final Logger log = LoggerFactory.getLogger(ProcessingPipeline.class);
+
+    @FunctionalInterface
+    interface Step<T> {
+        void process(T item) throws Exception;
+    }
+
+    @FunctionalInterface
+    interface ErrorHandler<T> {
+        /**
+         * Called when a stage fails to process an item. The item is not passed to the following stages.
+         */
+        void onError(T item, Exception e);
+    }
+
+    private static class Task<T> {
+        final T item;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Task(final T item) {
+            this.item = item;
+        }
+    }
+
+    private class Stage {
+        final String name;
+        final Step<T> step;
+        //Tasks in submission order, the first one is passed to the next stage when it is done
+        final BlockingQueue<Task<T>> queue;
+        //Null if the stage has only one thread, then tasks are processed in the thread taking them from the queue
+        final ExecutorService workers;
+        Stage next;
+
+        Stage(final String name, final int threads, final Step<T> step, final int queueSize) {
+            this.name = name;
+            this.step = step;
+            this.queue = new ArrayBlockingQueue<>(queueSize);
+            this.workers = threads > 1 ? Executors.newFixedThreadPool(threads, threadFactory("pipeline-" + name + "-worker")) : null;
+        }
+
+        void enqueue(final T item) throws InterruptedException {
+            final Task<T> task = new Task<>(item);
+            queue.put(task);
+            if (workers != null) {
+                workers.execute(() -> process(task));
+            }
+        }
+
+        void process(final Task<T> task) {
+            try {
+                step.process(task.item);
+                task.done.complete(null);
+            } catch (final Exception e) {
+                task.done.completeExceptionally(e);
+            }
+        }
+
+        void run() {
+            try {
+                while (true) {
+                    final Task<T> task = queue.take();
+                    if (workers == null) {
+                        process(task);
+                    }
+                    try {
+                        task.done.get();
+                    } catch (final ExecutionException e) {
+                        errorHandler.onError(task.item, e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+                        completed();
+                        continue;
+                    }
+                    if (next != null) {
+                        next.enqueue(task.item);
+                    } else {
+                        completed();
+                    }
+                }
+            } catch (final InterruptedException e) {
+                log.debug("Stage {} was interrupted", name);
+            }
+        }
+    }
+
+    private final List<Stage> stages = new ArrayList<>();
+    private final ErrorHandler<T> errorHandler;
+    private final int queueSize;
+    private final boolean virtualThreads;
+
+    private final List<Thread> threads = new ArrayList<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * @param queueSize Max number of items in each stage
+     * @param virtualThreads Whether to use virtual threads if the runtime supports them
+     */
+    ProcessingPipeline(final int queueSize, final boolean virtualThreads, final ErrorHandler<T> errorHandler) {
+        this.queueSize = queueSize;
+        this.virtualThreads = virtualThreads && isVirtualThreadSupported();
+        this.errorHandler = errorHandler;
+        if (virtualThreads && !this.virtualThreads) {
+            log.warn("Virtual threads are not supported by this runtime, using platform threads");
+        }
+    }
+
+    /**
+     * Adds a stage after the previously added stages
+     *
+     * @param threads Number of items processed in parallel. Stages that depend on the previous items must use one
+     *                thread.
+     */
+    ProcessingPipeline<T> addStage(final String name, final int threads, final Step<T> step) {
+        final Stage stage = new Stage(name, threads, step, queueSize);
+        if (!stages.isEmpty()) {
+            stages.get(stages.size() - 1).next = stage;
+        }
+        stages.add(stage);
+        return this;
+    }
+
+    void start() {
+        for (final Stage stage : stages) {
+            final Thread thread = threadFactory("pipeline-" + stage.name).newThread(stage::run);
+            threads.add(thread);
+            thread.start();
+        }
+        log.info("Started processing pipeline with stages {} using {} threads", getStageNames(), virtualThreads ? "virtual" : "platform");
+    }
+
+    /**
+     * Adds the item to the first stage, waiting if the stage is full
+     */
+    void submit(final T item) throws InterruptedException {
+        inFlight.incrementAndGet();
+        try {
+            stages.get(0).enqueue(item);
+        } catch (final InterruptedException e) {
+            completed();
+            throw e;
+        }
+    }
+
+    private void completed() {
+        if (inFlight.decrementAndGet() == 0) {
+            synchronized (inFlight) {
+                inFlight.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits until all submitted items have passed all stages or failed
+     */
+    void awaitIdle() throws InterruptedException {
+        synchronized (inFlight) {
+            while (inFlight.get() > 0) {
+                inFlight.wait();
+            }
+        }
+    }
+
+    int getQueueDepth(final String stageName) {
+        for (final Stage stage : stages) {
+            if (stage.name.equals(stageName)) {
+                return stage.queue.size();
+            }
+        }
+        throw new IllegalArgumentException("No stage " + stageName);
+    }
+
+    List<String> getStageNames() {
+        final List<String> names = new ArrayList<>();
+        stages.forEach(stage -> names.add(stage.name));
+        return names;
+    }
+
+    void close() {
+        threads.forEach(Thread::interrupt);
+        stages.stream().filter(stage -> stage.workers != null).forEach(stage -> stage.workers.shutdownNow());
+    }
+
+    private ThreadFactory threadFactory(final String name) {
+        if (virtualThreads) {
+            try {
+                //Thread.ofVirtual() is available from Java 21
+                final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                final Object builder = builderClass.getMethod("name", String.class, long.class)
+                        .invoke(Thread.class.getMethod("ofVirtual").invoke(null), name + "-", 0L);
+                return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            } catch (final ReflectiveOperationException e) {
+                log.warn("Failed to create virtual thread factory, using platform threads", e);
+            }
+        }
+        final AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, name + "-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static boolean isVirtualThreadSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (final NoSuchMethodException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package fi.hsl.transitdata.alert;
+
+import org.apache.pulsar.client.api.Producer;
+import org.apache.pulsar.client.api.PulsarClientException;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Creates producers for the optional output topics in addition to the main producer created by transitdata-common
+ */
+interface ProducerFactory {
+    Producer<byte[]> createProducer(String topic) throws PulsarClientException;
+
+    /**
+     * Creates a producer that sends messages in batches, for topics where many messages are sent at once
+     */
+    default Producer<byte[]> createBatchingProducer(String topic) throws PulsarClientException {
+        return createProducer(topic);
+    }
+
+    /**
+     * Creates a producer that waits until no other producer is connected to the topic, used for leader election
+     *
+     * @return Future that completes when this producer has exclusive access to the topic
+     */
+    CompletableFuture<Producer<byte[]>> createExclusiveProducerAsync(String topic);
+
+    /**
+     * Reads the keys that currently have a value in a compacted topic, used for publishing tombstones for alerts that
+     * were removed while no instance was publishing
+     */
+    default Set<String> readCompactedKeys(String topic) throws IOException {
+        return Collections.emptySet();
+    }
+}
@@ -0,0 +1,181 @@
+package fi.hsl.transitdata.alert;
+
+import com.typesafe.config.Config;
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import org.apache.pulsar.client.api.PulsarClientException;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives recorded service alert messages through {@link AlertHandler} using {@link InProcessPulsar}, so that the
+ * performance of the conversion and publishing can be measured without a Pulsar cluster. The same handler is used
+ * for all replays, so caches stay warm between them.
+ */
+class ReplayDriver {
+    static class Report {
+        final int messages;
+        final long bulletins;
+        final long durationNs;
+        //Time from receiving each message until it was acknowledged, sorted
+        final long[] latenciesNs;
+        final long allocatedBytes;
+        final long sentMessages;
+        final long sentBytes;
+        final long failedMessages;
+
+        Report(final int messages, final long bulletins, final long durationNs, final long[] latenciesNs,
+               final long allocatedBytes, final long sentMessages, final long sentBytes, final long failedMessages) {
+            this.messages = messages;
+            this.bulletins = bulletins;
+            this.durationNs = durationNs;
+            this.latenciesNs = latenciesNs;
+            this.allocatedBytes = allocatedBytes;
+            this.sentMessages = sentMessages;
+            this.sentBytes = sentBytes;
+            this.failedMessages = failedMessages;
+        }
+
+        double getMessagesPerSecond() {
+            return messages / (durationNs / 1e9);
+        }
+
+        double getBulletinsPerSecond() {
+            return bulletins / (durationNs / 1e9);
+        }
+
+        /**
+         * @return Latency in nanoseconds at the given percentile (0-100) or 0 if no message was acknowledged
+         */
+        long getLatencyPercentileNs(final double percentile) {
+            if (latenciesNs.length == 0) {
+                return 0;
+            }
+            final int index = (int) Math.ceil(percentile / 100 * latenciesNs.length) - 1;
+            return latenciesNs[Math.max(0, Math.min(index, latenciesNs.length - 1))];
+        }
+
+        /**
+         * @return Bytes allocated by all threads per message, or -1 if allocation cannot be measured on this JVM
+         */
+        long getAllocatedBytesPerMessage() {
+            return allocatedBytes < 0 || messages == 0 ? -1 : allocatedBytes / messages;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Replayed %d messages with %d bulletins in %.3f s: %.1f messages/s, %.1f bulletins/s, latency p50 %.3f ms, p99 %.3f ms, max %.3f ms, %d bytes allocated per message, %d messages sent with %d bytes, %d messages failed",
+                    messages, bulletins, durationNs / 1e9, getMessagesPerSecond(), getBulletinsPerSecond(),
+                    getLatencyPercentileNs(50) / 1e6, getLatencyPercentileNs(99) / 1e6, getLatencyPercentileNs(100) / 1e6,
+                    getAllocatedBytesPerMessage(), sentMessages, sentBytes, failedMessages);
+        }
+    }
+
+    private final List<Long> latenciesNs = new ArrayList<>();
+    private final InProcessPulsar pulsar = new InProcessPulsar(this::acknowledged);
+    private final AlertHandler handler;
+
+    ReplayDriver(final Config config) throws PulsarClientException {
+        handler = new AlertHandler(config, pulsar.getConsumer(), pulsar.createProducer("gtfs-service-alerts"), pulsar);
+    }
+
+    AlertHandler getHandler() {
+        return handler;
+    }
+
+    private void acknowledged(final long receivedNs) {
+        final long latencyNs = System.nanoTime() - receivedNs;
+        synchronized (latenciesNs) {
+            latenciesNs.add(latencyNs);
+        }
+    }
+
+    /**
+     * @param recordedSpeed If true, messages are received at the same intervals as they were recorded. Otherwise the
+     *                      next message is received as soon as the previous one has been handled.
+     */
+    Report replay(final List<ReplayRecording.RecordedMessage> messages, final boolean recordedSpeed) throws InterruptedException {
+        synchronized (latenciesNs) {
+            latenciesNs.clear();
+        }
+        long bulletins = 0;
+        for (final ReplayRecording.RecordedMessage message : messages) {
+            bulletins += countBulletins(message.data);
+        }
+        final long sentBefore = pulsar.getSentMessageCount();
+        final long sentBytesBefore = pulsar.getSentBytes();
+        final long failedBefore = pulsar.getNackedMessageCount();
+        final long allocatedBefore = getAllocatedBytes();
+
+        final long startNs = System.nanoTime();
+        final long startMs = System.currentTimeMillis();
+        final long firstEventTimeMs = messages.isEmpty() ? 0 : messages.get(0).eventTimeMs;
+        int next = 0;
+        while (next < messages.size() || !pulsar.isEmpty()) {
+            if (recordedSpeed) {
+                //Messages that have arrived while the previous one was handled are queued, like in Pulsar
+                while (next < messages.size() && dueNs(messages.get(next), firstEventTimeMs, startNs) <= System.nanoTime()) {
+                    pulsar.receive(messages.get(next).data, startMs + messages.get(next).eventTimeMs - firstEventTimeMs);
+                    next++;
+                }
+                if (pulsar.isEmpty()) {
+                    TimeUnit.NANOSECONDS.sleep(dueNs(messages.get(next), firstEventTimeMs, startNs) - System.nanoTime());
+                    continue;
+                }
+            } else if (pulsar.isEmpty()) {
+                pulsar.receive(messages.get(next).data, System.currentTimeMillis());
+                next++;
+            }
+            handler.handleMessage(pulsar.poll());
+        }
+        handler.awaitPendingMessages();
+        final long durationNs = System.nanoTime() - startNs;
+
+        final long allocatedAfter = getAllocatedBytes();
+        final long[] latencies;
+        synchronized (latenciesNs) {
+            latencies = latenciesNs.stream().mapToLong(Long::longValue).toArray();
+        }
+        Arrays.sort(latencies);
+        return new Report(messages.size(), bulletins, durationNs, latencies,
+                allocatedBefore < 0 || allocatedAfter < 0 ? -1 : allocatedAfter - allocatedBefore,
+                pulsar.getSentMessageCount() - sentBefore, pulsar.getSentBytes() - sentBytesBefore,
+                pulsar.getNackedMessageCount() - failedBefore);
+    }
+
+    private static long dueNs(final ReplayRecording.RecordedMessage message, final long firstEventTimeMs, final long startNs) {
+        return startNs + TimeUnit.MILLISECONDS.toNanos(message.eventTimeMs - firstEventTimeMs);
+    }
+
+    private static int countBulletins(final byte[] data) {
+        try {
+            return InternalMessages.ServiceAlert.parseFrom(data).getBulletinsCount();
+        } catch (final Exception e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return Bytes allocated by all live threads, or -1 if not supported. Threads that have ended are not included,
+     * but the threads used by the handler live as long as the handler.
+     */
+    private static long getAllocatedBytes() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        long allocated = 0;
+        for (final long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (bytes > 0) {
+                allocated += bytes;
+            }
+        }
+        return allocated;
+    }
+}
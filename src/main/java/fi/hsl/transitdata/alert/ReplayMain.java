@@ -0,0 +1,85 @@
+package fi.hsl.transitdata.alert;
+
+import com.typesafe.config.Config;
+import fi.hsl.common.config.ConfigParser;
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Replays recorded service alert messages without Pulsar for load testing and capacity planning. The handler is
+ * configured from environment variables like in {@link Main}.
+ *
+ * <p>Usage:</p>
+ * <ul>
+ *     <li><code>replay &lt;recording&gt; [--speed=recorded|max] [--iterations=1]</code> replays the messages of a
+ *     recording (see {@link ReplayRecording}) and reports throughput, latency and allocation of each iteration</li>
+ *     <li><code>generate &lt;output&gt; [--sample=alert.pb] [--scale=1] [--bulletins=100] [--messages=100]
+ *     [--interval=10000] [--changes=1]</code> writes a recording of snapshots created by repeating the bulletins of
+ *     the sample, or generated bulletins if there is no sample. Each message modifies a few bulletins of the
+ *     snapshot and messages are recorded at the given interval in milliseconds.</li>
+ * </ul>
+ */
+public class ReplayMain {
+    private static final Logger log = LoggerFactory.getLogger(ReplayMain.class);
+
+    public static void main(String[] args) throws Exception {
+        final List<String> arguments = new ArrayList<>();
+        final Map<String, String> options = new HashMap<>();
+        for (final String arg : args) {
+            if (arg.startsWith("--") && arg.contains("=")) {
+                options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+            } else {
+                arguments.add(arg);
+            }
+        }
+
+        if (arguments.size() == 2 && "replay".equals(arguments.get(0))) {
+            replay(Paths.get(arguments.get(1)), !"max".equals(options.getOrDefault("speed", "recorded")),
+                    Integer.parseInt(options.getOrDefault("iterations", "1")));
+        } else if (arguments.size() == 2 && "generate".equals(arguments.get(0))) {
+            generate(Paths.get(arguments.get(1)), options);
+        } else {
+            System.err.println("Usage: ReplayMain replay <recording> [--speed=recorded|max] [--iterations=1]");
+            System.err.println("       ReplayMain generate <output> [--sample=alert.pb] [--scale=1] [--bulletins=100] [--messages=100] [--interval=10000] [--changes=1]");
+            System.exit(1);
+        }
+    }
+
+    private static void replay(final Path path, final boolean recordedSpeed, final int iterations) throws Exception {
+        final List<ReplayRecording.RecordedMessage> messages = ReplayRecording.read(path);
+        log.info("Replaying {} messages from {} {} times at {} speed", messages.size(), path, iterations, recordedSpeed ? "recorded" : "max");
+
+        final Config config = ConfigParser.createConfig();
+        final ReplayDriver driver = new ReplayDriver(config);
+        for (int i = 1; i <= iterations; i++) {
+            final ReplayDriver.Report report = driver.replay(messages, recordedSpeed);
+            log.info("Iteration {}: {}", i, report);
+        }
+    }
+
+    private static void generate(final Path output, final Map<String, String> options) throws Exception {
+        final InternalMessages.ServiceAlert sample = options.containsKey("sample")
+                ? InternalMessages.ServiceAlert.parseFrom(Files.readAllBytes(Paths.get(options.get("sample"))))
+                : new ServiceAlertGenerator(Integer.parseInt(options.getOrDefault("bulletins", "100")), 5, 20, 3).generate(42);
+        final InternalMessages.ServiceAlert snapshot = ServiceAlertGenerator.scale(sample, Integer.parseInt(options.getOrDefault("scale", "1")));
+        final int messageCount = Integer.parseInt(options.getOrDefault("messages", "100"));
+        final long intervalMs = Long.parseLong(options.getOrDefault("interval", "10000"));
+        final int changes = Integer.parseInt(options.getOrDefault("changes", "1"));
+
+        final long startMs = System.currentTimeMillis();
+        final List<ReplayRecording.RecordedMessage> messages = new ArrayList<>(messageCount);
+        for (int i = 0; i < messageCount; i++) {
+            final long eventTimeMs = startMs + i * intervalMs;
+            final InternalMessages.ServiceAlert modified = i == 0 ? snapshot : ServiceAlertGenerator.modify(snapshot, i * changes, changes, eventTimeMs);
+            messages.add(new ReplayRecording.RecordedMessage(eventTimeMs, modified.toByteArray()));
+        }
+        ReplayRecording.write(output, messages);
+        log.info("Wrote {} messages with {} bulletins each to {}", messageCount, snapshot.getBulletinsCount(), output);
+    }
+}
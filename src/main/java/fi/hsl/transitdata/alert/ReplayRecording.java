@@ -0,0 +1,98 @@
+package fi.hsl.transitdata.alert;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Recorded service alert messages that can be replayed with {@link ReplayMain}. A recording is either
+ * <ul>
+ *     <li>a file containing the messages one after another, each as event time in milliseconds (8 bytes), length of
+ *     the payload (4 bytes) and the serialized service alert, or</li>
+ *     <li>a directory containing one serialized service alert per file, like <code>src/test/resources/alert.pb</code>.
+ *     Files are replayed in the order of their names. If the name of the file (without extension) is a number, it is
+ *     used as the event time in milliseconds, otherwise the modification time of the file is used.</li>
+ * </ul>
+ */
+class ReplayRecording {
+    static class RecordedMessage {
+        final long eventTimeMs;
+        final byte[] data;
+
+        RecordedMessage(final long eventTimeMs, final byte[] data) {
+            this.eventTimeMs = eventTimeMs;
+            this.data = data;
+        }
+    }
+
+    private ReplayRecording() {}
+
+    static List<RecordedMessage> read(final Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            return readDirectory(path);
+        }
+
+        final List<RecordedMessage> messages = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            while (true) {
+                final long eventTimeMs;
+                try {
+                    eventTimeMs = in.readLong();
+                } catch (final EOFException e) {
+                    break;
+                }
+                final int length = in.readInt();
+                if (length < 0) {
+                    throw new IOException("Invalid message length " + length + " in " + path);
+                }
+                final byte[] data = new byte[length];
+                in.readFully(data);
+                messages.add(new RecordedMessage(eventTimeMs, data));
+            }
+        }
+        return messages;
+    }
+
+    private static List<RecordedMessage> readDirectory(final Path directory) throws IOException {
+        final List<Path> files;
+        try (Stream<Path> stream = Files.list(directory)) {
+            files = stream.filter(Files::isRegularFile)
+                    .sorted(Comparator.comparing(file -> file.getFileName().toString()))
+                    .collect(Collectors.toList());
+        }
+
+        final List<RecordedMessage> messages = new ArrayList<>(files.size());
+        for (final Path file : files) {
+            messages.add(new RecordedMessage(eventTime(file), Files.readAllBytes(file)));
+        }
+        return messages;
+    }
+
+    private static long eventTime(final Path file) throws IOException {
+        final String name = file.getFileName().toString();
+        final int extension = name.indexOf('.');
+        try {
+            return Long.parseLong(extension < 0 ? name : name.substring(0, extension));
+        } catch (final NumberFormatException e) {
+            return Files.getLastModifiedTime(file).toMillis();
+        }
+    }
+
+    /**
+     * Writes the messages to a file in the format read by {@link #read(Path)}
+     */
+    static void write(final Path path, final List<RecordedMessage> messages) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            for (final RecordedMessage message : messages) {
+                out.writeLong(message.eventTimeMs);
+                out.writeInt(message.data.length);
+                out.write(message.data);
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package fi.hsl.transitdata.alert;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.transit.realtime.GtfsRealtime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Removes redundant entity selectors from alerts to bound the size of the feed. Bulletins affecting the whole network
+ * can list thousands of routes and stops, although the agency selector already covers all of them. Compaction never
+ * widens the scope of an alert: alerts without the agency selector are only truncated, because replacing their
+ * selectors with the agency selector would turn a local disruption into one affecting the whole network.
+ *
+ * <p>Not thread-safe, snapshots must be compacted in one thread.</p>
+ */
+class SelectorCompactor {
+    private static final Logger log = LoggerFactory.getLogger(SelectorCompactor.class);
+
+    private static class CompactedEntity {
+        final GtfsRealtime.FeedEntity original;
+        final GtfsRealtime.FeedEntity compacted;
+        final long savedBytes;
+
+        CompactedEntity(final GtfsRealtime.FeedEntity original, final GtfsRealtime.FeedEntity compacted, final long savedBytes) {
+            this.original = original;
+            this.compacted = compacted;
+            this.savedBytes = savedBytes;
+        }
+    }
+
+    private final boolean dropCoveredByAgency;
+    private final int maxSelectors;
+
+    //Compacted entities of the previous snapshot by bulletin ID, reused when the feed entity cache returns the same entity
+    private Map<String, CompactedEntity> compactedEntities = new HashMap<>();
+
+    private long savedBytes;
+    private final LongAdder compactedBulletins = new LongAdder();
+
+    /**
+     * @param dropCoveredByAgency Whether route and stop selectors are dropped when the agency selector is present
+     * @param maxSelectors Max number of selectors in an alert, alerts with more selectors get only the agency
+     *                     selector if they have it and are truncated otherwise. 0 for no limit.
+     */
+    SelectorCompactor(final boolean dropCoveredByAgency, final int maxSelectors) {
+        this.dropCoveredByAgency = dropCoveredByAgency;
+        this.maxSelectors = maxSelectors;
+    }
+
+    /**
+     * Compacts the informed entities of the alerts of a snapshot. Call {@link #finishSnapshot()} afterwards.
+     *
+     * @return Feed entities with compacted alerts, or the same list if no alert needed compaction
+     */
+    List<GtfsRealtime.FeedEntity> compactEntities(final List<GtfsRealtime.FeedEntity> entities) {
+        final Map<String, CompactedEntity> previous = compactedEntities;
+        compactedEntities = new HashMap<>();
+
+        List<GtfsRealtime.FeedEntity> result = entities;
+        for (int i = 0; i < entities.size(); i++) {
+            final GtfsRealtime.FeedEntity entity = entities.get(i);
+            if (!entity.hasAlert() || !needsCompaction(entity.getAlert().getInformedEntityList())) {
+                continue;
+            }
+
+            CompactedEntity compacted = previous.get(entity.getId());
+            if (compacted != null && compacted.original == entity) {
+                savedBytes += compacted.savedBytes;
+            } else {
+                final long savedBefore = savedBytes;
+                final List<GtfsRealtime.EntitySelector> selectors = compact(entity.getId(), entity.getAlert().getInformedEntityList());
+                final GtfsRealtime.FeedEntity compactedEntity = entity.toBuilder()
+                        .setAlert(entity.getAlert().toBuilder().clearInformedEntity().addAllInformedEntity(selectors))
+                        .build();
+                compacted = new CompactedEntity(entity, compactedEntity, savedBytes - savedBefore);
+            }
+            compactedEntities.put(entity.getId(), compacted);
+
+            if (result == entities) {
+                result = new ArrayList<>(entities);
+            }
+            result.set(i, compacted.compacted);
+        }
+        return result;
+    }
+
+    boolean needsCompaction(final List<GtfsRealtime.EntitySelector> selectors) {
+        if (selectors.size() <= 1) {
+            return false;
+        }
+        if (maxSelectors > 0 && selectors.size() > maxSelectors) {
+            return true;
+        }
+        return dropCoveredByAgency && selectors.stream().anyMatch(SelectorCompactor::isAgencySelector);
+    }
+
+    /**
+     * @param selectors Entity selectors of the bulletin, not modified
+     * @return Compacted entity selectors, or the same list if nothing was removed
+     */
+    List<GtfsRealtime.EntitySelector> compact(final String bulletinId, final List<GtfsRealtime.EntitySelector> selectors) {
+        if (!needsCompaction(selectors)) {
+            return selectors;
+        }
+
+        final List<GtfsRealtime.EntitySelector> compacted;
+        if (selectors.stream().anyMatch(SelectorCompactor::isAgencySelector)) {
+            log.debug("Bulletin {} affects all routes or stops, dropping {} route and stop selectors", bulletinId, selectors.size() - 1);
+            compacted = Collections.singletonList(EntitySelectorPool.AGENCY_SELECTOR);
+        } else {
+            //Routes come before stops, so the routes are kept if possible
+            log.debug("Bulletin {} has {} entity selectors, more than the limit of {}. Dropping the rest of them", bulletinId, selectors.size(), maxSelectors);
+            compacted = new ArrayList<>(selectors.subList(0, maxSelectors));
+        }
+
+        savedBytes += computeSize(selectors) - computeSize(compacted);
+        compactedBulletins.increment();
+        return compacted;
+    }
+
+    private static boolean isAgencySelector(final GtfsRealtime.EntitySelector selector) {
+        return EntitySelectorPool.AGENCY_SELECTOR.equals(selector);
+    }
+
+    private static long computeSize(final List<GtfsRealtime.EntitySelector> selectors) {
+        long size = 0;
+        for (final GtfsRealtime.EntitySelector selector : selectors) {
+            size += CodedOutputStream.computeMessageSize(GtfsRealtime.Alert.INFORMED_ENTITY_FIELD_NUMBER, selector);
+        }
+        return size;
+    }
+
+    /**
+     * @return Number of bytes removed from the alerts of the snapshot
+     */
+    long finishSnapshot() {
+        final long saved = savedBytes;
+        savedBytes = 0;
+        return saved;
+    }
+
+    long getCompactedBulletinCount() {
+        return compactedBulletins.sum();
+    }
+}
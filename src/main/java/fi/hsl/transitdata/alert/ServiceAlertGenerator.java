@@ -0,0 +1,111 @@
+package fi.hsl.transitdata.alert;
+
+import fi.hsl.common.transitdata.proto.InternalMessages;
+
+import java.util.Random;
+
+/**
+ * Generates synthetic service alert snapshots of configurable size for benchmarks and load tests
+ */
+public class ServiceAlertGenerator {
+    private static final int STOP_COUNT = 10_000;
+
+    private static final String[] LANGUAGES = { "fi", "sv", "en" };
+
+    private final int bulletinCount;
+    private final int routesPerBulletin;
+    private final int stopsPerBulletin;
+    private final int translationCount;
+
+    public ServiceAlertGenerator(final int bulletinCount, final int routesPerBulletin, final int stopsPerBulletin, final int translationCount) {
+        this.bulletinCount = bulletinCount;
+        this.routesPerBulletin = routesPerBulletin;
+        this.stopsPerBulletin = stopsPerBulletin;
+        this.translationCount = translationCount;
+    }
+
+    public InternalMessages.ServiceAlert generate(final long seed) {
+        final Random random = new Random(seed);
+        final InternalMessages.ServiceAlert.Builder builder = InternalMessages.ServiceAlert.newBuilder();
+        for (int i = 0; i < bulletinCount; i++) {
+            builder.addBulletins(generateBulletin(random, i));
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return Snapshot containing the bulletins of the sample the given number of times, with unique bulletin IDs
+     */
+    public static InternalMessages.ServiceAlert scale(final InternalMessages.ServiceAlert sample, final int factor) {
+        final InternalMessages.ServiceAlert.Builder builder = InternalMessages.ServiceAlert.newBuilder(sample).clearBulletins();
+        for (int copy = 0; copy < factor; copy++) {
+            for (final InternalMessages.Bulletin bulletin : sample.getBulletinsList()) {
+                builder.addBulletins(copy == 0 ? bulletin : bulletin.toBuilder().setBulletinId(bulletin.getBulletinId() + "-" + copy).build());
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Simulates editing bulletins between two snapshots by extending their validity
+     *
+     * @param first Index of the first modified bulletin, continuing from the beginning if there are not enough bulletins
+     * @param count Number of modified bulletins
+     * @return Copy of the snapshot with the bulletins modified at the given time
+     */
+    public static InternalMessages.ServiceAlert modify(final InternalMessages.ServiceAlert snapshot, final int first, final int count, final long modifiedMs) {
+        final InternalMessages.ServiceAlert.Builder builder = snapshot.toBuilder();
+        for (int i = 0; i < Math.min(count, builder.getBulletinsCount()); i++) {
+            final int index = (first + i) % builder.getBulletinsCount();
+            final InternalMessages.Bulletin bulletin = builder.getBulletins(index);
+            builder.setBulletins(index, bulletin.toBuilder()
+                    .setLastModifiedUtcMs(modifiedMs)
+                    .setValidToUtcMs(Math.max(bulletin.getValidToUtcMs(), modifiedMs) + 3_600_000L));
+        }
+        return builder.build();
+    }
+
+    private InternalMessages.Bulletin generateBulletin(final Random random, final int index) {
+        final InternalMessages.Category[] categories = InternalMessages.Category.values();
+        final InternalMessages.Bulletin.Impact[] impacts = InternalMessages.Bulletin.Impact.values();
+        final InternalMessages.Bulletin.Priority[] priorities = InternalMessages.Bulletin.Priority.values();
+
+        final long validFromMs = 1_600_000_000_000L + random.nextInt(1_000_000) * 1000L;
+        final InternalMessages.Bulletin.Builder builder = InternalMessages.Bulletin.newBuilder()
+                .setBulletinId(Integer.toString(10000 + index))
+                .setCategory(categories[random.nextInt(categories.length)])
+                .setImpact(impacts[random.nextInt(impacts.length)])
+                .setPriority(priorities[random.nextInt(priorities.length)])
+                .setLastModifiedUtcMs(validFromMs)
+                .setValidFromUtcMs(validFromMs)
+                .setValidToUtcMs(validFromMs + random.nextInt(100_000) * 1000L)
+                .setAffectsAllRoutes(false)
+                .setAffectsAllStops(false);
+
+        for (int i = 0; i < routesPerBulletin; i++) {
+            //Some of the routes have a variant suffix that is removed by normalization
+            final int routeId = 1000 + random.nextInt(9000);
+            final String entityId = random.nextInt(4) == 0 ? routeId + " " + (1 + random.nextInt(9)) : Integer.toString(routeId);
+            builder.addAffectedRoutes(InternalMessages.Bulletin.AffectedEntity.newBuilder().setEntityId(entityId));
+        }
+        for (int i = 0; i < stopsPerBulletin; i++) {
+            //About as many stops as there are in the HSL area
+            final String stopId = Integer.toString(1_000_000 + random.nextInt(STOP_COUNT));
+            builder.addAffectedStops(InternalMessages.Bulletin.AffectedEntity.newBuilder().setEntityId(stopId));
+        }
+        for (int i = 0; i < translationCount; i++) {
+            final String language = i < LANGUAGES.length ? LANGUAGES[i] : "x" + i;
+            builder.addTitles(translation(language, "Bulletin " + index + " title in " + language));
+            builder.addDescriptions(translation(language, "Bulletin " + index + " describes a disruption affecting " + routesPerBulletin + " routes and " + stopsPerBulletin + " stops in " + language));
+            builder.addUrls(translation(language, "https://www.hsl.fi/" + language));
+        }
+        return builder.build();
+    }
+
+    private static InternalMessages.Bulletin.Translation translation(final String language, final String text) {
+        return InternalMessages.Bulletin.Translation.newBuilder()
+                .setLanguage(language)
+                .setText(text)
+                .build();
+    }
+}
@@ -0,0 +1,90 @@
+package fi.hsl.transitdata.alert;
+
+import fi.hsl.common.transitdata.TransitdataProperties;
+import fi.hsl.common.transitdata.TransitdataSchema;
+import org.apache.pulsar.client.api.Consumer;
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.MessageId;
+import org.apache.pulsar.client.api.PulsarClientException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Each service alert message contains all bulletins, so when messages have queued up (e.g. after a restart), only the
+ * newest one needs to be handled. This class drains the messages that the consumer has already received and picks
+ * the one with the newest event time.
+ */
+class SnapshotConflator {
+    private static final Logger log = LoggerFactory.getLogger(SnapshotConflator.class);
+
+    static class ConflatedSnapshot {
+        final Message<byte[]> latest;
+        final List<MessageId> messageIds;
+
+        ConflatedSnapshot(final Message<byte[]> latest, final List<MessageId> messageIds) {
+            this.latest = latest;
+            this.messageIds = messageIds;
+        }
+    }
+
+    private final Consumer<byte[]> consumer;
+    private final int maxMessages;
+
+    private final LongAdder conflatedSnapshots = new LongAdder();
+
+    SnapshotConflator(final Consumer<byte[]> consumer, final int maxMessages) {
+        this.consumer = consumer;
+        this.maxMessages = maxMessages;
+    }
+
+    /**
+     * @return The newest snapshot and IDs of all messages that it supersedes, including itself
+     */
+    ConflatedSnapshot conflate(final Message<byte[]> received) {
+        final List<MessageId> messageIds = new ArrayList<>();
+        messageIds.add(received.getMessageId());
+
+        Message<byte[]> latest = received;
+        while (messageIds.size() < maxMessages) {
+            final Message<byte[]> queued = receiveQueued();
+            if (queued == null) {
+                break;
+            }
+            messageIds.add(queued.getMessageId());
+            if (isServiceAlert(queued) && (!isServiceAlert(latest) || queued.getEventTime() >= latest.getEventTime())) {
+                latest = queued;
+            }
+        }
+
+        if (messageIds.size() > 1) {
+            conflatedSnapshots.add(messageIds.size() - 1);
+            log.info("Skipping {} superseded service alert messages, handling only the one with timestamp {}", messageIds.size() - 1, latest.getEventTime());
+        }
+        return new ConflatedSnapshot(latest, messageIds);
+    }
+
+    /**
+     * @return Message that has already been received by the consumer or null if there is none
+     */
+    private Message<byte[]> receiveQueued() {
+        try {
+            return consumer.receive(0, TimeUnit.MILLISECONDS);
+        } catch (final PulsarClientException e) {
+            log.warn("Failed to receive queued messages", e);
+            return null;
+        }
+    }
+
+    private static boolean isServiceAlert(final Message<byte[]> message) {
+        return TransitdataSchema.hasProtobufSchema(message, TransitdataProperties.ProtobufSchema.TransitdataServiceAlert);
+    }
+
+    long getConflatedSnapshotCount() {
+        return conflatedSnapshots.sum();
+    }
+}
@@ -0,0 +1,256 @@
+package fi.hsl.transitdata.alert;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.ExtensionRegistryLite;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.WireFormat;
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hard limits for service alert messages, so that one malformed or pathological message cannot fill the heap. The
+ * limits are checked while reading the serialized message: bulletins over the limits are skipped without parsing
+ * them, affected routes and stops after the limit are skipped without parsing them and texts are sliced from the
+ * message and truncated before they are added to the bulletin.
+ *
+ * <p>Thread-safe.</p>
+ */
+class SnapshotLimits {
+    private static final Logger log = LoggerFactory.getLogger(SnapshotLimits.class);
+
+    private static final int BULLETINS_TAG = InternalMessages.ServiceAlert.BULLETINS_FIELD_NUMBER << 3 | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+    private static final int AFFECTED_ROUTES_TAG = InternalMessages.Bulletin.AFFECTED_ROUTES_FIELD_NUMBER << 3 | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+    private static final int AFFECTED_STOPS_TAG = InternalMessages.Bulletin.AFFECTED_STOPS_FIELD_NUMBER << 3 | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+    private static final int TITLES_TAG = InternalMessages.Bulletin.TITLES_FIELD_NUMBER << 3 | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+    private static final int DESCRIPTIONS_TAG = InternalMessages.Bulletin.DESCRIPTIONS_FIELD_NUMBER << 3 | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+    private static final int URLS_TAG = InternalMessages.Bulletin.URLS_FIELD_NUMBER << 3 | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+    private static final int TEXT_TAG = InternalMessages.Bulletin.Translation.TEXT_FIELD_NUMBER << 3 | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+    private static final int LANGUAGE_TAG = InternalMessages.Bulletin.Translation.LANGUAGE_FIELD_NUMBER << 3 | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+
+    final int maxMessageSize;
+    final int maxBulletins;
+    final int maxBulletinSize;
+    final int maxSelectorsPerBulletin;
+    final int maxTextLength;
+
+    final LongAdder rejectedMessages = new LongAdder();
+    final LongAdder droppedTooManyBulletins = new LongAdder();
+    final LongAdder droppedTooLargeBulletins = new LongAdder();
+    final LongAdder truncatedSelectors = new LongAdder();
+    final LongAdder truncatedTexts = new LongAdder();
+
+    /**
+     * @param maxMessageSize Messages larger than this (in bytes) are rejected
+     * @param maxBulletins Bulletins after this many are dropped
+     * @param maxBulletinSize Bulletins larger than this (in bytes) are dropped
+     * @param maxSelectorsPerBulletin Affected routes and stops after this many are left out of the bulletin
+     * @param maxTextLength Texts longer than this (in UTF-8 bytes) are truncated
+     */
+    SnapshotLimits(final int maxMessageSize, final int maxBulletins, final int maxBulletinSize, final int maxSelectorsPerBulletin, final int maxTextLength) {
+        this.maxMessageSize = maxMessageSize;
+        this.maxBulletins = maxBulletins;
+        this.maxBulletinSize = maxBulletinSize;
+        this.maxSelectorsPerBulletin = maxSelectorsPerBulletin;
+        this.maxTextLength = maxTextLength;
+    }
+
+    void checkMessageSize(final int size) throws InvalidProtocolBufferException {
+        if (size > maxMessageSize) {
+            rejectedMessages.increment();
+            throw new InvalidProtocolBufferException("Service alert of " + size + " bytes is larger than the limit of " + maxMessageSize + " bytes");
+        }
+    }
+
+    /**
+     * @param acceptedBulletins Number of bulletins accepted from the message so far
+     * @param size Serialized size of the bulletin
+     * @return True if the bulletin can be parsed, false if it must be skipped
+     */
+    boolean acceptBulletin(final int acceptedBulletins, final int size) {
+        if (acceptedBulletins >= maxBulletins) {
+            droppedTooManyBulletins.increment();
+            return false;
+        }
+        if (size > maxBulletinSize) {
+            droppedTooLargeBulletins.increment();
+            return false;
+        }
+        return true;
+    }
+
+    void logDroppedBulletins(final int acceptedBulletins, final int droppedBulletins) {
+        if (droppedBulletins > 0) {
+            log.warn("Dropped {} bulletins over the limits of {} bulletins and {} bytes per bulletin, {} bulletins accepted", droppedBulletins, maxBulletins, maxBulletinSize, acceptedBulletins);
+        }
+    }
+
+    void onBulletinTruncated(final String bulletinId, final boolean tooManySelectors, final boolean tooLongTexts) {
+        if (tooManySelectors) {
+            truncatedSelectors.increment();
+            log.warn("Bulletin {} affects more than {} routes and stops, the rest are left out", bulletinId, maxSelectorsPerBulletin);
+        }
+        if (tooLongTexts) {
+            truncatedTexts.increment();
+            log.warn("Bulletin {} has texts longer than {} bytes, they are truncated", bulletinId, maxTextLength);
+        }
+    }
+
+    /**
+     * Truncates the UTF-8 encoded text to the limit without splitting a character
+     */
+    ByteString truncateText(final ByteString text) {
+        if (text.size() <= maxTextLength) {
+            return text;
+        }
+        int end = maxTextLength;
+        //Continuation bytes belong to the character that would be split, so it is left out entirely
+        while (end > 0 && (text.byteAt(end) & 0xC0) == 0x80) {
+            end--;
+        }
+        return text.substring(0, end);
+    }
+
+    /**
+     * Same as {@link InternalMessages.ServiceAlert#parseFrom(byte[])}, but only the bulletins within the limits are
+     * parsed and affected routes and stops and texts over the limits are left out while reading the bulletins
+     */
+    InternalMessages.ServiceAlert parse(final byte[] data) throws IOException {
+        checkMessageSize(data.length);
+
+        final InternalMessages.ServiceAlert.Builder builder = InternalMessages.ServiceAlert.newBuilder();
+        final CodedInputStream input = CodedInputStream.newInstance(data);
+        //Texts are sliced from the message, so that long texts are not copied before truncating them
+        input.enableAliasing(true);
+        final FieldCopier otherFields = new FieldCopier(data);
+        int droppedBulletins = 0;
+        while (true) {
+            final int fieldStart = input.getTotalBytesRead();
+            final int tag = input.readTag();
+            if (tag == 0) {
+                otherFields.copyTo(builder, fieldStart);
+                break;
+            }
+            if (tag == BULLETINS_TAG) {
+                otherFields.copyTo(builder, fieldStart);
+                final int size = input.readRawVarint32();
+                if (!acceptBulletin(builder.getBulletinsCount(), size)) {
+                    input.skipRawBytes(size);
+                    droppedBulletins++;
+                    continue;
+                }
+                final int limit = input.pushLimit(size);
+                builder.addBulletins(readBulletin(input, otherFields));
+                input.popLimit(limit);
+            } else if (input.skipField(tag)) {
+                otherFields.add(fieldStart);
+            } else {
+                otherFields.copyTo(builder, fieldStart);
+                break;
+            }
+        }
+        logDroppedBulletins(builder.getBulletinsCount(), droppedBulletins);
+
+        return builder.build();
+    }
+
+    /**
+     * Reads the bulletin leaving out affected routes and stops after the limit without parsing them and truncating
+     * texts over the limit
+     */
+    private InternalMessages.Bulletin readBulletin(final CodedInputStream input, final FieldCopier otherFields) throws IOException {
+        final InternalMessages.Bulletin.Builder builder = InternalMessages.Bulletin.newBuilder();
+        boolean tooManySelectors = false;
+        boolean tooLongTexts = false;
+        while (true) {
+            final int fieldStart = input.getTotalBytesRead();
+            final int tag = input.readTag();
+            if (tag == 0) {
+                otherFields.copyTo(builder, fieldStart);
+                break;
+            }
+            if (tag == AFFECTED_ROUTES_TAG || tag == AFFECTED_STOPS_TAG) {
+                otherFields.copyTo(builder, fieldStart);
+                if (builder.getAffectedRoutesCount() + builder.getAffectedStopsCount() >= maxSelectorsPerBulletin) {
+                    tooManySelectors = true;
+                    input.skipField(tag);
+                } else if (tag == AFFECTED_ROUTES_TAG) {
+                    builder.addAffectedRoutes(input.readMessage(InternalMessages.Bulletin.AffectedEntity.parser(), ExtensionRegistryLite.getEmptyRegistry()));
+                } else {
+                    builder.addAffectedStops(input.readMessage(InternalMessages.Bulletin.AffectedEntity.parser(), ExtensionRegistryLite.getEmptyRegistry()));
+                }
+            } else if (tag == TITLES_TAG || tag == DESCRIPTIONS_TAG || tag == URLS_TAG) {
+                otherFields.copyTo(builder, fieldStart);
+                final InternalMessages.Bulletin.Translation.Builder translation = readTranslation(input);
+                if (translation.getTextBytes().size() > maxTextLength) {
+                    tooLongTexts = true;
+                    translation.setTextBytes(truncateText(translation.getTextBytes()));
+                }
+                if (tag == TITLES_TAG) {
+                    builder.addTitles(translation);
+                } else if (tag == DESCRIPTIONS_TAG) {
+                    builder.addDescriptions(translation);
+                } else {
+                    builder.addUrls(translation);
+                }
+            } else if (input.skipField(tag)) {
+                otherFields.add(fieldStart);
+            } else {
+                otherFields.copyTo(builder, fieldStart);
+                break;
+            }
+        }
+        if (tooManySelectors || tooLongTexts) {
+            onBulletinTruncated(builder.getBulletinId(), tooManySelectors, tooLongTexts);
+        }
+        return builder.build();
+    }
+
+    private static InternalMessages.Bulletin.Translation.Builder readTranslation(final CodedInputStream input) throws IOException {
+        final InternalMessages.Bulletin.Translation.Builder translation = InternalMessages.Bulletin.Translation.newBuilder();
+        final int limit = input.pushLimit(input.readRawVarint32());
+        int tag;
+        while ((tag = input.readTag()) != 0) {
+            if (tag == TEXT_TAG) {
+                translation.setTextBytes(input.readBytes());
+            } else if (tag == LANGUAGE_TAG) {
+                translation.setLanguageBytes(input.readBytes());
+            } else if (!input.skipField(tag)) {
+                break;
+            }
+        }
+        input.popLimit(limit);
+        return translation;
+    }
+
+    /**
+     * Copies consecutive fields that are not read separately from the serialized message to the builder at once
+     */
+    private static class FieldCopier {
+        private final byte[] data;
+        //Start of the fields not copied yet, or -1 if there are none
+        private int start = -1;
+
+        FieldCopier(final byte[] data) {
+            this.data = data;
+        }
+
+        void add(final int fieldStart) {
+            if (start < 0) {
+                start = fieldStart;
+            }
+        }
+
+        void copyTo(final MessageLite.Builder builder, final int end) throws InvalidProtocolBufferException {
+            if (start >= 0) {
+                builder.mergeFrom(data, start, end - start);
+                start = -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package fi.hsl.transitdata.alert;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+
+/**
+ * Saves the latest service alert snapshot and the feed published from it to a file, so that they can be restored
+ * after a restart. The file is replaced atomically, so a crash during saving leaves the previous state intact.
+ *
+ * <p>File format: magic number, version, timestamp, message ID, service alert and feed message as length-prefixed
+ * byte arrays and CRC32 of the preceding bytes.</p>
+ */
+class SnapshotStateStore {
+    private static final Logger log = LoggerFactory.getLogger(SnapshotStateStore.class);
+
+    private static final int MAGIC = 0x54415053;
+    private static final int VERSION = 1;
+
+    static class SnapshotState {
+        final long timestampMs;
+        final String messageId;
+        final byte[] serviceAlert;
+        final byte[] feedMessage;
+
+        /**
+         * @param timestampMs Event time of the snapshot
+         * @param messageId ID of the published feed message
+         * @param serviceAlert Serialized service alert snapshot
+         * @param feedMessage Serialized feed message published from the snapshot
+         */
+        SnapshotState(final long timestampMs, final String messageId, final byte[] serviceAlert, final byte[] feedMessage) {
+            this.timestampMs = timestampMs;
+            this.messageId = messageId;
+            this.serviceAlert = serviceAlert;
+            this.feedMessage = feedMessage;
+        }
+    }
+
+    private final Path path;
+    private final Path tempPath;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "snapshot-state-store");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicReference<SnapshotState> pendingState = new AtomicReference<>();
+
+    SnapshotStateStore(final Path path) {
+        this.path = path;
+        this.tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+    }
+
+    /**
+     * Saves the state in a background thread. If the previous state has not been saved yet, only the latest
+     * state is saved.
+     */
+    void saveAsync(final SnapshotState state) {
+        if (pendingState.getAndSet(state) == null) {
+            executor.execute(() -> {
+                final SnapshotState latest = pendingState.getAndSet(null);
+                try {
+                    save(latest);
+                } catch (final Exception e) {
+                    log.error("Failed to save snapshot state to {}", path, e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Waits until the states passed to {@link #saveAsync(SnapshotState)} have been saved
+     */
+    void awaitSaved() throws InterruptedException {
+        try {
+            executor.submit(() -> {}).get();
+        } catch (final ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void save(final SnapshotState state) throws IOException {
+        final byte[] messageId = state.messageId.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer buffer = ByteBuffer.allocate(4 + 4 + 8 + 4 + messageId.length + 4 + state.serviceAlert.length + 4 + state.feedMessage.length + 8);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(state.timestampMs);
+        putByteArray(buffer, messageId);
+        putByteArray(buffer, state.serviceAlert);
+        putByteArray(buffer, state.feedMessage);
+        buffer.putLong(checksum(buffer, buffer.position()));
+        buffer.flip();
+
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+        Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        log.debug("Saved snapshot state with timestamp {} to {}", state.timestampMs, path);
+    }
+
+    /**
+     * @return Saved state, or empty if there is no saved state or it is not valid
+     */
+    Optional<SnapshotState> load() throws IOException {
+        if (!Files.exists(path)) {
+            log.info("No saved snapshot state in {}", path);
+            return Optional.empty();
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return read(buffer);
+        }
+    }
+
+    private Optional<SnapshotState> read(final ByteBuffer buffer) {
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                log.warn("Snapshot state in {} has unknown format, ignoring it", path);
+                return Optional.empty();
+            }
+            final long timestampMs = buffer.getLong();
+            final byte[] messageId = getByteArray(buffer);
+            final byte[] serviceAlert = getByteArray(buffer);
+            final byte[] feedMessage = getByteArray(buffer);
+
+            final int length = buffer.position();
+            final long checksum = buffer.getLong();
+            if (checksum != checksum(buffer, length)) {
+                log.warn("Snapshot state in {} is corrupted, ignoring it", path);
+                return Optional.empty();
+            }
+
+            return Optional.of(new SnapshotState(timestampMs, new String(messageId, StandardCharsets.UTF_8), serviceAlert, feedMessage));
+        } catch (final RuntimeException e) {
+            log.warn("Snapshot state in {} is truncated, ignoring it", path, e);
+            return Optional.empty();
+        }
+    }
+
+    private static void putByteArray(final ByteBuffer buffer, final byte[] bytes) {
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static byte[] getByteArray(final ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalStateException("Invalid length " + length);
+        }
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * @return Checksum of the first bytes of the buffer
+     */
+    private static long checksum(final ByteBuffer buffer, final int length) {
+        final ByteBuffer content = buffer.duplicate();
+        content.position(0).limit(length);
+        final CRC32 crc = new CRC32();
+        crc.update(content);
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,471 @@
+package fi.hsl.transitdata.alert;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+import com.google.transit.realtime.GtfsRealtime;
+import fi.hsl.common.gtfsrt.FeedMessageFactory;
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Transcodes serialized service alerts directly to a serialized GTFS-RT feed. Bulletins are read one at a time from
+ * the input and their feed entities are written to a reusable output buffer, so that no protobuf objects are created
+ * for the bulletins, alerts or feed entities. Texts are copied as bytes without decoding them. The mapping is the
+ * same as in {@link AlertHandler#createFeedEntities(List, AlertMapping)}.
+ *
+ * <p>Not thread-safe, each thread needs its own transcoder.</p>
+ */
+class StreamingTranscoder {
+    private static final Logger log = LoggerFactory.getLogger(StreamingTranscoder.class);
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private static final int BULLETINS_TAG = tag(InternalMessages.ServiceAlert.BULLETINS_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+
+    private static final int BULLETIN_ID_TAG = tag(InternalMessages.Bulletin.BULLETIN_ID_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    private static final int CATEGORY_TAG = tag(InternalMessages.Bulletin.CATEGORY_FIELD_NUMBER, WireFormat.WIRETYPE_VARINT);
+    private static final int VALID_FROM_TAG = tag(InternalMessages.Bulletin.VALID_FROM_UTC_MS_FIELD_NUMBER, WireFormat.WIRETYPE_VARINT);
+    private static final int VALID_TO_TAG = tag(InternalMessages.Bulletin.VALID_TO_UTC_MS_FIELD_NUMBER, WireFormat.WIRETYPE_VARINT);
+    private static final int AFFECTS_ALL_ROUTES_TAG = tag(InternalMessages.Bulletin.AFFECTS_ALL_ROUTES_FIELD_NUMBER, WireFormat.WIRETYPE_VARINT);
+    private static final int AFFECTS_ALL_STOPS_TAG = tag(InternalMessages.Bulletin.AFFECTS_ALL_STOPS_FIELD_NUMBER, WireFormat.WIRETYPE_VARINT);
+    private static final int AFFECTED_ROUTES_TAG = tag(InternalMessages.Bulletin.AFFECTED_ROUTES_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    private static final int AFFECTED_STOPS_TAG = tag(InternalMessages.Bulletin.AFFECTED_STOPS_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    private static final int IMPACT_TAG = tag(InternalMessages.Bulletin.IMPACT_FIELD_NUMBER, WireFormat.WIRETYPE_VARINT);
+    private static final int PRIORITY_TAG = tag(InternalMessages.Bulletin.PRIORITY_FIELD_NUMBER, WireFormat.WIRETYPE_VARINT);
+    private static final int TITLES_TAG = tag(InternalMessages.Bulletin.TITLES_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    private static final int DESCRIPTIONS_TAG = tag(InternalMessages.Bulletin.DESCRIPTIONS_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    private static final int URLS_TAG = tag(InternalMessages.Bulletin.URLS_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    private static final int DISPLAY_ONLY_TAG = tag(InternalMessages.Bulletin.DISPLAY_ONLY_FIELD_NUMBER, WireFormat.WIRETYPE_VARINT);
+
+    private static final int ENTITY_ID_TAG = tag(InternalMessages.Bulletin.AffectedEntity.ENTITY_ID_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+
+    private static final int TEXT_TAG = tag(InternalMessages.Bulletin.Translation.TEXT_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    private static final int LANGUAGE_TAG = tag(InternalMessages.Bulletin.Translation.LANGUAGE_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+
+    private final Supplier<AlertMapping> mappingSupplier;
+    //Mapping used for the service alert being transcoded
+    private AlertMapping mapping;
+    //Null if selectors are not compacted
+    private final SelectorCompactor compactor;
+    //Null if the service alerts are not limited
+    private final SnapshotLimits limits;
+
+    private final BulletinFields bulletin = new BulletinFields();
+
+    private final List<GtfsRealtime.EntitySelector> selectors = new ArrayList<>();
+    private final Set<String> routeIds = new HashSet<>();
+    private final Set<String> stopIds = new HashSet<>();
+
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private int position;
+
+    private int bulletinCount;
+
+    StreamingTranscoder(final boolean globalNoServiceAlerts) {
+        this(() -> AlertMapping.defaults(globalNoServiceAlerts), null);
+    }
+
+    /**
+     * @param mappingSupplier Supplier of the current mapping, called once for each transcoded service alert
+     * @param compactor Compactor for the entity selectors of the alerts, or null to keep all selectors
+     */
+    StreamingTranscoder(final Supplier<AlertMapping> mappingSupplier, final SelectorCompactor compactor) {
+        this(mappingSupplier, compactor, null);
+    }
+
+    /**
+     * @param mappingSupplier Supplier of the current mapping, called once for each transcoded service alert
+     * @param compactor Compactor for the entity selectors of the alerts, or null to keep all selectors
+     * @param limits Limits for the service alerts, or null to transcode everything
+     */
+    StreamingTranscoder(final Supplier<AlertMapping> mappingSupplier, final SelectorCompactor compactor, final SnapshotLimits limits) {
+        this.mappingSupplier = mappingSupplier;
+        this.compactor = compactor;
+        this.limits = limits;
+    }
+
+    private static int tag(final int fieldNumber, final int wireType) {
+        return fieldNumber << 3 | wireType;
+    }
+
+    /**
+     * @param serviceAlert Serialized {@link InternalMessages.ServiceAlert}
+     * @param timestampSecs Timestamp of the feed
+     * @return Serialized full dataset {@link GtfsRealtime.FeedMessage}
+     * @throws IOException If the service alert could not be parsed or it is larger than the limit
+     */
+    byte[] transcode(final byte[] serviceAlert, final long timestampSecs) throws IOException {
+        if (limits != null) {
+            limits.checkMessageSize(serviceAlert.length);
+        }
+        position = 0;
+        bulletinCount = 0;
+        mapping = mappingSupplier.get();
+
+        final GtfsRealtime.FeedHeader header = FeedMessageFactory.createFullFeedMessage(Collections.emptyList(), timestampSecs).getHeader();
+        final int headerSize = CodedOutputStream.computeMessageSize(GtfsRealtime.FeedMessage.HEADER_FIELD_NUMBER, header);
+        final CodedOutputStream headerOutput = output(headerSize);
+        headerOutput.writeMessage(GtfsRealtime.FeedMessage.HEADER_FIELD_NUMBER, header);
+        headerOutput.checkNoSpaceLeft();
+        position += headerSize;
+
+        final CodedInputStream input = CodedInputStream.newInstance(serviceAlert);
+        //Byte strings read from the input refer to the input array instead of copying it
+        input.enableAliasing(true);
+        int droppedBulletins = 0;
+        int tag;
+        while ((tag = input.readTag()) != 0) {
+            if (tag == BULLETINS_TAG) {
+                final int size = input.readRawVarint32();
+                if (limits != null && !limits.acceptBulletin(bulletinCount, size)) {
+                    input.skipRawBytes(size);
+                    droppedBulletins++;
+                    continue;
+                }
+                final int limit = input.pushLimit(size);
+                bulletin.readFrom(input, limits);
+                input.popLimit(limit);
+                bulletinCount++;
+                writeFeedEntity();
+            } else if (!input.skipField(tag)) {
+                break;
+            }
+        }
+        if (limits != null) {
+            limits.logDroppedBulletins(bulletinCount, droppedBulletins);
+        }
+
+        return Arrays.copyOf(buffer, position);
+    }
+
+    /**
+     * @return Number of bulletins transcoded from the previous service alert, not counting bulletins over the limits
+     */
+    int getBulletinCount() {
+        return bulletinCount;
+    }
+
+    private CodedOutputStream output(final int size) {
+        if (buffer.length - position < size) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + size));
+        }
+        return CodedOutputStream.newInstance(buffer, position, size);
+    }
+
+    private void writeFeedEntity() {
+        try {
+            if (bulletin.displayOnly) {
+                AlertHandler.discardedDisplayOnlyBulletins.increment();
+                log.debug("No alert created for bulletin {} that is meant to be published only on vehicle displays", bulletin.bulletinId.toStringUtf8());
+                return;
+            }
+
+            collectEntitySelectors();
+            if (selectors.isEmpty()) {
+                AlertHandler.discardedBulletinsWithoutInformedEntities.increment();
+                log.error("Failed to find any Informed Entities for bulletin Id {}. Discarding alert.", bulletin.bulletinId.toStringUtf8());
+                return;
+            }
+
+            final int alertSize = computeAlertSize();
+            final int entitySize = CodedOutputStream.computeBytesSize(GtfsRealtime.FeedEntity.ID_FIELD_NUMBER, bulletin.bulletinId)
+                    + computeLengthDelimitedSize(GtfsRealtime.FeedEntity.ALERT_FIELD_NUMBER, alertSize);
+            final int size = computeLengthDelimitedSize(GtfsRealtime.FeedMessage.ENTITY_FIELD_NUMBER, entitySize);
+
+            final CodedOutputStream out = output(size);
+            out.writeTag(GtfsRealtime.FeedMessage.ENTITY_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            out.writeUInt32NoTag(entitySize);
+            out.writeBytes(GtfsRealtime.FeedEntity.ID_FIELD_NUMBER, bulletin.bulletinId);
+            out.writeTag(GtfsRealtime.FeedEntity.ALERT_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            out.writeUInt32NoTag(alertSize);
+            writeAlert(out);
+            out.checkNoSpaceLeft();
+            position += size;
+        } catch (final Exception e) {
+            AlertHandler.discardedBulletinsWithException.increment();
+            log.error("Exception while creating an alert for bulletin {}!", bulletin.bulletinId.toStringUtf8(), e);
+        }
+    }
+
+    /**
+     * Same as {@link AlertHandler#entitySelectorsForBulletin(InternalMessages.Bulletin)} followed by
+     * {@link SelectorCompactor#compact(String, List)}
+     */
+    private void collectEntitySelectors() {
+        selectors.clear();
+        routeIds.clear();
+        stopIds.clear();
+
+        if (bulletin.affectsAllRoutes || bulletin.affectsAllStops) {
+            selectors.add(EntitySelectorPool.AGENCY_SELECTOR);
+        }
+        for (final String routeId : bulletin.routeIds) {
+            final GtfsRealtime.EntitySelector entity = AlertHandler.selectorPool.routeSelector(routeId);
+            if (routeIds.add(entity.getRouteId())) {
+                selectors.add(entity);
+            }
+        }
+        for (final String stopId : bulletin.stopIds) {
+            final GtfsRealtime.EntitySelector entity = AlertHandler.selectorPool.stopSelector(stopId);
+            if (stopIds.add(entity.getStopId())) {
+                selectors.add(entity);
+            }
+        }
+        if (compactor != null && compactor.needsCompaction(selectors)) {
+            final List<GtfsRealtime.EntitySelector> compacted = compactor.compact(bulletin.bulletinId.toStringUtf8(), selectors);
+            selectors.clear();
+            selectors.addAll(compacted);
+        }
+    }
+
+    private GtfsRealtime.Alert.Cause cause() {
+        return mapping.getCause(bulletin.category);
+    }
+
+    private GtfsRealtime.Alert.Effect effect() {
+        return mapping.getEffect(bulletin.impact, bulletin.affectsAllRoutes, bulletin.affectsAllStops);
+    }
+
+    private Optional<GtfsRealtime.Alert.SeverityLevel> severityLevel() {
+        return Optional.ofNullable(mapping.getSeverityLevel(bulletin.priority));
+    }
+
+    private int computeTimeRangeSize() {
+        return CodedOutputStream.computeUInt64Size(GtfsRealtime.TimeRange.START_FIELD_NUMBER, bulletin.validFromUtcMs / 1000)
+                + CodedOutputStream.computeUInt64Size(GtfsRealtime.TimeRange.END_FIELD_NUMBER, bulletin.validToUtcMs / 1000);
+    }
+
+    /**
+     * Fields are written in the order of their field numbers, as the protobuf library does
+     */
+    private int computeAlertSize() {
+        int size = computeLengthDelimitedSize(GtfsRealtime.Alert.ACTIVE_PERIOD_FIELD_NUMBER, computeTimeRangeSize());
+        for (final GtfsRealtime.EntitySelector selector : selectors) {
+            size += CodedOutputStream.computeMessageSize(GtfsRealtime.Alert.INFORMED_ENTITY_FIELD_NUMBER, selector);
+        }
+        size += CodedOutputStream.computeEnumSize(GtfsRealtime.Alert.CAUSE_FIELD_NUMBER, cause().getNumber());
+        size += CodedOutputStream.computeEnumSize(GtfsRealtime.Alert.EFFECT_FIELD_NUMBER, effect().getNumber());
+        if (!bulletin.urls.isEmpty()) {
+            size += computeLengthDelimitedSize(GtfsRealtime.Alert.URL_FIELD_NUMBER, computeTranslatedStringSize(bulletin.urls));
+        }
+        if (!bulletin.titles.isEmpty()) {
+            size += computeLengthDelimitedSize(GtfsRealtime.Alert.HEADER_TEXT_FIELD_NUMBER, computeTranslatedStringSize(bulletin.titles));
+        }
+        if (!bulletin.descriptions.isEmpty()) {
+            size += computeLengthDelimitedSize(GtfsRealtime.Alert.DESCRIPTION_TEXT_FIELD_NUMBER, computeTranslatedStringSize(bulletin.descriptions));
+        }
+        final Optional<GtfsRealtime.Alert.SeverityLevel> severityLevel = severityLevel();
+        if (severityLevel.isPresent()) {
+            size += CodedOutputStream.computeEnumSize(GtfsRealtime.Alert.SEVERITY_LEVEL_FIELD_NUMBER, severityLevel.get().getNumber());
+        }
+        return size;
+    }
+
+    private void writeAlert(final CodedOutputStream out) throws IOException {
+        out.writeTag(GtfsRealtime.Alert.ACTIVE_PERIOD_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        out.writeUInt32NoTag(computeTimeRangeSize());
+        out.writeUInt64(GtfsRealtime.TimeRange.START_FIELD_NUMBER, bulletin.validFromUtcMs / 1000);
+        out.writeUInt64(GtfsRealtime.TimeRange.END_FIELD_NUMBER, bulletin.validToUtcMs / 1000);
+        for (final GtfsRealtime.EntitySelector selector : selectors) {
+            out.writeMessage(GtfsRealtime.Alert.INFORMED_ENTITY_FIELD_NUMBER, selector);
+        }
+        out.writeEnum(GtfsRealtime.Alert.CAUSE_FIELD_NUMBER, cause().getNumber());
+        out.writeEnum(GtfsRealtime.Alert.EFFECT_FIELD_NUMBER, effect().getNumber());
+        if (!bulletin.urls.isEmpty()) {
+            writeTranslatedString(out, GtfsRealtime.Alert.URL_FIELD_NUMBER, bulletin.urls);
+        }
+        if (!bulletin.titles.isEmpty()) {
+            writeTranslatedString(out, GtfsRealtime.Alert.HEADER_TEXT_FIELD_NUMBER, bulletin.titles);
+        }
+        if (!bulletin.descriptions.isEmpty()) {
+            writeTranslatedString(out, GtfsRealtime.Alert.DESCRIPTION_TEXT_FIELD_NUMBER, bulletin.descriptions);
+        }
+        final Optional<GtfsRealtime.Alert.SeverityLevel> severityLevel = severityLevel();
+        if (severityLevel.isPresent()) {
+            out.writeEnum(GtfsRealtime.Alert.SEVERITY_LEVEL_FIELD_NUMBER, severityLevel.get().getNumber());
+        }
+    }
+
+    private static int computeTranslationSize(final ByteString text, final ByteString language) {
+        return CodedOutputStream.computeBytesSize(GtfsRealtime.TranslatedString.Translation.TEXT_FIELD_NUMBER, text)
+                + CodedOutputStream.computeBytesSize(GtfsRealtime.TranslatedString.Translation.LANGUAGE_FIELD_NUMBER, language);
+    }
+
+    /**
+     * @param translations Text and language of each translation
+     */
+    private static int computeTranslatedStringSize(final List<ByteString> translations) {
+        int size = 0;
+        for (int i = 0; i < translations.size(); i += 2) {
+            size += computeLengthDelimitedSize(GtfsRealtime.TranslatedString.TRANSLATION_FIELD_NUMBER, computeTranslationSize(translations.get(i), translations.get(i + 1)));
+        }
+        return size;
+    }
+
+    private static void writeTranslatedString(final CodedOutputStream out, final int fieldNumber, final List<ByteString> translations) throws IOException {
+        out.writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        out.writeUInt32NoTag(computeTranslatedStringSize(translations));
+        for (int i = 0; i < translations.size(); i += 2) {
+            final ByteString text = translations.get(i);
+            final ByteString language = translations.get(i + 1);
+            out.writeTag(GtfsRealtime.TranslatedString.TRANSLATION_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            out.writeUInt32NoTag(computeTranslationSize(text, language));
+            out.writeBytes(GtfsRealtime.TranslatedString.Translation.TEXT_FIELD_NUMBER, text);
+            out.writeBytes(GtfsRealtime.TranslatedString.Translation.LANGUAGE_FIELD_NUMBER, language);
+        }
+    }
+
+    private static int computeLengthDelimitedSize(final int fieldNumber, final int size) {
+        return CodedOutputStream.computeTagSize(fieldNumber) + CodedOutputStream.computeUInt32SizeNoTag(size) + size;
+    }
+
+    /**
+     * Fields of a bulletin that are used for creating the alert. Reused for all bulletins.
+     */
+    private static class BulletinFields {
+        private static final InternalMessages.Bulletin DEFAULT = InternalMessages.Bulletin.getDefaultInstance();
+
+        ByteString bulletinId;
+        InternalMessages.Category category;
+        long validFromUtcMs;
+        long validToUtcMs;
+        boolean affectsAllRoutes;
+        boolean affectsAllStops;
+        final List<String> routeIds = new ArrayList<>();
+        final List<String> stopIds = new ArrayList<>();
+        InternalMessages.Bulletin.Impact impact;
+        InternalMessages.Bulletin.Priority priority;
+        final List<ByteString> titles = new ArrayList<>();
+        final List<ByteString> descriptions = new ArrayList<>();
+        final List<ByteString> urls = new ArrayList<>();
+        boolean displayOnly;
+        boolean tooManySelectors;
+        boolean tooLongTexts;
+
+        private void clear() {
+            bulletinId = ByteString.EMPTY;
+            category = DEFAULT.getCategory();
+            validFromUtcMs = DEFAULT.getValidFromUtcMs();
+            validToUtcMs = DEFAULT.getValidToUtcMs();
+            affectsAllRoutes = DEFAULT.getAffectsAllRoutes();
+            affectsAllStops = DEFAULT.getAffectsAllStops();
+            routeIds.clear();
+            stopIds.clear();
+            impact = DEFAULT.getImpact();
+            priority = DEFAULT.getPriority();
+            titles.clear();
+            descriptions.clear();
+            urls.clear();
+            displayOnly = false;
+            tooManySelectors = false;
+            tooLongTexts = false;
+        }
+
+        /**
+         * @param limits Limits for the affected routes and stops and texts, or null to read everything
+         */
+        void readFrom(final CodedInputStream input, final SnapshotLimits limits) throws IOException {
+            clear();
+
+            int tag;
+            while ((tag = input.readTag()) != 0) {
+                if (tag == BULLETIN_ID_TAG) {
+                    bulletinId = input.readBytes();
+                } else if (tag == CATEGORY_TAG) {
+                    //Unknown enum values are ignored like when parsing the bulletin
+                    final InternalMessages.Category value = InternalMessages.Category.forNumber(input.readEnum());
+                    if (value != null) {
+                        category = value;
+                    }
+                } else if (tag == VALID_FROM_TAG) {
+                    validFromUtcMs = input.readInt64();
+                } else if (tag == VALID_TO_TAG) {
+                    validToUtcMs = input.readInt64();
+                } else if (tag == AFFECTS_ALL_ROUTES_TAG) {
+                    affectsAllRoutes = input.readBool();
+                } else if (tag == AFFECTS_ALL_STOPS_TAG) {
+                    affectsAllStops = input.readBool();
+                } else if (tag == AFFECTED_ROUTES_TAG || tag == AFFECTED_STOPS_TAG) {
+                    if (limits != null && routeIds.size() + stopIds.size() >= limits.maxSelectorsPerBulletin) {
+                        tooManySelectors = true;
+                        input.skipField(tag);
+                    } else {
+                        (tag == AFFECTED_ROUTES_TAG ? routeIds : stopIds).add(readEntityId(input));
+                    }
+                } else if (tag == IMPACT_TAG) {
+                    final InternalMessages.Bulletin.Impact value = InternalMessages.Bulletin.Impact.forNumber(input.readEnum());
+                    if (value != null) {
+                        impact = value;
+                    }
+                } else if (tag == PRIORITY_TAG) {
+                    final InternalMessages.Bulletin.Priority value = InternalMessages.Bulletin.Priority.forNumber(input.readEnum());
+                    if (value != null) {
+                        priority = value;
+                    }
+                } else if (tag == TITLES_TAG) {
+                    readTranslation(input, titles, limits);
+                } else if (tag == DESCRIPTIONS_TAG) {
+                    readTranslation(input, descriptions, limits);
+                } else if (tag == URLS_TAG) {
+                    readTranslation(input, urls, limits);
+                } else if (tag == DISPLAY_ONLY_TAG) {
+                    displayOnly = input.readBool();
+                } else if (!input.skipField(tag)) {
+                    break;
+                }
+            }
+            if (tooManySelectors || tooLongTexts) {
+                limits.onBulletinTruncated(bulletinId.toStringUtf8(), tooManySelectors, tooLongTexts);
+            }
+        }
+
+        private static String readEntityId(final CodedInputStream input) throws IOException {
+            final int limit = input.pushLimit(input.readRawVarint32());
+            String entityId = "";
+            int tag;
+            while ((tag = input.readTag()) != 0) {
+                if (tag == ENTITY_ID_TAG) {
+                    entityId = input.readString();
+                } else if (!input.skipField(tag)) {
+                    break;
+                }
+            }
+            input.popLimit(limit);
+            return entityId;
+        }
+
+        /**
+         * Adds the text and the language of the translation to the list. Missing values are empty like in the
+         * bulletin. Texts over the limit are truncated.
+         */
+        private void readTranslation(final CodedInputStream input, final List<ByteString> translations, final SnapshotLimits limits) throws IOException {
+            final int limit = input.pushLimit(input.readRawVarint32());
+            ByteString text = ByteString.EMPTY;
+            ByteString language = ByteString.EMPTY;
+            int tag;
+            while ((tag = input.readTag()) != 0) {
+                if (tag == TEXT_TAG) {
+                    text = input.readBytes();
+                } else if (tag == LANGUAGE_TAG) {
+                    language = input.readBytes();
+                } else if (!input.skipField(tag)) {
+                    break;
+                }
+            }
+            input.popLimit(limit);
+            if (limits != null && text.size() > limits.maxTextLength) {
+                tooLongTexts = true;
+                text = limits.truncateText(text);
+            }
+            translations.add(text);
+            translations.add(language);
+        }
+    }
+}
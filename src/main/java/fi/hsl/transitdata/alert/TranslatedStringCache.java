@@ -0,0 +1,102 @@
+package fi.hsl.transitdata.alert;
+
+import com.google.transit.realtime.GtfsRealtime;
+import fi.hsl.common.transitdata.proto.InternalMessages;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Caches GTFS-RT translated strings by their content. Titles, descriptions and URLs of bulletins repeat both within
+ * a snapshot and between snapshots, so most of them can be reused instead of building them again. Translated strings
+ * are immutable.
+ */
+class TranslatedStringCache {
+    //Rough estimate of the memory used by the translated string and its translations in addition to the text
+    private static final int TRANSLATED_STRING_OVERHEAD_BYTES = 64;
+    private static final int TRANSLATION_OVERHEAD_BYTES = 96;
+
+    private final BoundedCache<Key, GtfsRealtime.TranslatedString> cache;
+
+    TranslatedStringCache(final int maxSize) {
+        cache = new BoundedCache<>(maxSize, TranslatedStringCache::estimateSize);
+    }
+
+    GtfsRealtime.TranslatedString get(final List<InternalMessages.Bulletin.Translation> translations) {
+        return cache.get(Key.of(translations), key -> key.toTranslatedString());
+    }
+
+    int size() {
+        return cache.size();
+    }
+
+    long getRetainedBytes() {
+        return cache.getWeight();
+    }
+
+    long getHitCount() {
+        return cache.getHitCount();
+    }
+
+    long getMissCount() {
+        return cache.getMissCount();
+    }
+
+    private static long estimateSize(final GtfsRealtime.TranslatedString translatedString) {
+        long size = TRANSLATED_STRING_OVERHEAD_BYTES;
+        for (final GtfsRealtime.TranslatedString.Translation translation : translatedString.getTranslationList()) {
+            size += TRANSLATION_OVERHEAD_BYTES + 2L * (translation.getText().length() + translation.getLanguage().length());
+        }
+        return size;
+    }
+
+    /**
+     * Language and text of each translation in order
+     */
+    private static class Key {
+        private final String[] languagesAndTexts;
+        private final int hash;
+
+        private Key(final String[] languagesAndTexts) {
+            this.languagesAndTexts = languagesAndTexts;
+            this.hash = Arrays.hashCode(languagesAndTexts);
+        }
+
+        static Key of(final List<InternalMessages.Bulletin.Translation> translations) {
+            final String[] languagesAndTexts = new String[translations.size() * 2];
+            for (int i = 0; i < translations.size(); i++) {
+                final InternalMessages.Bulletin.Translation translation = translations.get(i);
+                languagesAndTexts[2 * i] = translation.getLanguage();
+                languagesAndTexts[2 * i + 1] = translation.getText();
+            }
+            return new Key(languagesAndTexts);
+        }
+
+        GtfsRealtime.TranslatedString toTranslatedString() {
+            final GtfsRealtime.TranslatedString.Builder builder = GtfsRealtime.TranslatedString.newBuilder();
+            for (int i = 0; i < languagesAndTexts.length; i += 2) {
+                builder.addTranslation(GtfsRealtime.TranslatedString.Translation.newBuilder()
+                        .setLanguage(languagesAndTexts[i])
+                        .setText(languagesAndTexts[i + 1]));
+            }
+            return builder.build();
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return hash == key.hash && Arrays.equals(languagesAndTexts, key.languagesAndTexts);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package fi.hsl.transitdata.alert;
+
+import com.google.transit.realtime.GtfsRealtime;
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import org.apache.pulsar.client.api.Consumer;
+import org.apache.pulsar.client.api.MessageId;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class ActivePeriodSchedulerTest {
+    private static final long NOW_SECS = 1_600_000_000L;
+
+    private MutableClock clock;
+
+    @Before
+    public void setUp() {
+        clock = new MutableClock(Instant.ofEpochSecond(NOW_SECS));
+    }
+
+    private static GtfsRealtime.FeedEntity entity(final String id, final long startSecs, final long endSecs) {
+        return GtfsRealtime.FeedEntity.newBuilder()
+                .setId(id)
+                .setAlert(GtfsRealtime.Alert.newBuilder()
+                        .addActivePeriod(GtfsRealtime.TimeRange.newBuilder().setStart(startSecs).setEnd(endSecs))
+                        .addInformedEntity(EntitySelectorPool.AGENCY_SELECTOR))
+                .build();
+    }
+
+    @Test
+    public void testFeedIsRepublishedWhenActivePeriodStartsOrEnds() {
+        final ActivePeriodScheduler scheduler = new ActivePeriodScheduler(clock, false);
+        final List<GtfsRealtime.FeedEntity> entities = Arrays.asList(entity("1", NOW_SECS - 60, NOW_SECS + 60), entity("2", NOW_SECS + 30, NOW_SECS + 120));
+
+        assertSame(entities, scheduler.activeEntities(entities));
+        scheduler.update(entities);
+        //Start of the first alert has already passed
+        assertEquals(3, scheduler.getScheduledBoundaryCount());
+        assertNull(scheduler.pollDueEntities());
+
+        clock.advance(Duration.ofSeconds(29));
+        assertNull(scheduler.pollDueEntities());
+        clock.advance(Duration.ofSeconds(1));
+        assertSame(entities, scheduler.pollDueEntities());
+        assertNull(scheduler.pollDueEntities());
+
+        //Two boundaries that have passed cause only one republish, expired alerts are kept
+        clock.advance(Duration.ofSeconds(100));
+        assertSame(entities, scheduler.pollDueEntities());
+        assertNull(scheduler.pollDueEntities());
+        assertEquals(2, scheduler.getRepublishedFeedCount());
+        assertEquals(0, scheduler.getScheduledBoundaryCount());
+        assertEquals(0, scheduler.getDroppedAlertCount());
+    }
+
+    @Test
+    public void testExpiredAlertsAreDropped() {
+        final ActivePeriodScheduler scheduler = new ActivePeriodScheduler(clock, true);
+        final List<GtfsRealtime.FeedEntity> entities = Arrays.asList(
+                entity("1", NOW_SECS - 120, NOW_SECS - 60),
+                entity("2", NOW_SECS - 60, NOW_SECS + 60),
+                entity("3", NOW_SECS + 60, NOW_SECS + 120));
+
+        final List<GtfsRealtime.FeedEntity> activeEntities = scheduler.activeEntities(entities);
+        assertEquals(entities.subList(1, 3), activeEntities);
+        //Nothing is republished before the snapshot has been published
+        assertNull(scheduler.pollDueEntities());
+
+        scheduler.update(activeEntities);
+        assertNull(scheduler.pollDueEntities());
+
+        clock.advance(Duration.ofSeconds(60));
+        assertEquals(entities.subList(2, 3), scheduler.pollDueEntities());
+        assertNull(scheduler.pollDueEntities());
+
+        //Same snapshot is followed until the republished feed has been published
+        clock.advance(Duration.ofSeconds(30));
+        scheduler.update(entities.subList(2, 3));
+        clock.advance(Duration.ofSeconds(30));
+        assertEquals(Collections.emptyList(), scheduler.pollDueEntities());
+        assertEquals(2, scheduler.getRepublishedFeedCount());
+    }
+
+    @Test
+    public void testPublishedSnapshotReplacesSchedule() {
+        final ActivePeriodScheduler scheduler = new ActivePeriodScheduler(clock, true);
+        scheduler.update(Arrays.asList(entity("1", NOW_SECS - 60, NOW_SECS + 60)));
+        scheduler.update(Arrays.asList(entity("2", NOW_SECS - 60, NOW_SECS + 120)));
+
+        clock.advance(Duration.ofSeconds(60));
+        assertNull(scheduler.pollDueEntities());
+        clock.advance(Duration.ofSeconds(60));
+        assertEquals(Collections.emptyList(), scheduler.pollDueEntities());
+    }
+
+    @Test
+    public void testAlertsThatEndedBeforePublishingAreDroppedOnNextCheck() {
+        final List<GtfsRealtime.FeedEntity> entities = Arrays.asList(entity("1", NOW_SECS - 120, NOW_SECS - 60), entity("2", NOW_SECS - 60, NOW_SECS + 60));
+        //E.g. restored feed that was published before the alert ended
+        final ActivePeriodScheduler dropping = new ActivePeriodScheduler(clock, true);
+        dropping.update(entities);
+        assertEquals(entities.subList(1, 2), dropping.pollDueEntities());
+
+        final ActivePeriodScheduler keeping = new ActivePeriodScheduler(clock, false);
+        keeping.update(entities);
+        assertNull(keeping.pollDueEntities());
+    }
+
+    private static InternalMessages.ServiceAlert createServiceAlert(final long firstValidToMs) {
+        final InternalMessages.ServiceAlert serviceAlert = new ServiceAlertGenerator(2, 2, 5, 3).generate(1);
+        final long nowMs = System.currentTimeMillis();
+        return serviceAlert.toBuilder()
+                .setBulletins(0, serviceAlert.getBulletins(0).toBuilder().setValidFromUtcMs(nowMs - 60_000).setValidToUtcMs(firstValidToMs))
+                .setBulletins(1, serviceAlert.getBulletins(1).toBuilder().setValidFromUtcMs(nowMs - 60_000).setValidToUtcMs(nowMs + 3_600_000))
+                .build();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testFeedIsRepublishedOnlyAfterPreviousFeedHasBeenPersisted() throws Exception {
+        final Consumer<byte[]> consumer = mock(Consumer.class);
+        when(consumer.acknowledgeAsync(any(MessageId.class))).thenReturn(CompletableFuture.completedFuture(null));
+        final StubProducer stubProducer = new StubProducer(false);
+        final AlertHandler handler = new AlertHandler(TestUtils.createConfig(Map.of("application.publisher.async", true,
+                "application.activePeriodScheduler.enabled", true,
+                "application.activePeriodScheduler.dropExpiredAlerts", true,
+                "application.activePeriodScheduler.checkInterval", "50 ms")), consumer, stubProducer.getProducer(), StubProducer.factory());
+
+        //Active periods have a resolution of one second
+        final long validToMs = (System.currentTimeMillis() / 1000 + 2) * 1000;
+        handler.handleMessage(TestUtils.mockServiceAlertMessage(createServiceAlert(validToMs).toByteArray(), System.currentTimeMillis()));
+        assertEquals(2, GtfsRealtime.FeedMessage.parseFrom(stubProducer.getSentMessages().get(0).value).getEntityCount());
+
+        Thread.sleep(validToMs - System.currentTimeMillis() + 500);
+        assertEquals(1, stubProducer.getSentMessages().size());
+
+        stubProducer.getSentMessages().get(0).persist();
+        final long deadlineMs = System.currentTimeMillis() + 5000;
+        while (stubProducer.getSentMessages().size() < 2 && System.currentTimeMillis() < deadlineMs) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, stubProducer.getSentMessages().size());
+        final GtfsRealtime.FeedMessage republished = GtfsRealtime.FeedMessage.parseFrom(stubProducer.getSentMessages().get(1).value);
+        assertEquals(1, republished.getEntityCount());
+        assertEquals("10001", republished.getEntity(0).getId());
+
+        stubProducer.getSentMessages().get(1).persist();
+        assertTrue(handler.getMetrics().scrape().contains("transitdata_alert_processor_scheduled_republishes_total 1.0\n"));
+        verify(consumer, times(1)).acknowledgeAsync(any(MessageId.class));
+        handler.close();
+    }
+}
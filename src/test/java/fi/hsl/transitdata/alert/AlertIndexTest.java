@@ -0,0 +1,91 @@
+package fi.hsl.transitdata.alert;
+
+import com.google.transit.realtime.GtfsRealtime;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class AlertIndexTest {
+    private static final long TIMESTAMP = 1_600_000_000L;
+
+    private static GtfsRealtime.FeedEntity entity(final String id, final GtfsRealtime.EntitySelector... selectors) {
+        final GtfsRealtime.Alert.Builder alert = GtfsRealtime.Alert.newBuilder();
+        for (final GtfsRealtime.EntitySelector selector : selectors) {
+            alert.addInformedEntity(selector);
+        }
+        return GtfsRealtime.FeedEntity.newBuilder().setId(id).setAlert(alert).build();
+    }
+
+    private static List<String> ids(final List<GtfsRealtime.FeedEntity> entities) {
+        return entities.stream().map(GtfsRealtime.FeedEntity::getId).collect(Collectors.toList());
+    }
+
+    private static AlertIndex createIndex() {
+        final EntitySelectorPool pool = new EntitySelectorPool(100);
+        return AlertIndex.build(List.of(
+                entity("route", pool.routeSelector("2550 3")),
+                entity("agency", EntitySelectorPool.AGENCY_SELECTOR),
+                entity("stop", pool.stopSelector("1020453")),
+                entity("route-and-stop", pool.routeSelector("2550"), pool.stopSelector("1020453"), pool.stopSelector("1020454"))
+        ), TIMESTAMP);
+    }
+
+    @Test
+    public void testAlertsAreFoundByRouteAndStop() {
+        final AlertIndex index = createIndex();
+
+        assertEquals(List.of("route", "route-and-stop"), ids(index.find(List.of("2550 3"), Collections.emptyList(), false)));
+        assertEquals(List.of("stop", "route-and-stop"), ids(index.find(Collections.emptyList(), List.of("1020453"), false)));
+        assertEquals(List.of("route-and-stop"), ids(index.find(Collections.emptyList(), List.of("1020454"), false)));
+        assertTrue(index.find(List.of("1001"), List.of("1"), false).isEmpty());
+    }
+
+    @Test
+    public void testAlertsAreReturnedOnceInFeedOrder() {
+        final AlertIndex index = createIndex();
+
+        assertEquals(List.of("route", "agency", "stop", "route-and-stop"), ids(index.find(List.of("2550"), List.of("1020453", "1020454"), true)));
+        assertEquals(List.of("agency"), ids(index.find(Collections.emptyList(), Collections.emptyList(), true)));
+        assertEquals(4, index.size());
+        assertEquals(1, index.getRouteCount());
+        assertEquals(2, index.getStopCount());
+    }
+
+    @Test
+    public void testAlertsAreServedOverHttp() throws Exception {
+        final AlertIndex index = createIndex();
+
+        try (HttpEndpointServer server = new HttpEndpointServer(0, 1)) {
+            server.addEndpoint("/alerts", new AlertIndexEndpoint(() -> index));
+            server.start();
+            final String url = "http://localhost:" + server.getPort() + "/alerts";
+
+            final HttpURLConnection protobuf = (HttpURLConnection) new URL(url + "?stop=1020454&agency=false").openConnection();
+            assertEquals(200, protobuf.getResponseCode());
+            assertEquals(AlertIndexEndpoint.PROTOBUF_CONTENT_TYPE, protobuf.getContentType());
+            final GtfsRealtime.FeedMessage feedMessage;
+            try (InputStream in = protobuf.getInputStream()) {
+                feedMessage = GtfsRealtime.FeedMessage.parseFrom(in);
+            }
+            assertEquals(TIMESTAMP, feedMessage.getHeader().getTimestamp());
+            assertEquals(List.of("route-and-stop"), ids(feedMessage.getEntityList()));
+
+            final HttpURLConnection json = (HttpURLConnection) new URL(url + "?route=2550%203&format=json").openConnection();
+            assertEquals(200, json.getResponseCode());
+            try (InputStream in = json.getInputStream()) {
+                assertEquals("{\"timestamp\":1600000000,\"alerts\":[\"route\",\"agency\",\"route-and-stop\"]}", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+
+            final HttpURLConnection invalid = (HttpURLConnection) new URL(url + "?line=2550").openConnection();
+            assertEquals(400, invalid.getResponseCode());
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package fi.hsl.transitdata.alert;
+
+import com.google.transit.realtime.GtfsRealtime;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigException;
+import com.typesafe.config.ConfigFactory;
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class AlertMappingTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void writeMappingFile(final File file, final String content, final long lastModifiedMs) throws Exception {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        assertTrue(file.setLastModified(lastModifiedMs));
+    }
+
+    @Test
+    public void testDefaultMappingIsSameAsSwitchStatements() {
+        for (final boolean globalNoServiceAlerts : new boolean[] { true, false }) {
+            final AlertMapping mapping = AlertMapping.compile(ConfigFactory.empty(), globalNoServiceAlerts);
+            assertEquals(AlertMapping.defaults(globalNoServiceAlerts), mapping);
+
+            for (final InternalMessages.Category category : InternalMessages.Category.values()) {
+                assertEquals(AlertHandler.toGtfsCause(category), mapping.getCause(category));
+            }
+            for (final InternalMessages.Bulletin.Impact impact : InternalMessages.Bulletin.Impact.values()) {
+                for (final boolean affectsAllRoutes : new boolean[] { true, false }) {
+                    for (final boolean affectsAllStops : new boolean[] { true, false }) {
+                        assertEquals(AlertHandler.getGtfsEffect(impact, affectsAllRoutes || affectsAllStops, globalNoServiceAlerts),
+                                mapping.getEffect(impact, affectsAllRoutes, affectsAllStops));
+                    }
+                }
+            }
+            for (final InternalMessages.Bulletin.Priority priority : InternalMessages.Bulletin.Priority.values()) {
+                assertEquals(AlertHandler.toGtfsSeverityLevel(priority).orElse(null), mapping.getSeverityLevel(priority));
+            }
+        }
+    }
+
+    @Test
+    public void testOverridesAndEffectRules() {
+        final Config overrides = ConfigFactory.parseString("causes { ROAD_CLOSED = CONSTRUCTION }\n"
+                + "effects { DISRUPTION_ROUTE = MODIFIED_SERVICE }\n"
+                + "severityLevels { INFO = WARNING }\n"
+                + "effectRules = [{ impact = CANCELLED, affectsAllStops = true, result = SIGNIFICANT_DELAYS }]");
+        final AlertMapping mapping = AlertMapping.compile(overrides, true);
+
+        assertEquals(GtfsRealtime.Alert.Cause.CONSTRUCTION, mapping.getCause(InternalMessages.Category.ROAD_CLOSED));
+        assertEquals(AlertHandler.toGtfsCause(InternalMessages.Category.ROAD_TRENCH), mapping.getCause(InternalMessages.Category.ROAD_TRENCH));
+        assertEquals(GtfsRealtime.Alert.Effect.MODIFIED_SERVICE, mapping.getEffect(InternalMessages.Bulletin.Impact.DISRUPTION_ROUTE, false, false));
+        assertEquals(GtfsRealtime.Alert.SeverityLevel.WARNING, mapping.getSeverityLevel(InternalMessages.Bulletin.Priority.INFO));
+
+        assertEquals(GtfsRealtime.Alert.Effect.NO_SERVICE, mapping.getEffect(InternalMessages.Bulletin.Impact.CANCELLED, false, false));
+        assertEquals(GtfsRealtime.Alert.Effect.NO_SERVICE, mapping.getEffect(InternalMessages.Bulletin.Impact.CANCELLED, true, false));
+        assertEquals(GtfsRealtime.Alert.Effect.SIGNIFICANT_DELAYS, mapping.getEffect(InternalMessages.Bulletin.Impact.CANCELLED, false, true));
+        assertEquals(GtfsRealtime.Alert.Effect.SIGNIFICANT_DELAYS, mapping.getEffect(InternalMessages.Bulletin.Impact.CANCELLED, true, true));
+    }
+
+    @Test(expected = ConfigException.BadValue.class)
+    public void testUnknownCategoryIsRejected() {
+        AlertMapping.compile(ConfigFactory.parseString("causes { NOT_A_CATEGORY = CONSTRUCTION }"), true);
+    }
+
+    @Test
+    public void testMappingIsReloadedWhenFileChanges() throws Exception {
+        final File file = folder.newFile("mapping.conf");
+        writeMappingFile(file, "causes { ROAD_CLOSED = CONSTRUCTION }", 1_600_000_000_000L);
+        final AlertMappingLoader loader = new AlertMappingLoader(TestUtils.createConfig(Map.of("application.mapping.file", file.getAbsolutePath())));
+        final AlertMapping initial = loader.get();
+        assertEquals(GtfsRealtime.Alert.Cause.CONSTRUCTION, initial.getCause(InternalMessages.Category.ROAD_CLOSED));
+
+        final FeedEntityCache cache = new FeedEntityCache(100);
+        final InternalMessages.Bulletin bulletin = InternalMessages.ServiceAlert.parseFrom(TestUtils.readProtobufFromResourceFile("alert.pb")).getBulletins(0)
+                .toBuilder().setCategory(InternalMessages.Category.ROAD_CLOSED).build();
+        final List<InternalMessages.Bulletin> bulletins = Collections.singletonList(bulletin);
+        assertEquals(GtfsRealtime.Alert.Cause.CONSTRUCTION, cache.createFeedEntities(bulletins, loader.get()).get(0).getAlert().getCause());
+
+        assertFalse(loader.reloadIfChanged());
+        assertSame(initial, loader.get());
+
+        writeMappingFile(file, "causes { ROAD_CLOSED = MAINTENANCE }", 1_600_000_001_000L);
+        assertTrue(loader.reloadIfChanged());
+        assertEquals(GtfsRealtime.Alert.Cause.MAINTENANCE, loader.get().getCause(InternalMessages.Category.ROAD_CLOSED));
+        assertEquals(1, loader.getReloadCount());
+        //Cached entities created with the previous mapping are converted again
+        assertEquals(GtfsRealtime.Alert.Cause.MAINTENANCE, cache.createFeedEntities(bulletins, loader.get()).get(0).getAlert().getCause());
+        assertEquals(2, cache.getMissCount());
+
+        final AlertMapping reloaded = loader.get();
+        writeMappingFile(file, "causes { ROAD_CLOSED = NOT_A_CAUSE }", 1_600_000_002_000L);
+        assertFalse(loader.reloadIfChanged());
+        assertSame(reloaded, loader.get());
+        assertEquals(1, loader.getFailedReloadCount());
+    }
+
+    @Test
+    public void testFileIsNotCheckedAfterClosing() throws Exception {
+        final File file = folder.newFile("mapping.conf");
+        writeMappingFile(file, "causes { ROAD_CLOSED = CONSTRUCTION }", 1_600_000_000_000L);
+        final AlertMappingLoader loader = new AlertMappingLoader(TestUtils.createConfig(Map.of("application.mapping.file", file.getAbsolutePath(),
+                "application.mapping.reloadInterval", "20 ms")));
+        loader.start();
+
+        writeMappingFile(file, "causes { ROAD_CLOSED = MAINTENANCE }", 1_600_000_001_000L);
+        final long deadlineMs = System.currentTimeMillis() + 5000;
+        while (loader.getReloadCount() == 0 && System.currentTimeMillis() < deadlineMs) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, loader.getReloadCount());
+
+        loader.close();
+        writeMappingFile(file, "causes { ROAD_CLOSED = CONSTRUCTION }", 1_600_000_002_000L);
+        Thread.sleep(200);
+        assertEquals(1, loader.getReloadCount());
+        assertEquals(GtfsRealtime.Alert.Cause.MAINTENANCE, loader.get().getCause(InternalMessages.Category.ROAD_CLOSED));
+    }
+}
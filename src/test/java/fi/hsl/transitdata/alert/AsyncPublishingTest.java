@@ -0,0 +1,163 @@
+package fi.hsl.transitdata.alert;
+
+import com.google.transit.realtime.GtfsRealtime;
+import org.apache.pulsar.client.api.Consumer;
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.MessageId;
+import org.apache.pulsar.client.api.Producer;
+import org.apache.pulsar.client.api.PulsarClientException;
+import org.apache.pulsar.client.api.TypedMessageBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class AsyncPublishingTest {
+    private static final int MAX_PENDING_MESSAGES = 2;
+
+    private byte[] data;
+    private Consumer<byte[]> consumer;
+    private StubProducer stubProducer;
+    private AlertHandler handler;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        data = TestUtils.readProtobufFromResourceFile("alert.pb");
+
+        consumer = mock(Consumer.class);
+        when(consumer.acknowledgeAsync(any(MessageId.class))).thenReturn(CompletableFuture.completedFuture(null));
+
+        final Map<String, Object> overrides = new HashMap<>();
+        overrides.put("application.publisher.async", true);
+        overrides.put("application.publisher.maxPendingMessages", MAX_PENDING_MESSAGES);
+
+        stubProducer = new StubProducer(false);
+        handler = new AlertHandler(TestUtils.createConfig(overrides), consumer, stubProducer.getProducer(), StubProducer.factory());
+    }
+
+    @Test
+    public void testMessageIsAcknowledgedOnlyAfterPublishedMessageIsPersisted() {
+        final Message<byte[]> message = TestUtils.mockServiceAlertMessage(data, 1000);
+        handler.handleMessage(message);
+
+        assertEquals(1, stubProducer.getSentMessages().size());
+        verify(consumer, never()).acknowledgeAsync(any(MessageId.class));
+
+        stubProducer.getSentMessages().get(0).persist();
+        verify(consumer).acknowledgeAsync(message.getMessageId());
+        verify(consumer, never()).negativeAcknowledge(any(MessageId.class));
+    }
+
+    @Test
+    public void testMessageIsNegativelyAcknowledgedWhenPublishingFails() {
+        final Message<byte[]> message = TestUtils.mockServiceAlertMessage(data, 1000);
+        handler.handleMessage(message);
+
+        stubProducer.getSentMessages().get(0).fail(new RuntimeException("Broker unavailable"));
+        verify(consumer, never()).acknowledgeAsync(any(MessageId.class));
+        verify(consumer).negativeAcknowledge(message.getMessageId());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testMessageIsNegativelyAcknowledgedWhenSynchronousPublishingFails() throws Exception {
+        final Producer<byte[]> producer = mock(Producer.class);
+        final TypedMessageBuilder<byte[]> builder = mock(TypedMessageBuilder.class, RETURNS_SELF);
+        when(producer.newMessage()).thenReturn(builder);
+        when(builder.send()).thenThrow(new PulsarClientException("Broker unavailable")).thenReturn(mock(MessageId.class));
+        final AlertHandler syncHandler = new AlertHandler(TestUtils.createConfig(Map.of("application.publisher.async", false)), consumer, producer, StubProducer.factory());
+
+        final Message<byte[]> message = TestUtils.mockServiceAlertMessage(data, 1000);
+        syncHandler.handleMessage(message);
+        verify(consumer, never()).acknowledgeAsync(any(MessageId.class));
+        verify(consumer).negativeAcknowledge(message.getMessageId());
+
+        //Redelivered snapshot is published
+        syncHandler.handleMessage(message);
+        verify(builder, times(2)).send();
+        verify(consumer).acknowledgeAsync(message.getMessageId());
+        assertTrue(syncHandler.getMetrics().scrape().contains("transitdata_alert_processor_failed_messages_total 1.0\n"));
+    }
+
+    @Test
+    public void testFailedSnapshotIsNotRedeliveredAfterNewerSnapshot() {
+        final Message<byte[]> older = TestUtils.mockServiceAlertMessage(data, 1000);
+        final Message<byte[]> newer = TestUtils.mockServiceAlertMessage(data, 2000);
+        handler.handleMessage(older);
+        handler.handleMessage(newer);
+
+        stubProducer.getSentMessages().get(0).fail(new RuntimeException("Broker unavailable"));
+        stubProducer.getSentMessages().get(1).persist();
+        verify(consumer, never()).negativeAcknowledge(any(MessageId.class));
+        verify(consumer).acknowledgeAsync(older.getMessageId());
+        verify(consumer).acknowledgeAsync(newer.getMessageId());
+
+        //Snapshot redelivered anyway must not replace the newer feed
+        final Message<byte[]> redelivered = TestUtils.mockServiceAlertMessage(data, 1000);
+        handler.handleMessage(redelivered);
+        assertEquals(2, stubProducer.getSentMessages().size());
+        verify(consumer).acknowledgeAsync(redelivered.getMessageId());
+        assertTrue(handler.getMetrics().scrape().contains("transitdata_alert_processor_stale_snapshots_total 2.0\n"));
+    }
+
+    @Test
+    public void testInvalidMessageIsAcknowledgedWithoutPublishing() {
+        final Message<byte[]> message = TestUtils.mockServiceAlertMessage(new byte[] { 1, 2, 3 }, 1000);
+        handler.handleMessage(message);
+
+        assertTrue(stubProducer.getSentMessages().isEmpty());
+        verify(consumer).acknowledgeAsync(message.getMessageId());
+    }
+
+    @Test
+    public void testHandlingBlocksWhenTooManyMessagesArePending() throws Exception {
+        for (int i = 0; i < MAX_PENDING_MESSAGES; i++) {
+            handler.handleMessage(TestUtils.mockServiceAlertMessage(data, i * 1000L));
+        }
+
+        final CountDownLatch handled = new CountDownLatch(1);
+        final Thread thread = new Thread(() -> {
+            handler.handleMessage(TestUtils.mockServiceAlertMessage(data, MAX_PENDING_MESSAGES * 1000L));
+            handled.countDown();
+        });
+        thread.start();
+
+        assertFalse(handled.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(MAX_PENDING_MESSAGES, stubProducer.getSentMessages().size());
+
+        stubProducer.getSentMessages().get(0).persist();
+        assertTrue(handled.await(5, TimeUnit.SECONDS));
+        assertEquals(MAX_PENDING_MESSAGES + 1, stubProducer.getSentMessages().size());
+        thread.join();
+    }
+
+    @Test
+    public void testMessagesArePublishedInOrder() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            handler.handleMessage(TestUtils.mockServiceAlertMessage(data, i * 1000L));
+            if (i % MAX_PENDING_MESSAGES == MAX_PENDING_MESSAGES - 1) {
+                stubProducer.getSentMessages().forEach(StubProducer.SentMessage::persist);
+            }
+        }
+        stubProducer.getSentMessages().forEach(StubProducer.SentMessage::persist);
+        handler.awaitPendingMessages();
+
+        final List<StubProducer.SentMessage> sent = stubProducer.getSentMessages();
+        assertEquals(10, sent.size());
+        for (int i = 0; i < sent.size(); i++) {
+            assertEquals(i * 1000L, sent.get(i).eventTime);
+            assertEquals(i, GtfsRealtime.FeedMessage.parseFrom(sent.get(i).value).getHeader().getTimestamp());
+        }
+        verify(consumer, times(10)).acknowledgeAsync(any(MessageId.class));
+    }
+}
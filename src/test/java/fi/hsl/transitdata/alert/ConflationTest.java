@@ -0,0 +1,92 @@
+package fi.hsl.transitdata.alert;
+
+import com.google.transit.realtime.GtfsRealtime;
+import org.apache.pulsar.client.api.Consumer;
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.MessageId;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class ConflationTest {
+    private byte[] data;
+    private Consumer<byte[]> consumer;
+    private StubProducer stubProducer;
+    private AlertHandler handler;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        data = TestUtils.readProtobufFromResourceFile("alert.pb");
+
+        consumer = mock(Consumer.class);
+        when(consumer.acknowledgeAsync(any(MessageId.class))).thenReturn(CompletableFuture.completedFuture(null));
+        when(consumer.acknowledgeAsync(anyList())).thenReturn(CompletableFuture.completedFuture(null));
+
+        final Map<String, Object> overrides = new HashMap<>();
+        overrides.put("application.conflation.enabled", true);
+        overrides.put("application.conflation.maxMessages", 5);
+
+        stubProducer = new StubProducer(true);
+        handler = new AlertHandler(TestUtils.createConfig(overrides), consumer, stubProducer.getProducer(), StubProducer.factory());
+    }
+
+    @SafeVarargs
+    private final void queueMessages(final Message<byte[]>... messages) throws Exception {
+        final Message<byte[]>[] queued = Arrays.copyOf(messages, messages.length + 1);
+        when(consumer.receive(0, TimeUnit.MILLISECONDS)).thenReturn(queued[0], Arrays.copyOfRange(queued, 1, queued.length));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testOnlyNewestQueuedSnapshotIsPublished() throws Exception {
+        final Message<byte[]> first = TestUtils.mockServiceAlertMessage(data, 1000);
+        final Message<byte[]> newest = TestUtils.mockServiceAlertMessage(data, 3000);
+        final Message<byte[]> older = TestUtils.mockServiceAlertMessage(data, 2000);
+        queueMessages(newest, older);
+
+        handler.handleMessage(first);
+
+        final List<StubProducer.SentMessage> sent = stubProducer.getSentMessages();
+        assertEquals(1, sent.size());
+        assertEquals(3000, sent.get(0).eventTime);
+        assertEquals(3, GtfsRealtime.FeedMessage.parseFrom(sent.get(0).value).getHeader().getTimestamp());
+
+        verify(consumer).acknowledgeAsync(Arrays.asList(first.getMessageId(), newest.getMessageId(), older.getMessageId()));
+        assertEquals(2, handler.getConflatedSnapshotCount());
+    }
+
+    @Test
+    public void testSingleSnapshotIsPublishedAsIs() throws Exception {
+        final Message<byte[]> message = TestUtils.mockServiceAlertMessage(data, 1000);
+        queueMessages();
+
+        handler.handleMessage(message);
+
+        assertEquals(1, stubProducer.getSentMessages().size());
+        verify(consumer).acknowledgeAsync(message.getMessageId());
+        assertEquals(0, handler.getConflatedSnapshotCount());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testConflatedMessageCountIsLimited() throws Exception {
+        final Message<byte[]>[] queued = new Message[10];
+        for (int i = 0; i < queued.length; i++) {
+            queued[i] = TestUtils.mockServiceAlertMessage(data, (i + 2) * 1000L);
+        }
+        queueMessages(queued);
+
+        handler.handleMessage(TestUtils.mockServiceAlertMessage(data, 1000));
+
+        assertEquals(5000, stubProducer.getSentMessages().get(0).eventTime);
+        assertEquals(4, handler.getConflatedSnapshotCount());
+    }
+}
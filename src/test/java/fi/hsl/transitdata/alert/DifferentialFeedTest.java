@@ -0,0 +1,93 @@
+package fi.hsl.transitdata.alert;
+
+import com.google.transit.realtime.GtfsRealtime;
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DifferentialFeedTest {
+    private List<GtfsRealtime.FeedEntity> entities;
+
+    @Before
+    public void setUp() throws Exception {
+        final InternalMessages.ServiceAlert alert = InternalMessages.ServiceAlert.parseFrom(TestUtils.readProtobufFromResourceFile("alert.pb"));
+        entities = AlertHandler.createFeedEntities(alert.getBulletinsList(), true);
+    }
+
+    private List<GtfsRealtime.FeedEntity> changeFirstAndRemoveLast(final List<GtfsRealtime.FeedEntity> entities) {
+        final List<GtfsRealtime.FeedEntity> changed = new ArrayList<>(entities.subList(0, entities.size() - 1));
+        changed.set(0, changed.get(0).toBuilder()
+                .setAlert(changed.get(0).getAlert().toBuilder().setEffect(GtfsRealtime.Alert.Effect.DETOUR))
+                .build());
+        return changed;
+    }
+
+    @Test
+    public void testDiffContainsChangedAndDeletedEntities() {
+        final FeedEntityDiff diff = new FeedEntityDiff();
+        assertEquals(entities, diff.update(entities));
+        assertTrue(diff.update(new ArrayList<>(entities)).isEmpty());
+
+        final List<GtfsRealtime.FeedEntity> changed = changeFirstAndRemoveLast(entities);
+        final List<GtfsRealtime.FeedEntity> changes = diff.update(changed);
+
+        assertEquals(2, changes.size());
+        assertEquals(changed.get(0), changes.get(0));
+        assertEquals(entities.get(entities.size() - 1).getId(), changes.get(1).getId());
+        assertTrue(changes.get(1).getIsDeleted());
+        assertFalse(changes.get(1).hasAlert());
+    }
+
+    @Test
+    public void testFullDatasetIsPublishedFirstAndPeriodically() throws Exception {
+        final StubProducer stubProducer = new StubProducer(true);
+        final MutableClock clock = new MutableClock(Instant.ofEpochSecond(1000));
+        final DifferentialFeedPublisher publisher = new DifferentialFeedPublisher(stubProducer.getProducer(), Duration.ofMinutes(10), clock);
+
+        publisher.publish(entities, 1000_000);
+        clock.advance(Duration.ofMinutes(1));
+        publisher.publish(entities, 1060_000);
+        clock.advance(Duration.ofMinutes(1));
+        publisher.publish(changeFirstAndRemoveLast(entities), 1120_000);
+        clock.advance(Duration.ofMinutes(10));
+        publisher.publish(entities, 1720_000);
+
+        final List<StubProducer.SentMessage> sent = stubProducer.getSentMessages();
+        assertEquals(3, sent.size());
+
+        final GtfsRealtime.FeedMessage first = GtfsRealtime.FeedMessage.parseFrom(sent.get(0).value);
+        assertEquals(GtfsRealtime.FeedHeader.Incrementality.FULL_DATASET, first.getHeader().getIncrementality());
+        assertEquals(entities, first.getEntityList());
+
+        final GtfsRealtime.FeedMessage differential = GtfsRealtime.FeedMessage.parseFrom(sent.get(1).value);
+        assertEquals(GtfsRealtime.FeedHeader.Incrementality.DIFFERENTIAL, differential.getHeader().getIncrementality());
+        assertEquals(1120, differential.getHeader().getTimestamp());
+        assertEquals(2, differential.getEntityCount());
+
+        final GtfsRealtime.FeedMessage resync = GtfsRealtime.FeedMessage.parseFrom(sent.get(2).value);
+        assertEquals(GtfsRealtime.FeedHeader.Incrementality.FULL_DATASET, resync.getHeader().getIncrementality());
+        assertEquals(entities, resync.getEntityList());
+    }
+
+    @Test
+    public void testFullDatasetIsPublishedAfterFailure() throws Exception {
+        final StubProducer stubProducer = new StubProducer(false);
+        final DifferentialFeedPublisher publisher = new DifferentialFeedPublisher(stubProducer.getProducer(), Duration.ofMinutes(10), new MutableClock(Instant.ofEpochSecond(1000)));
+
+        publisher.publish(entities, 1000_000);
+        stubProducer.getSentMessages().get(0).persist();
+        publisher.publish(changeFirstAndRemoveLast(entities), 1000_000);
+        stubProducer.getSentMessages().get(1).fail(new RuntimeException("Broker unavailable"));
+        publisher.publish(entities, 1000_000);
+
+        final GtfsRealtime.FeedMessage afterFailure = GtfsRealtime.FeedMessage.parseFrom(stubProducer.getSentMessages().get(2).value);
+        assertEquals(GtfsRealtime.FeedHeader.Incrementality.FULL_DATASET, afterFailure.getHeader().getIncrementality());
+    }
+}
@@ -0,0 +1,57 @@
+package fi.hsl.transitdata.alert;
+
+import com.google.transit.realtime.GtfsRealtime;
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EntitySelectorPoolTest {
+    @Test
+    public void testSelectorsAreShared() {
+        final EntitySelectorPool pool = new EntitySelectorPool(100);
+
+        assertSame(pool.routeSelector("1009"), pool.routeSelector("1009"));
+        assertSame(pool.routeSelector("1009"), pool.routeSelector("1009 1"));
+        assertSame(pool.stopSelector("1020453"), pool.stopSelector("1020453"));
+        assertEquals("1009", pool.routeSelector("1009 6").getRouteId());
+        assertEquals("1020453", pool.stopSelector("1020453").getStopId());
+    }
+
+    @Test
+    public void testPoolSizeIsBounded() {
+        final EntitySelectorPool pool = new EntitySelectorPool(10);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Integer.toString(i), pool.stopSelector(Integer.toString(i)).getStopId());
+        }
+        assertTrue(pool.size() <= 10);
+    }
+
+    @Test
+    public void testDuplicateSelectorsAreRemovedInOrder() {
+        final InternalMessages.Bulletin bulletin = InternalMessages.Bulletin.newBuilder()
+                .setBulletinId("1")
+                .setAffectsAllStops(true)
+                .addAffectedRoutes(InternalMessages.Bulletin.AffectedEntity.newBuilder().setEntityId("2550"))
+                .addAffectedRoutes(InternalMessages.Bulletin.AffectedEntity.newBuilder().setEntityId("1009 1"))
+                .addAffectedRoutes(InternalMessages.Bulletin.AffectedEntity.newBuilder().setEntityId("2550"))
+                .addAffectedStops(InternalMessages.Bulletin.AffectedEntity.newBuilder().setEntityId("1020453"))
+                .addAffectedStops(InternalMessages.Bulletin.AffectedEntity.newBuilder().setEntityId("1009"))
+                .addAffectedStops(InternalMessages.Bulletin.AffectedEntity.newBuilder().setEntityId("1020453"))
+                .build();
+
+        final Collection<GtfsRealtime.EntitySelector> selectors = AlertHandler.entitySelectorsForBulletin(bulletin);
+
+        final List<GtfsRealtime.EntitySelector> expected = new ArrayList<>();
+        expected.add(GtfsRealtime.EntitySelector.newBuilder().setAgencyId(AlertHandler.AGENCY_ENTITY_SELECTOR).build());
+        expected.add(GtfsRealtime.EntitySelector.newBuilder().setRouteId("2550").build());
+        expected.add(GtfsRealtime.EntitySelector.newBuilder().setRouteId("1009").build());
+        expected.add(GtfsRealtime.EntitySelector.newBuilder().setStopId("1020453").build());
+        expected.add(GtfsRealtime.EntitySelector.newBuilder().setStopId("1009").build());
+        assertEquals(expected, new ArrayList<>(selectors));
+    }
+}
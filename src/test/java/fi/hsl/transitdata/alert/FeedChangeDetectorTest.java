@@ -0,0 +1,76 @@
+package fi.hsl.transitdata.alert;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.transit.realtime.GtfsRealtime;
+import fi.hsl.common.gtfsrt.FeedMessageFactory;
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FeedChangeDetectorTest {
+    private List<GtfsRealtime.FeedEntity> entities;
+    private MutableClock clock;
+    private FeedChangeDetector detector;
+
+    @Before
+    public void setUp() throws Exception {
+        final InternalMessages.ServiceAlert alert = InternalMessages.ServiceAlert.parseFrom(TestUtils.readProtobufFromResourceFile("alert.pb"));
+        entities = AlertHandler.createFeedEntities(alert.getBulletinsList(), true);
+        clock = new MutableClock(Instant.ofEpochSecond(1000));
+        detector = new FeedChangeDetector(Duration.ofMinutes(1), clock);
+    }
+
+    private byte[] feed(final List<GtfsRealtime.FeedEntity> entities, final long timestampSecs) {
+        return FeedMessageFactory.createFullFeedMessage(entities, timestampSecs).toByteArray();
+    }
+
+    @Test
+    public void testFeedWithOnlyDifferentTimestampIsSuppressed() {
+        assertTrue(detector.shouldPublish(feed(entities, 1000)));
+        clock.advance(Duration.ofSeconds(10));
+        assertFalse(detector.shouldPublish(feed(entities, 1010)));
+
+        assertEquals(1, detector.getPublishedCount());
+        assertEquals(1, detector.getSuppressedCount());
+    }
+
+    @Test
+    public void testChangedFeedIsPublished() {
+        assertTrue(detector.shouldPublish(feed(entities, 1000)));
+        assertTrue(detector.shouldPublish(feed(entities.subList(1, entities.size()), 1000)));
+        assertTrue(detector.shouldPublish(feed(entities, 1000)));
+    }
+
+    @Test
+    public void testUnchangedFeedIsPublishedAfterMaxInterval() {
+        assertTrue(detector.shouldPublish(feed(entities, 1000)));
+        clock.advance(Duration.ofSeconds(30));
+        assertFalse(detector.shouldPublish(feed(entities, 1030)));
+        clock.advance(Duration.ofSeconds(30));
+        assertTrue(detector.shouldPublish(feed(entities, 1060)));
+        clock.advance(Duration.ofSeconds(30));
+        assertFalse(detector.shouldPublish(feed(entities, 1090)));
+    }
+
+    @Test
+    public void testUnchangedFeedIsPublishedAfterReset() {
+        assertTrue(detector.shouldPublish(feed(entities, 1000)));
+        detector.reset();
+        assertTrue(detector.shouldPublish(feed(entities, 1000)));
+    }
+
+    @Test
+    public void testEntitiesOffsetSkipsHeader() {
+        final GtfsRealtime.FeedMessage feedMessage = FeedMessageFactory.createFullFeedMessage(entities, 1000);
+        final byte[] payload = feedMessage.toByteArray();
+
+        final int offset = FeedChangeDetector.findEntitiesOffset(payload);
+        assertEquals(CodedOutputStream.computeMessageSize(GtfsRealtime.FeedMessage.HEADER_FIELD_NUMBER, feedMessage.getHeader()), offset);
+    }
+}
@@ -0,0 +1,100 @@
+package fi.hsl.transitdata.alert;
+
+import com.google.transit.realtime.GtfsRealtime;
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FeedEntityCacheTest {
+
+    private List<InternalMessages.Bulletin> readDefaultMockBulletins() throws IOException {
+        try (InputStream is = getClass().getClassLoader().getResourceAsStream("alert.pb")) {
+            return InternalMessages.ServiceAlert.parseFrom(is.readAllBytes()).getBulletinsList();
+        }
+    }
+
+    @Test
+    public void testCachedEntitiesAreEqualToConvertedEntities() throws Exception {
+        final List<InternalMessages.Bulletin> bulletins = readDefaultMockBulletins();
+        final FeedEntityCache cache = new FeedEntityCache(1000);
+
+        final List<GtfsRealtime.FeedEntity> expected = AlertHandler.createFeedEntities(bulletins, true);
+        assertEquals(expected, cache.createFeedEntities(bulletins, true));
+        assertEquals(0, cache.getHitCount());
+        assertEquals(bulletins.size(), cache.getMissCount());
+
+        assertEquals(expected, cache.createFeedEntities(bulletins, true));
+        assertEquals(bulletins.size(), cache.getHitCount());
+        assertEquals(bulletins.size(), cache.getMissCount());
+    }
+
+    @Test
+    public void testDiscardedBulletinsAreCountedWhenServedFromCache() throws Exception {
+        final InternalMessages.Bulletin bulletin = readDefaultMockBulletins().get(0);
+        final List<InternalMessages.Bulletin> bulletins = List.of(
+                bulletin.toBuilder().setBulletinId("display-only").setDisplayOnly(true).build(),
+                bulletin.toBuilder().setBulletinId("no-informed-entities").setAffectsAllRoutes(false).setAffectsAllStops(false).clearAffectedRoutes().clearAffectedStops().build());
+        final FeedEntityCache cache = new FeedEntityCache(1000);
+        final long displayOnlyBefore = AlertHandler.discardedDisplayOnlyBulletins.sum();
+        final long noInformedEntitiesBefore = AlertHandler.discardedBulletinsWithoutInformedEntities.sum();
+
+        assertTrue(cache.createFeedEntities(bulletins, true).isEmpty());
+        assertTrue(cache.createFeedEntities(bulletins, true).isEmpty());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, AlertHandler.discardedDisplayOnlyBulletins.sum() - displayOnlyBefore);
+        assertEquals(2, AlertHandler.discardedBulletinsWithoutInformedEntities.sum() - noInformedEntitiesBefore);
+    }
+
+    @Test
+    public void testChangedBulletinIsConvertedAgain() throws Exception {
+        final List<InternalMessages.Bulletin> bulletins = new ArrayList<>(readDefaultMockBulletins());
+        final FeedEntityCache cache = new FeedEntityCache(1000);
+        cache.createFeedEntities(bulletins, true);
+
+        final InternalMessages.Bulletin changed = bulletins.get(0).toBuilder()
+                .setImpact(InternalMessages.Bulletin.Impact.DISRUPTION_ROUTE)
+                .build();
+        bulletins.set(0, changed);
+
+        final List<GtfsRealtime.FeedEntity> entities = cache.createFeedEntities(bulletins, true);
+        assertEquals(GtfsRealtime.Alert.Effect.DETOUR, entities.get(0).getAlert().getEffect());
+        assertEquals(bulletins.size() - 1, cache.getHitCount());
+        assertEquals(bulletins.size() + 1, cache.getMissCount());
+    }
+
+    @Test
+    public void testChangedSettingsAreNotServedFromCache() throws Exception {
+        final List<InternalMessages.Bulletin> bulletins = readDefaultMockBulletins();
+        final FeedEntityCache cache = new FeedEntityCache(1000);
+        cache.createFeedEntities(bulletins, true);
+        cache.createFeedEntities(bulletins, false);
+
+        assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    public void testBulletinsMissingFromSnapshotAreEvicted() throws Exception {
+        final List<InternalMessages.Bulletin> bulletins = readDefaultMockBulletins();
+        final FeedEntityCache cache = new FeedEntityCache(1000);
+        cache.createFeedEntities(bulletins, true);
+        assertEquals(bulletins.size(), cache.size());
+
+        cache.createFeedEntities(bulletins.subList(0, 2), true);
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testCacheSizeIsBounded() throws Exception {
+        final List<InternalMessages.Bulletin> bulletins = readDefaultMockBulletins();
+        final FeedEntityCache cache = new FeedEntityCache(3);
+
+        assertEquals(AlertHandler.createFeedEntities(bulletins, true), cache.createFeedEntities(bulletins, true));
+        assertEquals(3, cache.size());
+    }
+}
@@ -0,0 +1,97 @@
+package fi.hsl.transitdata.alert;
+
+import com.google.transit.realtime.GtfsRealtime;
+import fi.hsl.common.gtfsrt.FeedMessageFactory;
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import org.apache.pulsar.client.api.Consumer;
+import org.apache.pulsar.client.api.MessageId;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class JsonFeedRendererTest {
+    private static final long TIMESTAMP = 1_600_000_000L;
+
+    private static String render(final JsonFeedRenderer renderer, final List<GtfsRealtime.FeedEntity> entities) {
+        return new String(renderer.render(FeedMessageFactory.createFullFeedMessage(entities, TIMESTAMP).getHeader(), entities), StandardCharsets.UTF_8);
+    }
+
+    private static String print(final List<GtfsRealtime.FeedEntity> entities) {
+        return GtfsRtJson.print(FeedMessageFactory.createFullFeedMessage(entities, TIMESTAMP));
+    }
+
+    @Test
+    public void testMessageIsPrintedWithProto3JsonMapping() {
+        final GtfsRealtime.FeedMessage feedMessage = GtfsRealtime.FeedMessage.newBuilder()
+                .setHeader(GtfsRealtime.FeedHeader.newBuilder()
+                        .setGtfsRealtimeVersion("2.0")
+                        .setIncrementality(GtfsRealtime.FeedHeader.Incrementality.FULL_DATASET)
+                        .setTimestamp(TIMESTAMP))
+                .addEntity(GtfsRealtime.FeedEntity.newBuilder()
+                        .setId("<1>")
+                        .setAlert(GtfsRealtime.Alert.newBuilder()
+                                .addActivePeriod(GtfsRealtime.TimeRange.newBuilder().setStart(1).setEnd(2))
+                                .addInformedEntity(EntitySelectorPool.AGENCY_SELECTOR)
+                                .addInformedEntity(GtfsRealtime.EntitySelector.newBuilder().setRouteId("2550").setRouteType(3))
+                                .setCause(GtfsRealtime.Alert.Cause.WEATHER)
+                                .setHeaderText(GtfsRealtime.TranslatedString.newBuilder()
+                                        .addTranslation(GtfsRealtime.TranslatedString.Translation.newBuilder().setText("Sää \"huono\"\n& kylmä").setLanguage("fi")))))
+                .build();
+
+        assertEquals("{\"header\":{\"gtfsRealtimeVersion\":\"2.0\",\"incrementality\":\"FULL_DATASET\",\"timestamp\":\"1600000000\"},"
+                + "\"entity\":[{\"id\":\"\\u003c1\\u003e\",\"alert\":{\"activePeriod\":[{\"start\":\"1\",\"end\":\"2\"}],"
+                + "\"informedEntity\":[{\"agencyId\":\"HSL\"},{\"routeId\":\"2550\",\"routeType\":3}],\"cause\":\"WEATHER\","
+                + "\"headerText\":{\"translation\":[{\"text\":\"Sää \\\"huono\\\"\\n\\u0026 kylmä\",\"language\":\"fi\"}]}}}]}",
+                GtfsRtJson.print(feedMessage));
+    }
+
+    @Test
+    public void testRenderedFeedIsSameAsPrintedFeed() {
+        final InternalMessages.ServiceAlert serviceAlert = new ServiceAlertGenerator(20, 5, 10, 3).generate(1);
+        final List<GtfsRealtime.FeedEntity> entities = AlertHandler.createFeedEntities(serviceAlert.getBulletinsList(), true);
+        final JsonFeedRenderer renderer = new JsonFeedRenderer();
+
+        assertEquals(print(Collections.emptyList()), render(renderer, Collections.emptyList()));
+        assertEquals(print(entities), render(renderer, entities));
+        assertEquals(20, renderer.getMissCount());
+
+        //One changed and one removed entity, unchanged entities are reused even if they are different instances
+        final List<GtfsRealtime.FeedEntity> changed = new ArrayList<>(AlertHandler.createFeedEntities(serviceAlert.getBulletinsList(), true));
+        changed.set(3, changed.get(3).toBuilder().setAlert(changed.get(3).getAlert().toBuilder().setCause(GtfsRealtime.Alert.Cause.STRIKE)).build());
+        changed.remove(7);
+        assertEquals(print(changed), render(renderer, changed));
+        assertEquals(21, renderer.getMissCount());
+        assertEquals(18, renderer.getHitCount());
+        assertEquals(19, renderer.size());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testHandlerPublishesJsonFeeds() throws Exception {
+        final Consumer<byte[]> consumer = mock(Consumer.class);
+        when(consumer.acknowledgeAsync(any(MessageId.class))).thenReturn(CompletableFuture.completedFuture(null));
+        final StubProducer producer = new StubProducer(true);
+        final StubProducer jsonProducer = new StubProducer(true);
+        final AlertHandler handler = new AlertHandler(TestUtils.createConfig(Map.of("application.json.enabled", true)), consumer, producer.getProducer(),
+                StubProducer.factory(topic -> "gtfs-service-alert-json".equals(topic) ? jsonProducer.getProducer() : new StubProducer(true).getProducer()));
+
+        final byte[] data = TestUtils.readProtobufFromResourceFile("alert.pb");
+        handler.handleMessage(TestUtils.mockServiceAlertMessage(data, TIMESTAMP * 1000));
+
+        assertEquals(1, jsonProducer.getSentMessages().size());
+        final StubProducer.SentMessage sent = jsonProducer.getSentMessages().get(0);
+        assertEquals(GtfsRtJson.print(GtfsRealtime.FeedMessage.parseFrom(producer.getSentMessages().get(0).value)), new String(sent.value, StandardCharsets.UTF_8));
+        assertEquals(TIMESTAMP * 1000, sent.eventTime);
+        assertTrue(handler.getMetrics().scrape().contains("transitdata_alert_processor_json_feeds_total 1.0\n"));
+    }
+}
@@ -0,0 +1,107 @@
+package fi.hsl.transitdata.alert;
+
+import com.google.transit.realtime.GtfsRealtime;
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class KeyedEntityPublisherTest {
+    private List<GtfsRealtime.FeedEntity> entities;
+
+    @Before
+    public void setUp() throws Exception {
+        final InternalMessages.ServiceAlert alert = InternalMessages.ServiceAlert.parseFrom(TestUtils.readProtobufFromResourceFile("alert.pb"));
+        entities = AlertHandler.createFeedEntities(alert.getBulletinsList(), true);
+    }
+
+    private static List<String> keys(final List<StubProducer.SentMessage> messages) {
+        return messages.stream().map(message -> message.key).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testEachAlertIsPublishedWithItsId() throws Exception {
+        final StubProducer stubProducer = new StubProducer(true);
+        final KeyedEntityPublisher publisher = new KeyedEntityPublisher(stubProducer.getProducer());
+        publisher.publish(entities, 1_600_000_000_000L);
+
+        final List<StubProducer.SentMessage> messages = stubProducer.getSentMessages();
+        assertEquals(entities.stream().map(GtfsRealtime.FeedEntity::getId).collect(Collectors.toList()), keys(messages));
+        for (int i = 0; i < entities.size(); i++) {
+            final GtfsRealtime.FeedMessage feedMessage = GtfsRealtime.FeedMessage.parseFrom(messages.get(i).value);
+            assertEquals(GtfsRealtime.FeedHeader.Incrementality.DIFFERENTIAL, feedMessage.getHeader().getIncrementality());
+            assertEquals(1_600_000_000L, feedMessage.getHeader().getTimestamp());
+            assertEquals(entities.get(i), feedMessage.getEntity(0));
+        }
+        assertEquals(entities.size(), publisher.getPublishedEntityCount());
+    }
+
+    @Test
+    public void testOnlyChangesAndTombstonesArePublished() {
+        final StubProducer stubProducer = new StubProducer(true);
+        final KeyedEntityPublisher publisher = new KeyedEntityPublisher(stubProducer.getProducer());
+        publisher.publish(entities, 1000);
+        publisher.publish(entities, 2000);
+        assertEquals(entities.size(), stubProducer.getSentMessages().size());
+
+        final List<GtfsRealtime.FeedEntity> changed = new ArrayList<>(entities.subList(1, entities.size()));
+        changed.set(0, changed.get(0).toBuilder().setAlert(changed.get(0).getAlert().toBuilder().setEffect(GtfsRealtime.Alert.Effect.DETOUR)).build());
+        publisher.publish(changed, 3000);
+
+        final List<StubProducer.SentMessage> messages = stubProducer.getSentMessages().subList(entities.size(), stubProducer.getSentMessages().size());
+        assertEquals(2, messages.size());
+        assertEquals(changed.get(0).getId(), messages.get(0).key);
+        assertEquals(entities.get(0).getId(), messages.get(1).key);
+        assertEquals(0, messages.get(1).value.length);
+        assertEquals(1, publisher.getPublishedTombstoneCount());
+    }
+
+    @Test
+    public void testFailedMessagesAreSentAgain() {
+        final StubProducer stubProducer = new StubProducer(false);
+        final KeyedEntityPublisher publisher = new KeyedEntityPublisher(stubProducer.getProducer());
+        publisher.publish(entities, 1000);
+        final List<StubProducer.SentMessage> first = stubProducer.getSentMessages();
+        first.get(2).fail(new RuntimeException("Broker unavailable"));
+        first.stream().filter(message -> !message.future.isDone()).forEach(StubProducer.SentMessage::persist);
+
+        //Unchanged alert is sent again because its message failed
+        publisher.publish(entities.subList(1, entities.size()), 2000);
+        final List<StubProducer.SentMessage> second = stubProducer.getSentMessages().subList(first.size(), stubProducer.getSentMessages().size());
+        assertEquals(List.of(entities.get(0).getId(), entities.get(2).getId()), keys(second));
+        second.forEach(StubProducer.SentMessage::persist);
+        assertEquals(1, publisher.getPublishedTombstoneCount());
+        assertEquals(entities.size(), publisher.getPublishedEntityCount());
+        assertEquals(1, publisher.getFailedMessageCount());
+    }
+
+    @Test
+    public void testStaleKeysAreRemovedAfterStandby() {
+        final StubProducer stubProducer = new StubProducer(true);
+        final KeyedEntityPublisher publisher = new KeyedEntityPublisher(stubProducer.getProducer(), () -> Set.of("stale", entities.get(1).getId()));
+        //First bulletin is removed while standby, and the topic has a key this instance has never seen
+        publisher.update(entities, 1000);
+        publisher.update(entities.subList(1, entities.size()), 2000);
+        assertTrue(stubProducer.getSentMessages().isEmpty());
+
+        publisher.takeOver();
+        final List<StubProducer.SentMessage> messages = stubProducer.getSentMessages();
+        final List<String> expectedKeys = entities.subList(1, entities.size()).stream().map(GtfsRealtime.FeedEntity::getId).collect(Collectors.toList());
+        assertEquals(expectedKeys, keys(messages.subList(0, expectedKeys.size())));
+        final List<StubProducer.SentMessage> tombstones = messages.subList(expectedKeys.size(), messages.size());
+        assertEquals(Set.of("stale", entities.get(0).getId()), new HashSet<>(keys(tombstones)));
+        assertTrue(tombstones.stream().allMatch(message -> message.value.length == 0));
+        assertEquals(2000, messages.get(0).eventTime);
+
+        //Only changes are published after reconciling
+        publisher.publish(entities.subList(1, entities.size()), 3000);
+        assertEquals(messages.size(), stubProducer.getSentMessages().size());
+    }
+}
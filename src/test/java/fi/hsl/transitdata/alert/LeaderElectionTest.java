@@ -0,0 +1,281 @@
+package fi.hsl.transitdata.alert;
+
+import com.google.transit.realtime.GtfsRealtime;
+import com.typesafe.config.Config;
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import org.apache.pulsar.client.api.Producer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs two instances in cluster mode with their own subscriptions, using in-process stand-ins for Pulsar
+ */
+public class LeaderElectionTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static class Instance {
+        final InProcessPulsar pulsar;
+        final LongAdder acked = new LongAdder();
+        //Producers of the differential, keyed and JSON topics
+        final Map<String, StubProducer> secondaryProducers = new ConcurrentHashMap<>();
+        final AlertHandler handler;
+
+        Instance(final Config config, final InProcessLease lease) throws Exception {
+            pulsar = new InProcessPulsar(receivedNs -> acked.increment());
+            handler = new AlertHandler(config, pulsar.getConsumer(), pulsar.createProducer("gtfs-service-alerts"), new ProducerFactory() {
+                @Override
+                public Producer<byte[]> createProducer(final String topic) {
+                    return secondaryProducers.computeIfAbsent(topic, t -> new StubProducer(true)).getProducer();
+                }
+
+                @Override
+                public CompletableFuture<Producer<byte[]>> createExclusiveProducerAsync(final String topic) {
+                    return lease.acquire();
+                }
+            });
+        }
+
+        void handle(final byte[] data, final long eventTimeMs) throws Exception {
+            pulsar.receive(data, eventTimeMs);
+            handler.handleMessage(pulsar.poll());
+            handler.awaitPendingMessages();
+        }
+
+        boolean isLeader() {
+            return handler.getMetrics().scrape().contains("transitdata_alert_processor_leader 1.0\n");
+        }
+    }
+
+    /**
+     * Grants exclusive access to one producer at a time like the broker does for WaitForExclusive producers
+     */
+    private static class InProcessLease {
+        private final Deque<CompletableFuture<Producer<byte[]>>> waiting = new ArrayDeque<>();
+        private Producer<byte[]> holder;
+        private AtomicBoolean holderConnected;
+
+        synchronized CompletableFuture<Producer<byte[]>> acquire() {
+            final CompletableFuture<Producer<byte[]>> future = new CompletableFuture<>();
+            waiting.add(future);
+            grantNext();
+            return future;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void grantNext() {
+            if (holder != null || waiting.isEmpty()) {
+                return;
+            }
+            final Producer<byte[]> producer = mock(Producer.class);
+            final AtomicBoolean connected = new AtomicBoolean(true);
+            when(producer.isConnected()).thenAnswer(invocation -> connected.get());
+            when(producer.closeAsync()).thenAnswer(invocation -> {
+                release(producer);
+                return CompletableFuture.completedFuture(null);
+            });
+            holder = producer;
+            holderConnected = connected;
+            waiting.poll().complete(producer);
+        }
+
+        private synchronized void release(final Producer<byte[]> producer) {
+            if (holder == producer) {
+                holder = null;
+                grantNext();
+            }
+        }
+
+        /**
+         * Simulates losing the connection of the current holder, which lets the next producer in
+         */
+        synchronized void disconnectHolder() {
+            holderConnected.set(false);
+            holder = null;
+            grantNext();
+        }
+    }
+
+    private static void await(final Instance instance, final boolean leader) throws InterruptedException {
+        final long deadlineMs = System.currentTimeMillis() + 5000;
+        while (instance.isLeader() != leader) {
+            assertTrue("Leadership did not change in time", System.currentTimeMillis() < deadlineMs);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Waits until the instance has published its feeds after becoming the leader
+     */
+    private static void awaitTakeover(final Instance instance) throws InterruptedException {
+        final long deadlineMs = System.currentTimeMillis() + 5000;
+        while (!instance.handler.getMetrics().scrape().contains("transitdata_alert_processor_leader_takeovers_total 1.0\n")) {
+            assertTrue("Takeover did not finish in time", System.currentTimeMillis() < deadlineMs);
+            Thread.sleep(10);
+        }
+    }
+
+    private static byte[] readServiceAlert() throws Exception {
+        return TestUtils.readProtobufFromResourceFile("alert.pb");
+    }
+
+    @Test
+    public void testStandbyTakesOverWhenLeaderReleasesLockFile() throws Exception {
+        final Config config = TestUtils.createConfig(Map.of("application.cluster.enabled", true,
+                "application.cluster.election", "lockFile",
+                "application.cluster.lockFile", folder.getRoot().toPath().resolve("leader.lock").toString(),
+                "application.cluster.checkInterval", "20 ms"));
+        final Instance first = new Instance(config, null);
+        final Instance second = new Instance(config, null);
+        assertTrue(first.isLeader());
+        assertFalse(second.isLeader());
+
+        final byte[] data = readServiceAlert();
+        first.handle(data, 1_600_000_000_000L);
+        second.handle(data, 1_600_000_000_000L);
+        assertEquals(1, first.pulsar.getSentMessageCount());
+        //Standby converts and acknowledges the message without publishing it
+        assertEquals(0, second.pulsar.getSentMessageCount());
+        assertEquals(1, second.acked.sum());
+        assertTrue(second.handler.getMetrics().scrape().contains("transitdata_alert_processor_standby_feeds_total 1.0\n"));
+
+        first.handler.close();
+        awaitTakeover(second);
+        //Latest converted feed is published right after taking over
+        assertEquals(1, second.pulsar.getSentMessageCount());
+        final String scraped = second.handler.getMetrics().scrape();
+        assertTrue(scraped.contains("transitdata_alert_processor_leader_takeovers_total 1.0\n"));
+        assertFalse(scraped.contains("transitdata_alert_processor_leader_takeover_latency_seconds NaN\n"));
+
+        second.handle(data, 1_600_000_001_000L);
+        assertEquals(2, second.pulsar.getSentMessageCount());
+        second.handler.close();
+    }
+
+    @Test
+    public void testLeaderStepsDownWhenExclusiveProducerIsDisconnected() throws Exception {
+        final Config config = TestUtils.createConfig(Map.of("application.cluster.enabled", true,
+                "application.cluster.election", "exclusiveProducer",
+                "application.cluster.checkInterval", "20 ms"));
+        final InProcessLease lease = new InProcessLease();
+        final Instance first = new Instance(config, lease);
+        await(first, true);
+        final Instance second = new Instance(config, lease);
+
+        final byte[] data = readServiceAlert();
+        first.handle(data, 1_600_000_000_000L);
+        second.handle(data, 1_600_000_000_000L);
+        assertEquals(1, first.pulsar.getSentMessageCount());
+        assertEquals(0, second.pulsar.getSentMessageCount());
+
+        lease.disconnectHolder();
+        await(second, true);
+        await(first, false);
+        assertEquals(1, second.pulsar.getSentMessageCount());
+
+        first.handle(data, 1_600_000_001_000L);
+        second.handle(data, 1_600_000_001_000L);
+        assertEquals(1, first.pulsar.getSentMessageCount());
+        assertEquals(2, second.pulsar.getSentMessageCount());
+
+        first.handler.close();
+        second.handler.close();
+    }
+
+    @Test
+    public void testOnlyOneInstancePublishesAfterLeaderIsDisconnected() throws Exception {
+        //First instance does not check its leadership periodically during the test, so only the check done while
+        //publishing can stop it
+        final Config slowConfig = TestUtils.createConfig(Map.of("application.cluster.enabled", true,
+                "application.cluster.election", "exclusiveProducer",
+                "application.cluster.checkInterval", "1 hour"));
+        final Config config = TestUtils.createConfig(Map.of("application.cluster.enabled", true,
+                "application.cluster.election", "exclusiveProducer",
+                "application.cluster.checkInterval", "20 ms"));
+        final InProcessLease lease = new InProcessLease();
+        final Instance first = new Instance(slowConfig, lease);
+        await(first, true);
+        final Instance second = new Instance(config, lease);
+
+        final byte[] data = readServiceAlert();
+        first.handle(data, 1_600_000_000_000L);
+        second.handle(data, 1_600_000_000_000L);
+        assertEquals(1, first.pulsar.getSentMessageCount());
+        assertEquals(0, second.pulsar.getSentMessageCount());
+
+        //Access is given to the standby right away, before the previous leader has checked its connection
+        lease.disconnectHolder();
+        awaitTakeover(second);
+        assertEquals(1, second.pulsar.getSentMessageCount());
+
+        first.handle(data, 1_600_000_001_000L);
+        second.handle(data, 1_600_000_001_000L);
+        assertEquals(1, first.pulsar.getSentMessageCount());
+        assertEquals(2, second.pulsar.getSentMessageCount());
+
+        first.handler.close();
+        second.handler.close();
+    }
+
+    @Test
+    public void testSecondaryFeedsAreResyncedWhenTakingOver() throws Exception {
+        final Config config = TestUtils.createConfig(Map.of("application.cluster.enabled", true,
+                "application.cluster.election", "lockFile",
+                "application.cluster.lockFile", folder.getRoot().toPath().resolve("leader.lock").toString(),
+                "application.cluster.checkInterval", "20 ms",
+                "application.differential.enabled", true,
+                "application.keyedEntities.enabled", true,
+                "application.json.enabled", true));
+        final Instance first = new Instance(config, null);
+        final Instance second = new Instance(config, null);
+        assertTrue(first.isLeader());
+
+        final InternalMessages.ServiceAlert snapshot = new ServiceAlertGenerator(5, 2, 3, 3).generate(1);
+        first.handle(snapshot.toByteArray(), 1_600_000_000_000L);
+        second.handle(snapshot.toByteArray(), 1_600_000_000_000L);
+        //Standby does not publish secondary feeds
+        for (final StubProducer producer : second.secondaryProducers.values()) {
+            assertTrue(producer.getSentMessages().isEmpty());
+        }
+
+        //First bulletin is removed after the leader has stopped processing messages
+        final InternalMessages.ServiceAlert removed = snapshot.toBuilder().removeBulletins(0).build();
+        final String removedId = snapshot.getBulletins(0).getBulletinId();
+        second.handle(removed.toByteArray(), 1_600_000_001_000L);
+        first.handler.close();
+        awaitTakeover(second);
+
+        final List<StubProducer.SentMessage> keyed = second.secondaryProducers.get("gtfs-service-alert-entities").getSentMessages();
+        assertEquals(5, keyed.size());
+        assertTrue(keyed.stream().anyMatch(message -> message.key.equals(removedId) && message.value.length == 0));
+        final Set<String> publishedIds = keyed.stream().filter(message -> message.value.length > 0).map(message -> message.key).collect(Collectors.toSet());
+        assertEquals(removed.getBulletinsList().stream().map(InternalMessages.Bulletin::getBulletinId).collect(Collectors.toSet()), publishedIds);
+
+        final List<StubProducer.SentMessage> differential = second.secondaryProducers.get("gtfs-service-alert-differential").getSentMessages();
+        assertEquals(1, differential.size());
+        final GtfsRealtime.FeedMessage fullDataset = GtfsRealtime.FeedMessage.parseFrom(differential.get(0).value);
+        assertEquals(GtfsRealtime.FeedHeader.Incrementality.FULL_DATASET, fullDataset.getHeader().getIncrementality());
+        assertEquals(4, fullDataset.getEntityCount());
+
+        final List<StubProducer.SentMessage> json = second.secondaryProducers.get("gtfs-service-alert-json").getSentMessages();
+        assertEquals(1, json.size());
+        assertEquals(1_600_000_001_000L, json.get(0).eventTime);
+        second.handler.close();
+    }
+}
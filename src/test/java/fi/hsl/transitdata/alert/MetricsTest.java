@@ -0,0 +1,79 @@
+package fi.hsl.transitdata.alert;
+
+import org.apache.pulsar.client.api.Consumer;
+import org.apache.pulsar.client.api.MessageId;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class MetricsTest {
+    @Test
+    public void testHistogramIsWrittenInPrometheusFormat() {
+        final Metrics metrics = new Metrics();
+        final Metrics.Histogram histogram = metrics.histogram("test_seconds", "Test histogram", 0.1, 1);
+        histogram.observe(0.05);
+        histogram.observe(0.1);
+        histogram.observe(0.5);
+        histogram.observe(5);
+
+        final String scraped = metrics.scrape();
+        assertTrue(scraped.contains("# TYPE transitdata_alert_processor_test_seconds histogram\n"));
+        assertTrue(scraped.contains("transitdata_alert_processor_test_seconds_bucket{le=\"0.1\"} 2\n"));
+        assertTrue(scraped.contains("transitdata_alert_processor_test_seconds_bucket{le=\"1.0\"} 3\n"));
+        assertTrue(scraped.contains("transitdata_alert_processor_test_seconds_bucket{le=\"+Inf\"} 4\n"));
+        assertTrue(scraped.contains("transitdata_alert_processor_test_seconds_count 4\n"));
+        assertEquals(5.65, histogram.getSum(), 0.0001);
+    }
+
+    @Test
+    public void testCountersAreWrittenWithLabels() {
+        final Metrics metrics = new Metrics();
+        metrics.counter("test_total", "Test counter").add(3);
+        metrics.gauge("test_gauge", "Test gauge", Collections.singletonMap("stage=\"convert\"", () -> 2));
+
+        final String scraped = metrics.scrape();
+        assertTrue(scraped.contains("transitdata_alert_processor_test_total 3.0\n"));
+        assertTrue(scraped.contains("transitdata_alert_processor_test_gauge{stage=\"convert\"} 2.0\n"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testHandlerMetricsAreServedOverHttp() throws Exception {
+        final Consumer<byte[]> consumer = mock(Consumer.class);
+        when(consumer.acknowledgeAsync(any(MessageId.class))).thenReturn(CompletableFuture.completedFuture(null));
+        final AlertHandler handler = new AlertHandler(TestUtils.createConfig(Collections.emptyMap()), consumer, new StubProducer(true).getProducer(), StubProducer.factory());
+
+        final byte[] data = TestUtils.readProtobufFromResourceFile("alert.pb");
+        handler.handleMessage(TestUtils.mockServiceAlertMessage(data, System.currentTimeMillis()));
+        handler.handleMessage(TestUtils.mockServiceAlertMessage(new byte[] { 1, 2, 3 }, System.currentTimeMillis()));
+
+        try (HttpEndpointServer server = new HttpEndpointServer(0, 1)) {
+            server.addTextEndpoint("/metrics", "text/plain", handler.getMetrics()::scrape);
+            server.start();
+
+            final HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + server.getPort() + "/metrics").openConnection();
+            assertEquals(200, connection.getResponseCode());
+            final String body;
+            try (InputStream in = connection.getInputStream()) {
+                body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+
+            assertTrue(body.contains("transitdata_alert_processor_received_messages_total 2.0\n"));
+            assertTrue(body.contains("transitdata_alert_processor_failed_messages_total 1.0\n"));
+            assertTrue(body.contains("transitdata_alert_processor_published_feeds_total 1.0\n"));
+            assertTrue(body.contains("transitdata_alert_processor_bulletins_per_snapshot_count 1\n"));
+            assertTrue(body.contains("transitdata_alert_processor_end_to_end_lag_seconds_count 1\n"));
+            assertTrue(body.contains("transitdata_alert_processor_discarded_bulletins_total{reason=\"display_only\"}"));
+        }
+    }
+}
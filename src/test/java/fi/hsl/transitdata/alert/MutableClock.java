@@ -0,0 +1,41 @@
+package fi.hsl.transitdata.alert;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+/**
+ * Clock whose time is advanced manually by the test
+ */
+class MutableClock extends Clock {
+    private volatile Instant instant;
+
+    MutableClock(final Instant instant) {
+        this.instant = instant;
+    }
+
+    void advance(final Duration duration) {
+        instant = instant.plus(duration);
+    }
+
+    void set(final Instant instant) {
+        this.instant = instant;
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(final ZoneId zone) {
+        return this;
+    }
+
+    @Override
+    public Instant instant() {
+        return instant;
+    }
+}
@@ -0,0 +1,78 @@
+package fi.hsl.transitdata.alert;
+
+import com.google.transit.realtime.GtfsRealtime;
+import fi.hsl.common.gtfsrt.FeedMessageFactory;
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.*;
+
+public class ParallelConverterTest {
+    private static final long TIMESTAMP = 1_600_000_000L;
+
+    private static List<InternalMessages.Bulletin> generateBulletins() {
+        final List<InternalMessages.Bulletin> bulletins = new ArrayList<>(new ServiceAlertGenerator(500, 5, 50, 3).generate(1).getBulletinsList());
+        //Bulletins without an alert must be left out without changing the order of the others
+        for (int i = 0; i < bulletins.size(); i += 7) {
+            bulletins.set(i, bulletins.get(i).toBuilder().setDisplayOnly(true).build());
+        }
+        return bulletins;
+    }
+
+    private static byte[] convertSequentially(final List<InternalMessages.Bulletin> bulletins) {
+        return FeedMessageFactory.createFullFeedMessage(AlertHandler.createFeedEntities(bulletins, true), TIMESTAMP).toByteArray();
+    }
+
+    @Test
+    public void testParallelConversionIsIdenticalToSequential() throws Exception {
+        final ParallelConverter converter = new ParallelConverter(4, 2, 0);
+
+        final List<InternalMessages.Bulletin> mockBulletins = InternalMessages.ServiceAlert.parseFrom(TestUtils.readProtobufFromResourceFile("alert.pb")).getBulletinsList();
+
+        for (final List<InternalMessages.Bulletin> bulletins : List.of(mockBulletins, generateBulletins())) {
+            assertTrue(converter.isParallelizable(bulletins));
+            final List<GtfsRealtime.FeedEntity> entities = converter.convert(bulletins, bulletin -> AlertHandler.createFeedEntity(bulletin, true));
+            assertArrayEquals(convertSequentially(bulletins), FeedMessageFactory.createFullFeedMessage(entities, TIMESTAMP).toByteArray());
+        }
+        assertEquals(2, converter.getParallelConversionCount());
+    }
+
+    @Test
+    public void testCachedParallelConversionIsIdenticalToSequential() {
+        final List<InternalMessages.Bulletin> bulletins = generateBulletins();
+        final ParallelConverter converter = new ParallelConverter(4, 2, 0);
+        final FeedEntityCache cache = new FeedEntityCache(1000, converter);
+
+        final byte[] expected = convertSequentially(bulletins);
+        assertArrayEquals(expected, FeedMessageFactory.createFullFeedMessage(cache.createFeedEntities(bulletins, true), TIMESTAMP).toByteArray());
+        assertArrayEquals(expected, FeedMessageFactory.createFullFeedMessage(cache.createFeedEntities(bulletins, true), TIMESTAMP).toByteArray());
+        assertEquals(bulletins.size(), cache.getHitCount());
+        assertEquals(2, converter.getParallelConversionCount());
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void testConversionIsRejectedAfterClose() {
+        final ParallelConverter converter = new ParallelConverter(2, 2, 0);
+        converter.close();
+        converter.convert(generateBulletins(), bulletin -> AlertHandler.createFeedEntity(bulletin, true));
+    }
+
+    @Test
+    public void testSmallSnapshotsAreNotParallelized() {
+        final ParallelConverter converter = new ParallelConverter(2, 100, 10_000);
+        final List<InternalMessages.Bulletin> bulletins = new ServiceAlertGenerator(50, 5, 20, 3).generate(1).getBulletinsList();
+
+        assertFalse(converter.isParallelizable(Collections.emptyList()));
+        assertFalse(converter.isParallelizable(bulletins.subList(0, 1)));
+        assertFalse(converter.isParallelizable(bulletins));
+        //50 bulletins with 25 routes and stops each
+        assertFalse(new ParallelConverter(2, 100, 1251).isParallelizable(bulletins));
+        assertTrue(new ParallelConverter(2, 100, 1250).isParallelizable(bulletins));
+        assertTrue(new ParallelConverter(2, 50, 10_000).isParallelizable(bulletins));
+    }
+}
@@ -0,0 +1,126 @@
+package fi.hsl.transitdata.alert;
+
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import org.apache.pulsar.client.api.Consumer;
+import org.apache.pulsar.client.api.MessageId;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class ProcessingPipelineTest {
+    @Test
+    public void testItemsLeaveParallelStagesInOrder() throws Exception {
+        final List<Integer> processed = Collections.synchronizedList(new ArrayList<>());
+        final ProcessingPipeline<Integer> pipeline = new ProcessingPipeline<Integer>(4, false, (item, e) -> fail(e.getMessage()))
+                .addStage("sleep", 4, item -> Thread.sleep(ThreadLocalRandom.current().nextInt(3)))
+                .addStage("record", 1, processed::add);
+        pipeline.start();
+
+        final List<Integer> submitted = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            pipeline.submit(i);
+            submitted.add(i);
+        }
+        pipeline.awaitIdle();
+        pipeline.close();
+
+        assertEquals(submitted, processed);
+    }
+
+    @Test
+    public void testFailedItemsAreNotPassedToNextStage() throws Exception {
+        final List<Integer> processed = Collections.synchronizedList(new ArrayList<>());
+        final List<Integer> failed = Collections.synchronizedList(new ArrayList<>());
+        final ProcessingPipeline<Integer> pipeline = new ProcessingPipeline<Integer>(2, true, (item, e) -> failed.add(item))
+                .addStage("validate", 2, item -> {
+                    if (item % 3 == 0) {
+                        throw new IllegalArgumentException("Invalid item " + item);
+                    }
+                })
+                .addStage("record", 1, processed::add);
+        pipeline.start();
+
+        for (int i = 0; i < 10; i++) {
+            pipeline.submit(i);
+        }
+        pipeline.awaitIdle();
+        pipeline.close();
+
+        assertEquals(List.of(1, 2, 4, 5, 7, 8), processed);
+        assertEquals(List.of(0, 3, 6, 9), failed);
+    }
+
+    @Test
+    public void testSubmitBlocksWhenFirstStageIsFull() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final ProcessingPipeline<Integer> pipeline = new ProcessingPipeline<Integer>(1, false, (item, e) -> fail(e.getMessage()))
+                .addStage("blocked", 1, item -> blocked.await());
+        pipeline.start();
+
+        pipeline.submit(1);
+        //The first item is being processed, the second one waits in the queue
+        pipeline.submit(2);
+        final Thread submitter = new Thread(() -> {
+            try {
+                pipeline.submit(3);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        submitter.start();
+        submitter.join(200);
+        assertTrue(submitter.isAlive());
+        assertEquals(1, pipeline.getQueueDepth("blocked"));
+
+        blocked.countDown();
+        submitter.join(5000);
+        assertFalse(submitter.isAlive());
+        pipeline.awaitIdle();
+        pipeline.close();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testPipelinePublishesSameFeedsAsSequentialProcessing() throws Exception {
+        final Consumer<byte[]> consumer = mock(Consumer.class);
+        when(consumer.acknowledgeAsync(any(MessageId.class))).thenReturn(CompletableFuture.completedFuture(null));
+
+        final StubProducer sequentialProducer = new StubProducer(true);
+        final AlertHandler sequential = new AlertHandler(TestUtils.createConfig(Collections.emptyMap()), consumer, sequentialProducer.getProducer(), StubProducer.factory());
+        final StubProducer pipelineProducer = new StubProducer(true);
+        final AlertHandler pipelined = new AlertHandler(TestUtils.createConfig(Map.of("application.pipeline.enabled", true,
+                "application.pipeline.decodeThreads", 2, "application.pipeline.encodeThreads", 2)), consumer, pipelineProducer.getProducer(), StubProducer.factory());
+
+        final InternalMessages.ServiceAlert snapshot = ServiceAlertGenerator.scale(
+                InternalMessages.ServiceAlert.parseFrom(TestUtils.readProtobufFromResourceFile("alert.pb")), 20);
+        final long startMs = System.currentTimeMillis();
+        for (int i = 0; i < 20; i++) {
+            final byte[] data = i == 10 ? new byte[] { 1, 2, 3 } : ServiceAlertGenerator.modify(snapshot, i, 2, startMs + i).toByteArray();
+            sequential.handleMessage(TestUtils.mockServiceAlertMessage(data, startMs + i));
+            pipelined.handleMessage(TestUtils.mockServiceAlertMessage(data, startMs + i));
+        }
+        pipelined.awaitPendingMessages();
+
+        final List<StubProducer.SentMessage> expected = sequentialProducer.getSentMessages();
+        final List<StubProducer.SentMessage> actual = pipelineProducer.getSentMessages();
+        assertEquals(19, expected.size());
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i).value, actual.get(i).value);
+            assertEquals(expected.get(i).eventTime, actual.get(i).eventTime);
+        }
+        verify(consumer, times(40)).acknowledgeAsync(any(MessageId.class));
+
+        final String scraped = pipelined.getMetrics().scrape();
+        assertTrue(scraped.contains("transitdata_alert_processor_pipeline_queue_depth{stage=\"publish\"} 0.0\n"));
+        assertTrue(scraped.contains("transitdata_alert_processor_failed_messages_total 1.0\n"));
+    }
+}
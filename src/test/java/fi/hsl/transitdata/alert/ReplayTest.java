@@ -0,0 +1,91 @@
+package fi.hsl.transitdata.alert;
+
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ReplayTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<ReplayRecording.RecordedMessage> createMessages(final int count, final long intervalMs) throws Exception {
+        final InternalMessages.ServiceAlert snapshot = ServiceAlertGenerator.scale(
+                InternalMessages.ServiceAlert.parseFrom(TestUtils.readProtobufFromResourceFile("alert.pb")), 10);
+        final List<ReplayRecording.RecordedMessage> messages = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final long eventTimeMs = 1_600_000_000_000L + i * intervalMs;
+            messages.add(new ReplayRecording.RecordedMessage(eventTimeMs, ServiceAlertGenerator.modify(snapshot, i, 1, eventTimeMs).toByteArray()));
+        }
+        return messages;
+    }
+
+    @Test
+    public void testScaledSnapshotHasUniqueBulletinIds() throws Exception {
+        final InternalMessages.ServiceAlert sample = InternalMessages.ServiceAlert.parseFrom(TestUtils.readProtobufFromResourceFile("alert.pb"));
+        final InternalMessages.ServiceAlert scaled = ServiceAlertGenerator.scale(sample, 3);
+
+        assertEquals(sample.getBulletinsCount() * 3, scaled.getBulletinsCount());
+        assertEquals(scaled.getBulletinsCount(), scaled.getBulletinsList().stream().map(InternalMessages.Bulletin::getBulletinId).distinct().count());
+        assertEquals(sample.getBulletins(0), scaled.getBulletins(0));
+    }
+
+    @Test
+    public void testRecordingIsReadFromFileAndDirectory() throws Exception {
+        final List<ReplayRecording.RecordedMessage> messages = createMessages(3, 1000);
+        final Path file = folder.getRoot().toPath().resolve("recording.bin");
+        ReplayRecording.write(file, messages);
+
+        final List<ReplayRecording.RecordedMessage> read = ReplayRecording.read(file);
+        assertEquals(3, read.size());
+        for (int i = 0; i < messages.size(); i++) {
+            assertEquals(messages.get(i).eventTimeMs, read.get(i).eventTimeMs);
+            assertArrayEquals(messages.get(i).data, read.get(i).data);
+        }
+
+        final Path directory = folder.newFolder("recording").toPath();
+        Files.write(directory.resolve("1600000002000.pb"), messages.get(1).data);
+        Files.write(directory.resolve("1600000001000.pb"), messages.get(0).data);
+        final List<ReplayRecording.RecordedMessage> readFromDirectory = ReplayRecording.read(directory);
+        assertEquals(2, readFromDirectory.size());
+        assertEquals(1_600_000_001_000L, readFromDirectory.get(0).eventTimeMs);
+        assertArrayEquals(messages.get(1).data, readFromDirectory.get(1).data);
+    }
+
+    @Test
+    public void testMessagesAreReplayedAsFastAsPossible() throws Exception {
+        final List<ReplayRecording.RecordedMessage> messages = createMessages(5, 60_000);
+        final ReplayDriver driver = new ReplayDriver(TestUtils.createConfig(Collections.emptyMap()));
+
+        final ReplayDriver.Report report = driver.replay(messages, false);
+        assertEquals(5, report.messages);
+        assertEquals(5L * InternalMessages.ServiceAlert.parseFrom(messages.get(0).data).getBulletinsCount(), report.bulletins);
+        assertEquals(5, report.latenciesNs.length);
+        assertEquals(5, report.sentMessages);
+        assertTrue(report.sentBytes > 0);
+        assertEquals(0, report.failedMessages);
+        assertTrue(report.getLatencyPercentileNs(50) <= report.getLatencyPercentileNs(99));
+        assertTrue(report.getMessagesPerSecond() > 0);
+    }
+
+    @Test
+    public void testMessagesArrivingDuringHandlingAreConflated() throws Exception {
+        final List<ReplayRecording.RecordedMessage> messages = createMessages(5, 0);
+        final ReplayDriver driver = new ReplayDriver(TestUtils.createConfig(Map.of("application.conflation.enabled", true)));
+
+        final ReplayDriver.Report report = driver.replay(messages, true);
+        //All messages are due at once, so only the newest one is converted and published
+        assertEquals(5, report.latenciesNs.length);
+        assertEquals(1, report.sentMessages);
+        assertEquals(4, driver.getHandler().getConflatedSnapshotCount());
+    }
+}
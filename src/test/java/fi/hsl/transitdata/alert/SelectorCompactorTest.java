@@ -0,0 +1,100 @@
+package fi.hsl.transitdata.alert;
+
+import com.google.transit.realtime.GtfsRealtime;
+import fi.hsl.common.gtfsrt.FeedMessageFactory;
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SelectorCompactorTest {
+    private static final long TIMESTAMP = 1_600_000_000L;
+
+    private static InternalMessages.ServiceAlert createServiceAlert() {
+        final InternalMessages.ServiceAlert.Builder builder = new ServiceAlertGenerator(10, 5, 50, 3).generate(1).toBuilder();
+        //Every third bulletin affects all stops, so its routes and stops are covered by the agency selector
+        for (int i = 0; i < builder.getBulletinsCount(); i += 3) {
+            builder.setBulletins(i, builder.getBulletins(i).toBuilder().setAffectsAllStops(true));
+        }
+        return builder.build();
+    }
+
+    private static int getInformedEntityCount(final List<GtfsRealtime.FeedEntity> entities, final int index) {
+        return entities.get(index).getAlert().getInformedEntityCount();
+    }
+
+    @Test
+    public void testSelectorsCoveredByAgencyAreDropped() {
+        final InternalMessages.ServiceAlert serviceAlert = createServiceAlert();
+        final List<GtfsRealtime.FeedEntity> entities = AlertHandler.createFeedEntities(serviceAlert.getBulletinsList(), true);
+        final SelectorCompactor compactor = new SelectorCompactor(true, 0);
+
+        final List<GtfsRealtime.FeedEntity> compacted = compactor.compactEntities(entities);
+        final long savedBytes = compactor.finishSnapshot();
+        assertEquals(entities.size(), compacted.size());
+        for (int i = 0; i < compacted.size(); i++) {
+            if (i % 3 == 0) {
+                assertEquals(Collections.singletonList(EntitySelectorPool.AGENCY_SELECTOR), compacted.get(i).getAlert().getInformedEntityList());
+            } else {
+                assertSame(entities.get(i), compacted.get(i));
+            }
+        }
+        assertEquals(4, compactor.getCompactedBulletinCount());
+        assertEquals(FeedMessageFactory.createFullFeedMessage(entities, TIMESTAMP).getSerializedSize()
+                - FeedMessageFactory.createFullFeedMessage(compacted, TIMESTAMP).getSerializedSize(), savedBytes, 4 * 4);
+
+        //Unchanged entities are compacted only once
+        final List<GtfsRealtime.FeedEntity> compactedAgain = compactor.compactEntities(entities);
+        assertSame(compacted.get(0), compactedAgain.get(0));
+        assertEquals(savedBytes, compactor.finishSnapshot());
+        assertEquals(4, compactor.getCompactedBulletinCount());
+    }
+
+    @Test
+    public void testAlertsWithTooManySelectorsAreTruncated() {
+        final InternalMessages.ServiceAlert serviceAlert = new ServiceAlertGenerator(2, 5, 50, 3).generate(1);
+        final List<GtfsRealtime.FeedEntity> entities = AlertHandler.createFeedEntities(serviceAlert.getBulletinsList(), true);
+
+        assertSame(entities, new SelectorCompactor(false, 55).compactEntities(entities));
+
+        final List<GtfsRealtime.FeedEntity> compacted = new SelectorCompactor(false, 54).compactEntities(entities);
+        assertEquals(55, getInformedEntityCount(entities, 0));
+        assertEquals(54, getInformedEntityCount(compacted, 0));
+        assertEquals(entities.get(0).getAlert().getInformedEntityList().subList(0, 54), compacted.get(0).getAlert().getInformedEntityList());
+    }
+
+    @Test
+    public void testCompactionDoesNotWidenNoServiceAlerts() throws Exception {
+        final InternalMessages.ServiceAlert.Builder builder = new ServiceAlertGenerator(1, 0, 60, 3).generate(1).toBuilder();
+        builder.setBulletins(0, builder.getBulletins(0).toBuilder().setImpact(InternalMessages.Bulletin.Impact.CANCELLED));
+        final InternalMessages.ServiceAlert serviceAlert = builder.build();
+        final List<GtfsRealtime.FeedEntity> entities = AlertHandler.createFeedEntities(serviceAlert.getBulletinsList(), true);
+        assertEquals(GtfsRealtime.Alert.Effect.NO_SERVICE, entities.get(0).getAlert().getEffect());
+        assertTrue(getInformedEntityCount(entities, 0) > 50);
+
+        final List<GtfsRealtime.FeedEntity> compacted = new SelectorCompactor(true, 50).compactEntities(entities);
+        final GtfsRealtime.Alert alert = compacted.get(0).getAlert();
+        assertEquals(50, alert.getInformedEntityCount());
+        assertFalse(alert.getInformedEntityList().contains(EntitySelectorPool.AGENCY_SELECTOR));
+        assertTrue(alert.getInformedEntityList().stream().allMatch(GtfsRealtime.EntitySelector::hasStopId));
+
+        final byte[] transcoded = new StreamingTranscoder(() -> AlertMapping.defaults(true), new SelectorCompactor(true, 50)).transcode(serviceAlert.toByteArray(), TIMESTAMP);
+        assertArrayEquals(FeedMessageFactory.createFullFeedMessage(compacted, TIMESTAMP).toByteArray(), transcoded);
+    }
+
+    @Test
+    public void testTranscodedSelectorsAreCompactedTheSameWay() throws Exception {
+        final InternalMessages.ServiceAlert serviceAlert = createServiceAlert();
+        final SelectorCompactor compactor = new SelectorCompactor(true, 0);
+        final List<GtfsRealtime.FeedEntity> entities = compactor.compactEntities(AlertHandler.createFeedEntities(serviceAlert.getBulletinsList(), true));
+        final long savedBytes = compactor.finishSnapshot();
+
+        final SelectorCompactor transcoderCompactor = new SelectorCompactor(true, 0);
+        final byte[] transcoded = new StreamingTranscoder(() -> AlertMapping.defaults(true), transcoderCompactor).transcode(serviceAlert.toByteArray(), TIMESTAMP);
+        assertArrayEquals(FeedMessageFactory.createFullFeedMessage(entities, TIMESTAMP).toByteArray(), transcoded);
+        assertEquals(savedBytes, transcoderCompactor.finishSnapshot());
+    }
+}
@@ -0,0 +1,185 @@
+package fi.hsl.transitdata.alert;
+
+import com.google.transit.realtime.GtfsRealtime;
+import fi.hsl.common.gtfsrt.FeedMessageFactory;
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import org.apache.pulsar.client.api.Consumer;
+import org.apache.pulsar.client.api.MessageId;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class SnapshotLimitsTest {
+    private static final long TIMESTAMP = 1_600_000_000L;
+
+    //Ceilings for the memory used for handling the pathological snapshot, which is about 16MB when serialized. Without
+    //the limits, handling it allocates about 500MB
+    private static final long MAX_ALLOCATED_BYTES_PER_MESSAGE = 32L * 1024 * 1024;
+    private static final long MAX_RETAINED_BYTES = 32L * 1024 * 1024;
+
+    private static SnapshotLimits createLimits() {
+        return new SnapshotLimits(1024 * 1024, 4, 2000, 10, 101);
+    }
+
+    private static InternalMessages.Bulletin withStops(final InternalMessages.Bulletin bulletin, final int stopCount) {
+        final InternalMessages.Bulletin.Builder builder = bulletin.toBuilder().clearAffectedStops();
+        for (int i = 0; i < stopCount; i++) {
+            builder.addAffectedStops(InternalMessages.Bulletin.AffectedEntity.newBuilder().setEntityId(Integer.toString(1_000_000 + i)));
+        }
+        return builder.build();
+    }
+
+    private static InternalMessages.Bulletin withDescription(final InternalMessages.Bulletin bulletin, final String text) {
+        return bulletin.toBuilder().setDescriptions(0, bulletin.getDescriptions(0).toBuilder().setText(text)).build();
+    }
+
+    private static InternalMessages.ServiceAlert createServiceAlert() {
+        final InternalMessages.ServiceAlert.Builder builder = new ServiceAlertGenerator(6, 2, 5, 3).generate(1).toBuilder();
+        builder.setBulletins(0, withStops(builder.getBulletins(0), 500));
+        builder.setBulletins(1, withStops(builder.getBulletins(1), 20));
+        builder.setBulletins(2, withDescription(builder.getBulletins(2), "ä".repeat(100)));
+        return builder.build();
+    }
+
+    @Test
+    public void testBulletinsOverLimitsAreDroppedOrTruncated() throws Exception {
+        final SnapshotLimits limits = createLimits();
+        final InternalMessages.ServiceAlert serviceAlert = createServiceAlert();
+
+        final InternalMessages.ServiceAlert limited = limits.parse(serviceAlert.toByteArray());
+        //First bulletin is too large and the last one is over the bulletin limit
+        assertEquals(List.of("10001", "10002", "10003", "10004"),
+                limited.getBulletinsList().stream().map(InternalMessages.Bulletin::getBulletinId).collect(Collectors.toList()));
+        assertEquals(1, limits.droppedTooLargeBulletins.sum());
+        assertEquals(1, limits.droppedTooManyBulletins.sum());
+
+        assertEquals(2, limited.getBulletins(0).getAffectedRoutesCount());
+        assertEquals(8, limited.getBulletins(0).getAffectedStopsCount());
+        assertEquals(serviceAlert.getBulletins(1).getAffectedStopsList().subList(0, 8), limited.getBulletins(0).getAffectedStopsList());
+        assertEquals(1, limits.truncatedSelectors.sum());
+
+        //Character that would be split is left out
+        assertEquals("ä".repeat(50), limited.getBulletins(1).getDescriptions(0).getText());
+        assertEquals(serviceAlert.getBulletins(2).getTitlesList(), limited.getBulletins(1).getTitlesList());
+        assertEquals(1, limits.truncatedTexts.sum());
+
+        assertEquals(serviceAlert.getBulletins(3), limited.getBulletins(2));
+        assertEquals(serviceAlert.getSchemaVersion(), limited.getSchemaVersion());
+    }
+
+    @Test
+    public void testTranscoderAppliesTheSameLimits() throws Exception {
+        final byte[] data = createServiceAlert().toByteArray();
+        final SnapshotLimits limits = createLimits();
+        final List<GtfsRealtime.FeedEntity> entities = AlertHandler.createFeedEntities(limits.parse(data).getBulletinsList(), true);
+
+        final SnapshotLimits transcoderLimits = createLimits();
+        final StreamingTranscoder transcoder = new StreamingTranscoder(() -> AlertMapping.defaults(true), null, transcoderLimits);
+        assertArrayEquals(FeedMessageFactory.createFullFeedMessage(entities, TIMESTAMP).toByteArray(), transcoder.transcode(data, TIMESTAMP));
+        assertEquals(4, transcoder.getBulletinCount());
+        assertEquals(limits.droppedTooLargeBulletins.sum(), transcoderLimits.droppedTooLargeBulletins.sum());
+        assertEquals(limits.droppedTooManyBulletins.sum(), transcoderLimits.droppedTooManyBulletins.sum());
+        assertEquals(limits.truncatedSelectors.sum(), transcoderLimits.truncatedSelectors.sum());
+        assertEquals(limits.truncatedTexts.sum(), transcoderLimits.truncatedTexts.sum());
+    }
+
+    @Test
+    public void testSelectorsAndTextsOverLimitsAreLeftOutWhileParsing() throws Exception {
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        //Bulletin within the size limit, but with far more stops than the limit and a long text
+        final InternalMessages.ServiceAlert.Builder builder = new ServiceAlertGenerator(2, 2, 5, 3).generate(1).toBuilder();
+        builder.setBulletins(0, withDescription(withStops(builder.getBulletins(0), 500_000), "x".repeat(1_000_000)));
+        final byte[] data = builder.build().toByteArray();
+        final SnapshotLimits limits = new SnapshotLimits(64 * 1024 * 1024, 10, 64 * 1024 * 1024, 1000, 1000);
+
+        final long threadId = Thread.currentThread().getId();
+        final long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        final InternalMessages.ServiceAlert limited = limits.parse(data);
+        final long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        assertEquals(1000, limited.getBulletins(0).getAffectedRoutesCount() + limited.getBulletins(0).getAffectedStopsCount());
+        assertEquals("x".repeat(1000), limited.getBulletins(0).getDescriptions(0).getText());
+        assertEquals(builder.getBulletins(1), limited.getBulletins(1));
+        //Parsing the whole bulletin allocates about 70MB
+        assertTrue("Parsing a snapshot of " + data.length + " bytes allocated " + allocated + " bytes", allocated < 4L * 1024 * 1024);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Consumer<byte[]> mockConsumer() {
+        final Consumer<byte[]> consumer = mock(Consumer.class);
+        when(consumer.acknowledgeAsync(any(MessageId.class))).thenReturn(CompletableFuture.completedFuture(null));
+        return consumer;
+    }
+
+    @Test
+    public void testTooLargeMessageIsRejected() throws Exception {
+        final StubProducer producer = new StubProducer(true);
+        final AlertHandler handler = new AlertHandler(TestUtils.createConfig(Map.of("application.limits.enabled", true,
+                "application.limits.maxMessageSize", "100 bytes")), mockConsumer(), producer.getProducer(), StubProducer.factory());
+
+        handler.handleMessage(TestUtils.mockServiceAlertMessage(createServiceAlert().toByteArray(), TIMESTAMP * 1000));
+        assertTrue(producer.getSentMessages().isEmpty());
+        final String scraped = handler.getMetrics().scrape();
+        assertTrue(scraped.contains("transitdata_alert_processor_rejected_messages_total 1.0\n"));
+        assertTrue(scraped.contains("transitdata_alert_processor_failed_messages_total 1.0\n"));
+    }
+
+    /**
+     * Snapshot with one bulletin affecting half a million stops, one bulletin with a long text and many more bulletins
+     * than the limit
+     */
+    private static byte[] createPathologicalServiceAlert() {
+        final InternalMessages.ServiceAlert.Builder builder = new ServiceAlertGenerator(20_000, 2, 5, 3).generate(1).toBuilder();
+        builder.setBulletins(0, withStops(builder.getBulletins(0), 500_000));
+        builder.setBulletins(1, withDescription(builder.getBulletins(1), "x".repeat(50_000)));
+        return builder.build().toByteArray();
+    }
+
+    private static long getUsedHeapAfterGc() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    @Test
+    public void testMemoryUsageStaysBoundedWithPathologicalSnapshots() throws Exception {
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        final byte[] data = createPathologicalServiceAlert();
+        final StubProducer producer = new StubProducer(true);
+        final AlertHandler handler = new AlertHandler(TestUtils.createConfig(Map.of("application.limits.enabled", true,
+                "application.limits.maxBulletins", 1000,
+                "application.limits.maxBulletinSize", "64 KiB",
+                "application.limits.maxSelectorsPerBulletin", 1000,
+                "application.limits.maxTextLength", 1000)), mockConsumer(), producer.getProducer(), StubProducer.factory());
+        final long usedHeapBefore = getUsedHeapAfterGc();
+
+        final long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < 5; i++) {
+            final long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+            handler.handleMessage(TestUtils.mockServiceAlertMessage(data, (TIMESTAMP + i) * 1000));
+            final long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+            assertTrue("Handling a snapshot of " + data.length + " bytes allocated " + allocated + " bytes", allocated < MAX_ALLOCATED_BYTES_PER_MESSAGE);
+        }
+        final long retained = getUsedHeapAfterGc() - usedHeapBefore;
+        assertTrue("Handling the snapshots retained " + retained + " bytes", retained < MAX_RETAINED_BYTES);
+
+        assertEquals(5, producer.getSentMessages().size());
+        final GtfsRealtime.FeedMessage feed = GtfsRealtime.FeedMessage.parseFrom(producer.getSentMessages().get(4).value);
+        assertEquals(1000, feed.getEntityCount());
+        final String scraped = handler.getMetrics().scrape();
+        assertTrue(scraped.contains("transitdata_alert_processor_discarded_bulletins_total{reason=\"bulletin_too_large\"} 5.0\n"));
+        assertTrue(scraped.contains("transitdata_alert_processor_discarded_bulletins_total{reason=\"too_many_bulletins\"} 94995.0\n"));
+        assertTrue(scraped.contains("transitdata_alert_processor_truncated_bulletins_total{reason=\"text_too_long\"} 5.0\n"));
+    }
+}
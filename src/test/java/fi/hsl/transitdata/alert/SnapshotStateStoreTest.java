@@ -0,0 +1,88 @@
+package fi.hsl.transitdata.alert;
+
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import org.apache.pulsar.client.api.Consumer;
+import org.apache.pulsar.client.api.MessageId;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SnapshotStateStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSavedStateIsLoaded() throws Exception {
+        final Path path = folder.getRoot().toPath().resolve("state").resolve("state.bin");
+        final SnapshotStateStore store = new SnapshotStateStore(path);
+        assertFalse(store.load().isPresent());
+
+        store.save(new SnapshotStateStore.SnapshotState(1000, "1:2:3", new byte[] { 1, 2, 3 }, new byte[] { 4, 5 }));
+        store.save(new SnapshotStateStore.SnapshotState(2000, "1:2:4", new byte[] { 6 }, new byte[] { 7, 8, 9 }));
+
+        final SnapshotStateStore.SnapshotState state = new SnapshotStateStore(path).load().get();
+        assertEquals(2000, state.timestampMs);
+        assertEquals("1:2:4", state.messageId);
+        assertArrayEquals(new byte[] { 6 }, state.serviceAlert);
+        assertArrayEquals(new byte[] { 7, 8, 9 }, state.feedMessage);
+        assertFalse(Files.exists(path.resolveSibling("state.bin.tmp")));
+    }
+
+    @Test
+    public void testCorruptedStateIsIgnored() throws Exception {
+        final Path path = folder.getRoot().toPath().resolve("state.bin");
+        final SnapshotStateStore store = new SnapshotStateStore(path);
+        store.save(new SnapshotStateStore.SnapshotState(1000, "1:2:3", new byte[] { 1, 2, 3 }, new byte[] { 4, 5 }));
+
+        final byte[] bytes = Files.readAllBytes(path);
+        bytes[bytes.length - 10]++;
+        Files.write(path, bytes);
+        assertEquals(Optional.empty(), store.load());
+
+        Files.write(path, new byte[] { 1, 2, 3 });
+        assertEquals(Optional.empty(), store.load());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testHandlerRestoresAndRepublishesState() throws Exception {
+        final byte[] data = TestUtils.readProtobufFromResourceFile("alert.pb");
+        final Consumer<byte[]> consumer = mock(Consumer.class);
+        when(consumer.acknowledgeAsync(any(MessageId.class))).thenReturn(CompletableFuture.completedFuture(null));
+
+        final Map<String, Object> overrides = new HashMap<>();
+        overrides.put("application.stateFile.enabled", true);
+        overrides.put("application.stateFile.path", folder.getRoot().toPath().resolve("state.bin").toString());
+
+        final StubProducer producer = new StubProducer(true);
+        final AlertHandler handler = new AlertHandler(TestUtils.createConfig(overrides), consumer, producer.getProducer(), StubProducer.factory());
+        handler.handleMessage(TestUtils.mockServiceAlertMessage(data, 1_600_000_000_000L));
+        handler.awaitPendingMessages();
+
+        final StubProducer restartedProducer = new StubProducer(true);
+        final AlertHandler restarted = new AlertHandler(TestUtils.createConfig(overrides), consumer, restartedProducer.getProducer(), StubProducer.factory());
+        restarted.restoreState();
+
+        assertEquals(1, restartedProducer.getSentMessages().size());
+        assertArrayEquals(producer.getSentMessages().get(0).value, restartedProducer.getSentMessages().get(0).value);
+        assertEquals(1_600_000_000_000L, restartedProducer.getSentMessages().get(0).eventTime);
+
+        //Caches were warmed up, so the same snapshot is not converted again
+        final String misses = "transitdata_alert_processor_feed_entity_cache_misses_total " + (double) InternalMessages.ServiceAlert.parseFrom(data).getBulletinsCount();
+        assertTrue(restarted.getMetrics().scrape().contains(misses));
+        restarted.handleMessage(TestUtils.mockServiceAlertMessage(data, 1_600_000_001_000L));
+        assertTrue(restarted.getMetrics().scrape().contains(misses));
+    }
+}
@@ -0,0 +1,172 @@
+package fi.hsl.transitdata.alert;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.UnknownFieldSet;
+import com.google.transit.realtime.GtfsRealtime;
+import fi.hsl.common.gtfsrt.FeedMessageFactory;
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import org.apache.pulsar.client.api.Consumer;
+import org.apache.pulsar.client.api.MessageId;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class StreamingTranscoderTest {
+    private static final long TIMESTAMP = 1_600_000_000L;
+
+    private static void assertConformsToConversion(final InternalMessages.ServiceAlert serviceAlert, final boolean globalNoServiceAlerts) throws Exception {
+        assertConformsToConversion(serviceAlert.toByteArray(), globalNoServiceAlerts);
+    }
+
+    private static void assertConformsToConversion(final byte[] serviceAlert, final boolean globalNoServiceAlerts) throws Exception {
+        final List<GtfsRealtime.FeedEntity> entities = AlertHandler.createFeedEntities(InternalMessages.ServiceAlert.parseFrom(serviceAlert).getBulletinsList(), globalNoServiceAlerts);
+        final GtfsRealtime.FeedMessage expected = FeedMessageFactory.createFullFeedMessage(entities, TIMESTAMP);
+
+        final byte[] transcoded = new StreamingTranscoder(globalNoServiceAlerts).transcode(serviceAlert, TIMESTAMP);
+        assertEquals(expected, GtfsRealtime.FeedMessage.parseFrom(transcoded));
+        assertArrayEquals(expected.toByteArray(), transcoded);
+    }
+
+    private static InternalMessages.Bulletin.Translation translation(final String language, final String text) {
+        return InternalMessages.Bulletin.Translation.newBuilder().setLanguage(language).setText(text).build();
+    }
+
+    private static InternalMessages.Bulletin.AffectedEntity entity(final String id) {
+        return InternalMessages.Bulletin.AffectedEntity.newBuilder().setEntityId(id).build();
+    }
+
+    @Test
+    public void testTranscodedMockDataIsSameAsConverted() throws Exception {
+        final byte[] data = TestUtils.readProtobufFromResourceFile("alert.pb");
+        assertConformsToConversion(data, true);
+        assertConformsToConversion(data, false);
+    }
+
+    @Test
+    public void testTranscodedGeneratedDataIsSameAsConverted() throws Exception {
+        final InternalMessages.ServiceAlert.Builder builder = new ServiceAlertGenerator(200, 5, 20, 3).generate(1).toBuilder();
+        for (int i = 0; i < builder.getBulletinsCount(); i += 5) {
+            builder.setBulletins(i, builder.getBulletins(i).toBuilder().setAffectsAllStops(true).setImpact(InternalMessages.Bulletin.Impact.CANCELLED));
+        }
+        assertConformsToConversion(builder.build(), true);
+        assertConformsToConversion(builder.build(), false);
+    }
+
+    @Test
+    public void testOutputBufferGrowsForLargeFeeds() throws Exception {
+        final InternalMessages.ServiceAlert serviceAlert = new ServiceAlertGenerator(100, 5, 1000, 3).generate(1);
+        final StreamingTranscoder transcoder = new StreamingTranscoder(true);
+
+        final byte[] small = transcoder.transcode(TestUtils.readProtobufFromResourceFile("alert.pb"), TIMESTAMP);
+        final byte[] large = transcoder.transcode(serviceAlert.toByteArray(), TIMESTAMP);
+        assertTrue(large.length > 64 * 1024);
+        assertEquals(100, transcoder.getBulletinCount());
+        assertArrayEquals(FeedMessageFactory.createFullFeedMessage(AlertHandler.createFeedEntities(serviceAlert.getBulletinsList(), true), TIMESTAMP).toByteArray(), large);
+
+        //Buffer is reused for the following messages
+        assertArrayEquals(small, transcoder.transcode(TestUtils.readProtobufFromResourceFile("alert.pb"), TIMESTAMP));
+    }
+
+    @Test
+    public void testBulletinsWithoutAlertsAndMissingFields() throws Exception {
+        final InternalMessages.ServiceAlert serviceAlert = InternalMessages.ServiceAlert.newBuilder()
+                //Only required to be shown in vehicles
+                .addBulletins(InternalMessages.Bulletin.newBuilder().setBulletinId("1").setDisplayOnly(true).setAffectsAllRoutes(true))
+                //No informed entities
+                .addBulletins(InternalMessages.Bulletin.newBuilder().setBulletinId("2").addTitles(translation("fi", "Otsikko")))
+                //Only ID and informed entities
+                .addBulletins(InternalMessages.Bulletin.newBuilder().setBulletinId("3").addAffectedStops(entity("1020453")))
+                //No ID, duplicate routes and stops, translations without language or text
+                .addBulletins(InternalMessages.Bulletin.newBuilder()
+                        .setDisplayOnly(false)
+                        .setCategory(InternalMessages.Category.ROAD_CLOSED)
+                        .setImpact(InternalMessages.Bulletin.Impact.DISRUPTION_ROUTE)
+                        .setPriority(InternalMessages.Bulletin.Priority.SEVERE)
+                        .setValidFromUtcMs(-1500)
+                        .addAffectedRoutes(entity("1009"))
+                        .addAffectedRoutes(entity("1009 6"))
+                        .addAffectedRoutes(InternalMessages.Bulletin.AffectedEntity.getDefaultInstance())
+                        .addAffectedStops(entity("1020453"))
+                        .addAffectedStops(entity("1020453"))
+                        .addTitles(InternalMessages.Bulletin.Translation.newBuilder().setText("Title"))
+                        .addDescriptions(InternalMessages.Bulletin.Translation.newBuilder().setLanguage("sv"))
+                        .addUrls(translation("en", "https://www.hsl.fi/en")))
+                .build();
+
+        assertConformsToConversion(serviceAlert, true);
+        assertEquals(2, GtfsRealtime.FeedMessage.parseFrom(new StreamingTranscoder(true).transcode(serviceAlert.toByteArray(), TIMESTAMP)).getEntityCount());
+    }
+
+    @Test
+    public void testUnknownFieldsAndEnumValuesAreIgnored() throws Exception {
+        final InternalMessages.Bulletin bulletin = InternalMessages.Bulletin.newBuilder()
+                .setBulletinId("1")
+                .setCategory(InternalMessages.Category.ASSAULT)
+                .setAffectsAllStops(true)
+                .addTitles(translation("fi", "Häiriö"))
+                .setUnknownFields(UnknownFieldSet.newBuilder()
+                        .addField(99, UnknownFieldSet.Field.newBuilder().addLengthDelimited(ByteString.copyFromUtf8("unknown")).build())
+                        .build())
+                .build();
+
+        //Category with a value that is not in the enum after the known category
+        final ByteArrayOutputStream bulletinBytes = new ByteArrayOutputStream();
+        final CodedOutputStream out = CodedOutputStream.newInstance(bulletinBytes);
+        bulletin.writeTo(out);
+        out.writeEnum(InternalMessages.Bulletin.CATEGORY_FIELD_NUMBER, 999);
+        out.flush();
+
+        final ByteArrayOutputStream serviceAlert = new ByteArrayOutputStream();
+        final CodedOutputStream serviceAlertOut = CodedOutputStream.newInstance(serviceAlert);
+        serviceAlertOut.writeInt32(InternalMessages.ServiceAlert.SCHEMAVERSION_FIELD_NUMBER, 1);
+        serviceAlertOut.writeByteArray(InternalMessages.ServiceAlert.BULLETINS_FIELD_NUMBER, bulletinBytes.toByteArray());
+        serviceAlertOut.writeUInt64(100, 1);
+        serviceAlertOut.flush();
+
+        assertConformsToConversion(serviceAlert.toByteArray(), true);
+        final GtfsRealtime.FeedMessage feedMessage = GtfsRealtime.FeedMessage.parseFrom(new StreamingTranscoder(true).transcode(serviceAlert.toByteArray(), TIMESTAMP));
+        assertEquals(GtfsRealtime.Alert.Cause.POLICE_ACTIVITY, feedMessage.getEntity(0).getAlert().getCause());
+    }
+
+    @Test(expected = InvalidProtocolBufferException.class)
+    public void testTruncatedServiceAlertIsRejected() throws Exception {
+        final byte[] data = TestUtils.readProtobufFromResourceFile("alert.pb");
+        new StreamingTranscoder(true).transcode(Arrays.copyOf(data, data.length - 10), TIMESTAMP);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testHandlerPublishesSameFeedWithStreamingTranscoder() throws Exception {
+        final byte[] data = TestUtils.readProtobufFromResourceFile("alert.pb");
+        final Consumer<byte[]> consumer = mock(Consumer.class);
+        when(consumer.acknowledgeAsync(any(MessageId.class))).thenReturn(CompletableFuture.completedFuture(null));
+
+        final List<byte[]> payloads = new ArrayList<>();
+        for (final boolean streaming : new boolean[] { false, true }) {
+            final StubProducer producer = new StubProducer(true);
+            final AlertHandler handler = new AlertHandler(TestUtils.createConfig(Collections.singletonMap("application.streamingTranscoder.enabled", streaming)),
+                    consumer, producer.getProducer(), StubProducer.factory());
+            handler.handleMessage(TestUtils.mockServiceAlertMessage(data, TIMESTAMP * 1000));
+            payloads.add(producer.getSentMessages().get(0).value);
+        }
+        assertArrayEquals(payloads.get(0), payloads.get(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    @SuppressWarnings("unchecked")
+    public void testStreamingTranscoderCannotBeUsedWithDifferentialFeeds() throws Exception {
+        final Map<String, Object> overrides = new HashMap<>();
+        overrides.put("application.streamingTranscoder.enabled", true);
+        overrides.put("application.differential.enabled", true);
+        new AlertHandler(TestUtils.createConfig(overrides), mock(Consumer.class), new StubProducer(true).getProducer(), StubProducer.factory());
+    }
+}
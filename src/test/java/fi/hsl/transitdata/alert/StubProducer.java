@@ -0,0 +1,132 @@
+package fi.hsl.transitdata.alert;
+
+import org.apache.pulsar.client.api.MessageId;
+import org.apache.pulsar.client.api.Producer;
+import org.apache.pulsar.client.api.TypedMessageBuilder;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * In-process stand-in for a Pulsar producer that records the messages sent with it. Asynchronously sent messages are
+ * either persisted immediately or left pending until the test completes them.
+ */
+class StubProducer {
+    static class SentMessage {
+        byte[] value;
+        String key;
+        long eventTime;
+        final Map<String, String> properties = new HashMap<>();
+        final CompletableFuture<MessageId> future = new CompletableFuture<>();
+
+        void persist() {
+            future.complete(mock(MessageId.class));
+        }
+
+        void fail(final Throwable throwable) {
+            future.completeExceptionally(throwable);
+        }
+    }
+
+    private final boolean persistImmediately;
+    private final List<SentMessage> sentMessages = Collections.synchronizedList(new ArrayList<>());
+    private final Producer<byte[]> producer;
+
+    /**
+     * @return Factory creating a stub producer persisting messages immediately for each topic
+     */
+    static ProducerFactory factory() {
+        return factory(topic -> new StubProducer(true).getProducer());
+    }
+
+    /**
+     * @param producers Creates the producer of each topic
+     * @return Factory that also grants exclusive access right away, like when running only one instance
+     */
+    static ProducerFactory factory(final Function<String, Producer<byte[]>> producers) {
+        return new ProducerFactory() {
+            @Override
+            public Producer<byte[]> createProducer(final String topic) {
+                return producers.apply(topic);
+            }
+
+            @Override
+            public CompletableFuture<Producer<byte[]>> createExclusiveProducerAsync(final String topic) {
+                return CompletableFuture.completedFuture(producers.apply(topic));
+            }
+        };
+    }
+
+    StubProducer(final boolean persistImmediately) {
+        this.persistImmediately = persistImmediately;
+        this.producer = createProducer();
+    }
+
+    Producer<byte[]> getProducer() {
+        return producer;
+    }
+
+    List<SentMessage> getSentMessages() {
+        synchronized (sentMessages) {
+            return new ArrayList<>(sentMessages);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Producer<byte[]> createProducer() {
+        return mock(Producer.class, invocation -> {
+            switch (invocation.getMethod().getName()) {
+                case "newMessage":
+                    return createMessageBuilder();
+                case "getTopic":
+                    return "stub-topic";
+                case "isConnected":
+                    return true;
+                case "flush":
+                case "close":
+                    return null;
+                case "flushAsync":
+                case "closeAsync":
+                    return CompletableFuture.completedFuture(null);
+                default:
+                    throw new UnsupportedOperationException(invocation.getMethod().getName());
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private TypedMessageBuilder<byte[]> createMessageBuilder() {
+        final SentMessage message = new SentMessage();
+        return mock(TypedMessageBuilder.class, invocation -> {
+            switch (invocation.getMethod().getName()) {
+                case "value":
+                    message.value = invocation.getArgument(0);
+                    return invocation.getMock();
+                case "key":
+                    message.key = invocation.getArgument(0);
+                    return invocation.getMock();
+                case "eventTime":
+                    message.eventTime = invocation.getArgument(0);
+                    return invocation.getMock();
+                case "property":
+                    message.properties.put(invocation.getArgument(0), invocation.getArgument(1));
+                    return invocation.getMock();
+                case "send":
+                    sentMessages.add(message);
+                    message.persist();
+                    return message.future.get();
+                case "sendAsync":
+                    sentMessages.add(message);
+                    if (persistImmediately) {
+                        message.persist();
+                    }
+                    return message.future;
+                default:
+                    throw new UnsupportedOperationException(invocation.getMethod().getName());
+            }
+        });
+    }
+}
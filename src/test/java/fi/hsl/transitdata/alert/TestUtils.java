@@ -0,0 +1,49 @@
+package fi.hsl.transitdata.alert;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import fi.hsl.common.transitdata.TransitdataProperties;
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.MessageId;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class TestUtils {
+    private TestUtils() {}
+
+    static byte[] readProtobufFromResourceFile(final String filename) throws IOException {
+        try (InputStream is = TestUtils.class.getClassLoader().getResourceAsStream(filename)) {
+            return is.readAllBytes();
+        }
+    }
+
+    /**
+     * @return Application config with the default values from environment.conf, overridden with the given values
+     */
+    static Config createConfig(final Map<String, Object> overrides) {
+        return ConfigFactory.parseMap(overrides)
+                .withFallback(ConfigFactory.parseResources("environment.conf"))
+                .resolve();
+    }
+
+    @SuppressWarnings("unchecked")
+    static Message<byte[]> mockServiceAlertMessage(final byte[] data, final long eventTimeMs) {
+        final String schema = TransitdataProperties.ProtobufSchema.TransitdataServiceAlert.toString();
+
+        final Message<byte[]> message = mock(Message.class);
+        when(message.getData()).thenReturn(data);
+        when(message.getValue()).thenReturn(data);
+        when(message.getEventTime()).thenReturn(eventTimeMs);
+        when(message.getMessageId()).thenReturn(mock(MessageId.class));
+        when(message.hasProperty(TransitdataProperties.KEY_PROTOBUF_SCHEMA)).thenReturn(true);
+        when(message.getProperty(TransitdataProperties.KEY_PROTOBUF_SCHEMA)).thenReturn(schema);
+        when(message.getProperties()).thenReturn(Collections.singletonMap(TransitdataProperties.KEY_PROTOBUF_SCHEMA, schema));
+        return message;
+    }
+}
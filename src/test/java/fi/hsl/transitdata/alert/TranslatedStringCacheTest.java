@@ -0,0 +1,62 @@
+package fi.hsl.transitdata.alert;
+
+import com.google.transit.realtime.GtfsRealtime;
+import fi.hsl.common.transitdata.proto.InternalMessages;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TranslatedStringCacheTest {
+    private static InternalMessages.Bulletin.Translation translation(final String language, final String text) {
+        return InternalMessages.Bulletin.Translation.newBuilder().setLanguage(language).setText(text).build();
+    }
+
+    @Test
+    public void testTranslatedStringIsBuiltInOrder() {
+        final TranslatedStringCache cache = new TranslatedStringCache(10);
+        final GtfsRealtime.TranslatedString translatedString = cache.get(Arrays.asList(translation("fi", "Häiriö"), translation("en", "Disruption")));
+
+        assertEquals(2, translatedString.getTranslationCount());
+        assertEquals("fi", translatedString.getTranslation(0).getLanguage());
+        assertEquals("Häiriö", translatedString.getTranslation(0).getText());
+        assertEquals("en", translatedString.getTranslation(1).getLanguage());
+        assertEquals("Disruption", translatedString.getTranslation(1).getText());
+    }
+
+    @Test
+    public void testSameTextsAreCached() {
+        final TranslatedStringCache cache = new TranslatedStringCache(10);
+        final GtfsRealtime.TranslatedString first = cache.get(Arrays.asList(translation("fi", "Häiriö"), translation("en", "Disruption")));
+        final GtfsRealtime.TranslatedString second = cache.get(Arrays.asList(translation("fi", "Häiriö"), translation("en", "Disruption")));
+
+        assertSame(first, second);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertTrue(cache.getRetainedBytes() > 0);
+    }
+
+    @Test
+    public void testDifferentLanguagesOrOrderAreNotCachedTogether() {
+        final TranslatedStringCache cache = new TranslatedStringCache(10);
+        final List<InternalMessages.Bulletin.Translation> original = Arrays.asList(translation("fi", "Linja"), translation("sv", "Linje"));
+
+        final GtfsRealtime.TranslatedString translatedString = cache.get(original);
+        assertNotSame(translatedString, cache.get(Arrays.asList(translation("sv", "Linje"), translation("fi", "Linja"))));
+        assertNotSame(translatedString, cache.get(Arrays.asList(translation("sv", "Linja"), translation("fi", "Linje"))));
+        assertNotSame(translatedString, cache.get(Arrays.asList(translation("fi", "LinjaLinje"))));
+        assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    public void testCacheSizeIsBounded() {
+        final TranslatedStringCache cache = new TranslatedStringCache(5);
+        for (int i = 0; i < 20; i++) {
+            cache.get(Arrays.asList(translation("fi", "Teksti " + i)));
+        }
+        assertTrue(cache.size() <= 5);
+        assertTrue(cache.getRetainedBytes() > 0);
+    }
+}